@@ -6,7 +6,6 @@ import android.media.MediaFormat;
 import android.media.MediaMuxer;
 import android.os.Build;
 import android.os.Process;
-import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
@@ -15,13 +14,24 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileAlreadyExistsException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+import be.jonaseveraert.jonasutils_android.audio.codec.AudioMuxer;
+import be.jonaseveraert.jonasutils_android.audio.codec.EncodeLoop;
+import be.jonaseveraert.jonasutils_android.audio.codec.EncoderMetrics;
+import be.jonaseveraert.jonasutils_android.audio.codec.FlacAudioMuxer;
+import be.jonaseveraert.jonasutils_android.audio.codec.MediaCodecAudioEncoder;
+import be.jonaseveraert.jonasutils_android.audio.codec.MediaMuxerAudioMuxer;
+import be.jonaseveraert.jonasutils_android.audio.waveform.Waveform;
+import be.jonaseveraert.jonasutils_android.audio.waveform.WaveformBuilder;
+import be.jonaseveraert.jonasutils_android.progressBar.ProgressNode;
 import be.jonaseveraert.util.progressBar.ProgressBarHandler;
 
-import static android.content.ContentValues.TAG;
-
 public class AudioConverter {
 
     private final String COMPRESSED_AUDIO_FILE_MIME_TYPE;
@@ -30,13 +40,45 @@ public class AudioConverter {
     private final int BUFFER_SIZE;
     private final int CODEC_TIMEOUT_IN_MS = 5000;
     private final int CHANNELS;
+    private final EncoderProfile PROFILE;
     private be.jonaseveraert.util.progressBar.ProgressBarHandler pbHandler;
+    private int inputMode = InputMode.CHANNEL;
+    private EncoderMetrics.Listener metricsListener;
+    private volatile EncoderPool encoderPool;
+    private boolean waveformSidecar = false;
+    // Optional processing before the encoder
+    private boolean silenceTrimming = false;
+    private double silenceThresholdDbfs = SilenceTrimmingPcmSource.DEFAULT_THRESHOLD_DBFS;
+    private int minSilenceMs = SilenceTrimmingPcmSource.DEFAULT_MIN_SILENCE_MS;
+    private int keepSilenceMs = SilenceTrimmingPcmSource.DEFAULT_KEEP_SILENCE_MS;
+    private boolean loudnessNormalization = false;
+    private double loudnessTargetDbfs = LoudnessNormalizingPcmSource.DEFAULT_TARGET_DBFS;
+    private int loudnessLookAheadMs = LoudnessNormalizingPcmSource.DEFAULT_LOOK_AHEAD_MS;
+    private int progressActivities = 4;
+    private long progressIntervalMs = 100;
+    private double progressPercentageDelta = 1.0;
+    // Format of the input PCM, when it differs from the encoder's
+    private int inputSamplingRate;
+    private int inputChannels;
+    private int inputEncoding = ConvertingPcmSource.ENCODING_PCM_16BIT;
 
     /**
      * Variables for the {@link #COMPRESSED_AUDIO_FILE_MIME_TYPE compressedMimeType} parameter in {@link #AudioConverter AudioConverter}
      */
     public abstract static class MimeType {
         public static final String MP4A_LATM = "audio/mp4a-latm"; // TODO: maybe with enum
+        /**
+         * Opus in a WebM container (API 29+)
+         */
+        public static final String OPUS = "audio/opus";
+        /**
+         * AMR wideband in a 3GPP container (API 26+), 16 kHz mono only
+         */
+        public static final String AMR_WB = "audio/amr-wb";
+        /**
+         * Lossless FLAC, written as a .flac file (API 21+)
+         */
+        public static final String FLAC = "audio/flac";
     }
 
     /**
@@ -47,22 +89,60 @@ public class AudioConverter {
         public static final int MONO = 1;
     }
 
+    /**
+     * Variables for {@link #setInputMode setInputMode}
+     */
+    public abstract static class InputMode {
+        /**
+         * Reads the input through a {@link FileInputStream FileInputStream} into a temporary byte array,
+         * which is then copied into the codec's input buffer.
+         */
+        public static final int STREAM = FilePcmSource.MODE_STREAM;
+        /**
+         * Reads the input through a {@link FileChannel FileChannel} directly into the codec's input buffer.
+         * (default)
+         */
+        public static final int CHANNEL = FilePcmSource.MODE_CHANNEL;
+    }
+
     /**
      *
-     * @param compressedMimeType Use {@link MimeType MimeType}.MP4_LATM
+     * @param compressedMimeType Use {@link MimeType MimeType}. The converter uses the built-in
+     *                           {@link EncoderProfile EncoderProfile} of the mime type.
      * @param compressedBitRateInBps target bitrate in bits per second
      * @param samplingRate sampling rate
      * @param amtChannels use the {@link Channels Channels} class for the different options
      * @param pbHandler a {@link ProgressBarHandler ProgressBarHandler}. Can be null to not keep track
      *                  of the progress. Has to be set up manually. The {@link #convertAudio convertAudio} subProcess
-     *                  has 4 activities.
+     *                  has 4 activities, see {@link #setProgressReporting setProgressReporting}.
      */
     public AudioConverter(String compressedMimeType, int compressedBitRateInBps, int samplingRate, int amtChannels, ProgressBarHandler pbHandler) {
+        this(compressedMimeType, EncoderProfile.forMimeType(compressedMimeType), compressedBitRateInBps, samplingRate, amtChannels, pbHandler);
+    }
+
+    /**
+     *
+     * @param profile the format and its encoder settings, e.g. {@link EncoderProfile#OPUS EncoderProfile.OPUS}
+     * @param compressedBitRateInBps target bitrate in bits per second
+     * @param samplingRate sampling rate
+     * @param amtChannels use the {@link Channels Channels} class for the different options
+     * @param pbHandler a {@link ProgressBarHandler ProgressBarHandler}. Can be null to not keep track
+     *                  of the progress. Has to be set up manually. The {@link #convertAudio convertAudio} subProcess
+     *                  has 4 activities, see {@link #setProgressReporting setProgressReporting}.
+     */
+    public AudioConverter(@NonNull EncoderProfile profile, int compressedBitRateInBps, int samplingRate, int amtChannels, ProgressBarHandler pbHandler) {
+        this(profile.getMimeType(), profile, compressedBitRateInBps, samplingRate, amtChannels, pbHandler);
+    }
+
+    private AudioConverter(String compressedMimeType, EncoderProfile profile, int compressedBitRateInBps, int samplingRate, int amtChannels, ProgressBarHandler pbHandler) {
         this.COMPRESSED_AUDIO_FILE_MIME_TYPE = compressedMimeType;
+        this.PROFILE = profile;
         this.COMPRESSED_AUDIO_FILE_BIT_RATE = compressedBitRateInBps; // 64000 = 64 kbps
         this.SAMPLING_RATE = samplingRate;
         this.BUFFER_SIZE = samplingRate; // TODO: ???
         this.CHANNELS = amtChannels;
+        this.inputSamplingRate = samplingRate;
+        this.inputChannels = amtChannels;
         this.pbHandler = (be.jonaseveraert.util.progressBar.ProgressBarHandler) pbHandler;
     }
 
@@ -77,15 +157,359 @@ public class AudioConverter {
      * {@link FileInputStream fis} could not close.
      * @throws AudioFormatNotSupported when the {@link #COMPRESSED_AUDIO_FILE_MIME_TYPE mime type}
      * specified in the constructor is not supported.
+     * @throws InterruptedIOException when the calling thread was interrupted during the conversion
+     * (e.g. when a job of a {@link BatchAudioConverter BatchAudioConverter} is cancelled).
      * @implNote request read and write access!
      * @see <a href="https://github.com/tqnst/MP4ParserMergeAudioVideo/blob/master/Mp4ParserSample-master/src/jp/classmethod/sample/mp4parser/MainActivity.java#L335-L442">GitHub</a>
      */
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     public boolean convertAudio(@NonNull File inputFile, @NonNull File outputFile) throws FileNotFoundException, FileAlreadyExistsException, IOException, AudioFormatNotSupported {
+        return convertAudio(inputFile, outputFile, null);
+    }
+
+    /**
+     * Converts an audio file like {@link #convertAudio(File, File) convertAudio}, but reports the
+     * progress to a node of a {@link ProgressNode progress tree} instead of the {@link ProgressBarHandler ProgressBarHandler}.
+     * @param inputFile the file that has to be converted to the specified format.
+     * @param outputFile the file the converted audio will be written to, may not exist yet
+     * @param progress the leaf of this conversion, e.g. with the size of the input as weight. Can be
+     *                 null to report to the ProgressBarHandler.
+     * @return true if the compression has finished.
+     * @throws FileNotFoundException when the inputFile does not exist
+     * @throws FileAlreadyExistsException when the outputFile already exists.
+     * @throws IOException if an I/O exception occurs during the conversion
+     * @throws AudioFormatNotSupported when the mime type specified in the constructor is not supported.
+     * @throws InterruptedIOException when the calling thread was interrupted during the conversion
+     */
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public boolean convertAudio(@NonNull File inputFile, @NonNull File outputFile, ProgressNode progress) throws FileNotFoundException, FileAlreadyExistsException, IOException, AudioFormatNotSupported {
         // Input file
-        FileInputStream fis = new FileInputStream(inputFile);
+        return convertAudio(new FilePcmSource(inputFile, inputMode, BUFFER_SIZE), outputFile, progress);
+    }
 
+    /**
+     * Encodes raw PCM from a {@link PcmSource PcmSource} as it becomes available. Data is only read
+     * from the source when the codec has a free input buffer.
+     * @param source the PCM to encode, e.g. a {@link PcmPipe PcmPipe} fed from a recording thread.
+     *               It is closed when the conversion ends.
+     * @param outputFile the file the converted audio will be written to, may not exist yet
+     * @return true if the compression has finished.
+     * @throws FileAlreadyExistsException when the outputFile already exists.
+     * @throws IOException if an I/O exception occurs during the creation of the outputFile, while
+     * reading the source or in the initialisation of the {@link MediaMuxer MediaMuxer}.
+     * @throws AudioFormatNotSupported when the {@link #COMPRESSED_AUDIO_FILE_MIME_TYPE mime type}
+     * specified in the constructor is not supported.
+     * @throws InterruptedIOException when the calling thread was interrupted during the conversion
+     */
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public boolean convertAudio(@NonNull PcmSource source, @NonNull File outputFile) throws FileAlreadyExistsException, IOException, AudioFormatNotSupported {
+        return convertAudio(source, outputFile, null);
+    }
+
+    /**
+     * Encodes raw PCM like {@link #convertAudio(PcmSource, File) convertAudio}, but reports the
+     * progress to a node of a {@link ProgressNode progress tree}. Sources of unknown length
+     * only complete the node at the end.
+     * @param source the PCM to encode. It is closed when the conversion ends.
+     * @param outputFile the file the converted audio will be written to, may not exist yet
+     * @param progress the leaf of this conversion. Can be null to report to the ProgressBarHandler.
+     * @return true if the compression has finished.
+     * @throws FileAlreadyExistsException when the outputFile already exists.
+     * @throws IOException if an I/O exception occurs during the conversion
+     * @throws AudioFormatNotSupported when the mime type specified in the constructor is not supported.
+     * @throws InterruptedIOException when the calling thread was interrupted during the conversion
+     */
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public boolean convertAudio(@NonNull PcmSource source, @NonNull File outputFile, ProgressNode progress) throws FileAlreadyExistsException, IOException, AudioFormatNotSupported {
+        source = convertInput(source);
+        try {
+            return encode(source, outputFile, progress);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Encodes one chunk of a {@link ChunkedAudioConverter ChunkedAudioConverter} like
+     * {@link #convertAudio(PcmSource, File) convertAudio}, but the loudness is normalized from the
+     * loudness of the chunks before it, so the whole recording gets one gain.
+     * @param loudness the loudness of the chunks before, updated with this chunk
+     */
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    boolean convertChunk(PcmSource source, File outputFile, LoudnessNormalizingPcmSource.Loudness loudness) throws FileAlreadyExistsException, IOException, AudioFormatNotSupported {
+        source = processInput(toEncoderFormat(source), loudness);
+        try {
+            return encode(source, outputFile, null);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Converts a compressed audio file (e.g. MP3, AAC or WAV) into the format specified in the
+     * AudioConverter. The file is decoded by a {@link DecodingPcmSource DecodingPcmSource} on its
+     * own thread while it is encoded on the calling thread, so decoding and encoding overlap. When
+     * the decoded PCM has another sampling rate, amount of channels or encoding than the encoder, it
+     * is converted by a {@link ConvertingPcmSource ConvertingPcmSource}; the format set with
+     * {@link #setInputFormat setInputFormat} is not used.
+     * @param inputFile the compressed audio file
+     * @param outputFile the file the converted audio will be written to, may not exist yet
+     * @return true if the compression has finished.
+     * @throws FileNotFoundException when the inputFile does not exist
+     * @throws FileAlreadyExistsException when the outputFile already exists.
+     * @throws IOException if an I/O exception occurs during the conversion or the inputFile could
+     * not be decoded
+     * @throws AudioFormatNotSupported when the inputFile has no audio track, there is no decoder for
+     * it or the mime type specified in the constructor is not supported.
+     * @throws InterruptedIOException when the calling thread was interrupted during the conversion
+     */
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public boolean transcodeAudio(@NonNull File inputFile, @NonNull File outputFile) throws FileNotFoundException, FileAlreadyExistsException, IOException, AudioFormatNotSupported {
+        return transcodeAudio(inputFile, outputFile, null);
+    }
+
+    /**
+     * Converts a compressed audio file like {@link #transcodeAudio(File, File) transcodeAudio}, but
+     * reports the progress to a node of a {@link ProgressNode progress tree}.
+     * @param inputFile the compressed audio file
+     * @param outputFile the file the converted audio will be written to, may not exist yet
+     * @param progress the leaf of this conversion. Can be null to report to the ProgressBarHandler.
+     * @return true if the compression has finished.
+     * @throws FileNotFoundException when the inputFile does not exist
+     * @throws FileAlreadyExistsException when the outputFile already exists.
+     * @throws IOException if an I/O exception occurs during the conversion or the inputFile could
+     * not be decoded
+     * @throws AudioFormatNotSupported when the inputFile has no audio track, there is no decoder for
+     * it or the mime type specified in the constructor is not supported.
+     * @throws InterruptedIOException when the calling thread was interrupted during the conversion
+     */
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public boolean transcodeAudio(@NonNull File inputFile, @NonNull File outputFile, ProgressNode progress) throws FileNotFoundException, FileAlreadyExistsException, IOException, AudioFormatNotSupported {
+        checkSupported(); // Before a decoder thread is started
+        DecodingPcmSource decoded = new DecodingPcmSource(inputFile);
+        PcmSource source = decoded;
+        try {
+            decoded.waitForFormat();
+            if (decoded.getSamplingRate() != SAMPLING_RATE || decoded.getChannels() != CHANNELS
+                    || decoded.getEncoding() != ConvertingPcmSource.ENCODING_PCM_16BIT)
+                source = new ConvertingPcmSource(decoded, decoded.getSamplingRate(), decoded.getChannels(), decoded.getEncoding(), SAMPLING_RATE, CHANNELS);
+            source = processInput(source, new LoudnessNormalizingPcmSource.Loudness());
+            return encode(source, outputFile, progress);
+        } finally {
+            source.close();
+        }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private boolean encode(PcmSource source, File outputFile, ProgressNode progress) throws FileAlreadyExistsException, IOException, AudioFormatNotSupported {
         // Output file
+        prepareOutputFile(outputFile);
+
+        // Output format
+        MediaFormat outputFormat = createOutputFormat();
+
+        // MediaCodec
+        EncoderPool encoderPool = this.encoderPool;
+        EncoderPool.Session session = null;
+        MediaCodec codec;
+        if (encoderPool != null) {
+            session = encoderPool.acquire(outputFormat);
+            codec = session.getCodec();
+        } else {
+            codec = MediaCodec.createEncoderByType(COMPRESSED_AUDIO_FILE_MIME_TYPE);
+        }
+
+        boolean finished = false;
+        try {
+            if (session == null) {
+                codec.configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                codec.start();
+            }
+
+            // Media muxer
+            AudioMuxer<MediaFormat> muxer = createMuxer(outputFile);
+
+            EncodeLoop<MediaFormat> loop = new EncodeLoop<>(session != null ? session.getEncoder() : new MediaCodecAudioEncoder(codec),
+                    muxer, SAMPLING_RATE, CHANNELS, CODEC_TIMEOUT_IN_MS);
+            ProgressReporter progressReporter = progress != null
+                    ? new ProgressReporter(progress, source.length(), progressIntervalMs, progressPercentageDelta)
+                    : createProgressReporter(source.length());
+            loop.setListener(progressReporter);
+            EncoderMetrics.Listener metricsListener = this.metricsListener;
+            EncoderMetrics metrics = metricsListener != null ? new EncoderMetrics() : null;
+            loop.setMetrics(metrics);
+            WaveformBuilder waveform = createWaveformBuilder();
+            loop.setWaveform(waveform);
+            try {
+                loop.run(source);
+            } catch (InterruptedIOException e) {
+                throw new InterruptedIOException("The conversion to " + outputFile.getPath() + " was cancelled");
+            }
+            finished = true;
+            if (waveform != null)
+                waveform.writeTo(Waveform.sidecarFor(outputFile));
+            if (progressReporter != null)
+                progressReporter.finish();
+            if (metrics != null)
+                metricsListener.onConversionFinished(outputFile, metrics);
+            return true;
+        } finally {
+            // The encoder reached the end of the stream only when the loop finished
+            if (session == null)
+                EncoderPool.stopAndRelease(codec);
+            else if (finished)
+                session.recycle();
+            else
+                session.discard();
+        }
+    }
+
+    /**
+     * Converts an audio file like {@link #convertAudio convertAudio}, but returns immediately.
+     * On API 21 and higher the codec is driven by callbacks on a dedicated handler thread
+     * (see {@link CallbackEncoderEngine CallbackEncoderEngine}), which always reads the input
+     * through a {@link FileChannel FileChannel}. On older devices {@link #convertAudio convertAudio}
+     * is run on a background thread.
+     * @param inputFile the file that has to be converted to the specified format.
+     * @param outputFile the file the converted audio will be written to, may not exist yet
+     * @return a future that completes with true when the conversion has finished. {@link Future#get() get}
+     * throws an {@link java.util.concurrent.ExecutionException ExecutionException} wrapping the
+     * exceptions {@link #convertAudio convertAudio} can throw. Cancelling the future stops the conversion.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public Future<Boolean> convertAudioAsync(@NonNull File inputFile, @NonNull File outputFile) throws FileNotFoundException {
+        int mode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? InputMode.CHANNEL : inputMode;
+        return convertAudioAsync(new FilePcmSource(inputFile, mode, BUFFER_SIZE), outputFile);
+    }
+
+    /**
+     * Encodes raw PCM from a {@link PcmSource PcmSource} like {@link #convertAudio(PcmSource, File) convertAudio},
+     * but returns immediately. See {@link #convertAudioAsync(File, File)}.
+     * @param source the PCM to encode. It is closed when the conversion ends.
+     * @param outputFile the file the converted audio will be written to, may not exist yet
+     * @return a future that completes with true when the conversion has finished
+     */
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public Future<Boolean> convertAudioAsync(@NonNull final PcmSource source, @NonNull final File outputFile) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            return new CallbackEncoderEngine(this, convertInput(source), outputFile).start();
+
+        FutureTask<Boolean> task = new FutureTask<>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                return convertAudio(source, outputFile);
+            }
+        });
+        new Thread(task, "AudioConverter-" + outputFile.getName()).start();
+        return task;
+    }
+
+    /**
+     * Sets the format of the input PCM. When it differs from the sampling rate and channels given in
+     * the constructor, the input is converted by a {@link ConvertingPcmSource ConvertingPcmSource}
+     * before it is encoded (e.g. 48 kHz stereo recordings encoded as 16 kHz mono voice).
+     * By default the input is expected to be 16 bit PCM in the encoder's format.
+     * @param samplingRate the sampling rate of the input
+     * @param amtChannels the amount of channels of the input
+     * @param encoding {@link ConvertingPcmSource#ENCODING_PCM_16BIT ENCODING_PCM_16BIT},
+     *                 {@link ConvertingPcmSource#ENCODING_PCM_8BIT ENCODING_PCM_8BIT} or
+     *                 {@link ConvertingPcmSource#ENCODING_PCM_FLOAT ENCODING_PCM_FLOAT}
+     */
+    public void setInputFormat(int samplingRate, int amtChannels, int encoding) {
+        ConvertingPcmSource.bytesPerSample(encoding); // validates the encoding
+        this.inputSamplingRate = samplingRate;
+        this.inputChannels = amtChannels;
+        this.inputEncoding = encoding;
+    }
+
+    /**
+     * @return {@code source}, converted by a {@link ConvertingPcmSource ConvertingPcmSource} when the
+     * input format differs from the encoder's, and {@link #processInput processed}
+     */
+    private PcmSource convertInput(PcmSource source) {
+        return processInput(toEncoderFormat(source), new LoudnessNormalizingPcmSource.Loudness());
+    }
+
+    /**
+     * @return {@code source}, converted by a {@link ConvertingPcmSource ConvertingPcmSource} when the
+     * input format differs from the encoder's
+     */
+    private PcmSource toEncoderFormat(PcmSource source) {
+        if (inputSamplingRate != SAMPLING_RATE || inputChannels != CHANNELS || inputEncoding != ConvertingPcmSource.ENCODING_PCM_16BIT)
+            source = new ConvertingPcmSource(source, inputSamplingRate, inputChannels, inputEncoding, SAMPLING_RATE, CHANNELS);
+        return source;
+    }
+
+    /**
+     * Adds the enabled processing stages to PCM in the encoder's format. Silence is trimmed first,
+     * so it doesn't count for the loudness.
+     * @param loudness the loudness to continue from when normalizing
+     */
+    private PcmSource processInput(PcmSource source, LoudnessNormalizingPcmSource.Loudness loudness) {
+        if (silenceTrimming)
+            source = new SilenceTrimmingPcmSource(source, SAMPLING_RATE, CHANNELS, silenceThresholdDbfs, minSilenceMs, keepSilenceMs);
+        if (loudnessNormalization)
+            source = new LoudnessNormalizingPcmSource(source, SAMPLING_RATE, CHANNELS, loudnessTargetDbfs, loudnessLookAheadMs, LoudnessNormalizingPcmSource.DEFAULT_MAX_GAIN_DB, loudness);
+        return source;
+    }
+
+    /**
+     * Shortens the silences of the input before it is encoded, see {@link SilenceTrimmingPcmSource SilenceTrimmingPcmSource}.
+     * Less audio is encoded, so the conversion is faster and the output smaller. Off by default.
+     * @param enabled true to trim silences with the default settings
+     */
+    public void setSilenceTrimming(boolean enabled) {
+        setSilenceTrimming(enabled, SilenceTrimmingPcmSource.DEFAULT_THRESHOLD_DBFS,
+                SilenceTrimmingPcmSource.DEFAULT_MIN_SILENCE_MS, SilenceTrimmingPcmSource.DEFAULT_KEEP_SILENCE_MS);
+    }
+
+    /**
+     * Shortens the silences of the input before it is encoded, see {@link SilenceTrimmingPcmSource SilenceTrimmingPcmSource}.
+     * @param enabled true to trim silences
+     * @param thresholdDbfs the level below which 10 ms of audio is silent, e.g. -50
+     * @param minSilenceMs the length from which a silence is shortened
+     * @param keepSilenceMs the length a shortened silence keeps, 0 to drop silences completely
+     */
+    public void setSilenceTrimming(boolean enabled, double thresholdDbfs, int minSilenceMs, int keepSilenceMs) {
+        if (keepSilenceMs < 0 || minSilenceMs < keepSilenceMs)
+            throw new IllegalArgumentException("Kept silence has to be between 0 and " + minSilenceMs + " ms, was " + keepSilenceMs);
+        this.silenceTrimming = enabled;
+        this.silenceThresholdDbfs = thresholdDbfs;
+        this.minSilenceMs = minSilenceMs;
+        this.keepSilenceMs = keepSilenceMs;
+    }
+
+    /**
+     * Brings the input to the same loudness before it is encoded, see {@link LoudnessNormalizingPcmSource LoudnessNormalizingPcmSource}.
+     * Off by default.
+     * @param enabled true to normalize to {@link LoudnessNormalizingPcmSource#DEFAULT_TARGET_DBFS DEFAULT_TARGET_DBFS}
+     */
+    public void setLoudnessNormalization(boolean enabled) {
+        setLoudnessNormalization(enabled, LoudnessNormalizingPcmSource.DEFAULT_TARGET_DBFS, LoudnessNormalizingPcmSource.DEFAULT_LOOK_AHEAD_MS);
+    }
+
+    /**
+     * Brings the input to the same loudness before it is encoded, see {@link LoudnessNormalizingPcmSource LoudnessNormalizingPcmSource}.
+     * @param enabled true to normalize the loudness
+     * @param targetDbfs the RMS level the input is brought to, e.g. -20
+     * @param lookAheadMs how far ahead the loudness is measured, the encoder lags this much behind
+     *                    a live source
+     */
+    public void setLoudnessNormalization(boolean enabled, double targetDbfs, int lookAheadMs) {
+        if (lookAheadMs < 0)
+            throw new IllegalArgumentException("The look-ahead can't be negative, was " + lookAheadMs);
+        this.loudnessNormalization = enabled;
+        this.loudnessTargetDbfs = targetDbfs;
+        this.loudnessLookAheadMs = lookAheadMs;
+    }
+
+    /**
+     * Creates the output file.
+     * @throws FileAlreadyExistsException when the outputFile already exists.
+     * @throws IOException if an I/O exception occurs during the creation of the outputFile.
+     */
+    void prepareOutputFile(File outputFile) throws FileAlreadyExistsException, IOException {
         if (outputFile.exists())
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 throw new FileAlreadyExistsException(outputFile.getPath(), null, "File already exists.");
@@ -96,136 +520,181 @@ public class AudioConverter {
             if (!(outputFile.createNewFile()))
                 throw new FileCouldNotBeCreatedException("The specified outputFile could not be created");
         }
+    }
 
-        // Media muxer
-        MediaMuxer muxer;
-        if (COMPRESSED_AUDIO_FILE_MIME_TYPE.equals(MimeType.MP4A_LATM))
-            muxer = new MediaMuxer(outputFile.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-        else
-            throw new AudioFormatNotSupported("The audio format " + COMPRESSED_AUDIO_FILE_MIME_TYPE + " is not supported.");
+    /**
+     * @return a muxer writing to {@code outputFile} in the container of the {@link #PROFILE profile}
+     * @throws IOException if an I/O Exception occurs in the initialisation of the {@link MediaMuxer MediaMuxer}
+     * @throws AudioFormatNotSupported when the mime type is not supported (on this device)
+     */
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    AudioMuxer<MediaFormat> createMuxer(File outputFile) throws IOException, AudioFormatNotSupported {
+        checkSupported();
+        if (PROFILE.getContainer() == EncoderProfile.CONTAINER_FLAC)
+            return new FlacAudioMuxer(outputFile);
+        return new MediaMuxerAudioMuxer(new MediaMuxer(outputFile.getAbsolutePath(), PROFILE.getContainer()));
+    }
 
-        // Output format
+    /**
+     * @return the format the encoder is configured with
+     * @throws AudioFormatNotSupported when the mime type is not supported (on this device)
+     */
+    MediaFormat createOutputFormat() throws AudioFormatNotSupported {
+        checkSupported();
         MediaFormat outputFormat = MediaFormat.createAudioFormat(COMPRESSED_AUDIO_FILE_MIME_TYPE, SAMPLING_RATE, CHANNELS);
-        if (COMPRESSED_AUDIO_FILE_MIME_TYPE.equals(MimeType.MP4A_LATM)) {
+        if (COMPRESSED_AUDIO_FILE_MIME_TYPE.equals(MimeType.MP4A_LATM))
             outputFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        if (COMPRESSED_AUDIO_FILE_MIME_TYPE.equals(MimeType.FLAC)) {
+            if (PROFILE.getComplexity() != EncoderProfile.DEFAULT)
+                outputFormat.setInteger(MediaFormat.KEY_FLAC_COMPRESSION_LEVEL, PROFILE.getComplexity());
+        } else {
             outputFormat.setInteger(MediaFormat.KEY_BIT_RATE, COMPRESSED_AUDIO_FILE_BIT_RATE);
-            outputFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, 16384);
-        } else
+            if (PROFILE.getComplexity() != EncoderProfile.DEFAULT && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+                outputFormat.setInteger(MediaFormat.KEY_COMPLEXITY, PROFILE.getComplexity());
+        }
+        // Older encoders have no bitrate mode or complexity, they use their default
+        if (PROFILE.getBitrateMode() != EncoderProfile.DEFAULT && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            outputFormat.setInteger(MediaFormat.KEY_BITRATE_MODE, PROFILE.getBitrateMode());
+        outputFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, PROFILE.getMaxInputSize());
+        return outputFormat;
+    }
+
+    private void checkSupported() throws AudioFormatNotSupported {
+        if (PROFILE == null)
             throw new AudioFormatNotSupported("The audio format " + COMPRESSED_AUDIO_FILE_MIME_TYPE + " is not supported.");
+        if (!PROFILE.isSupported())
+            throw new AudioFormatNotSupported("The audio format " + COMPRESSED_AUDIO_FILE_MIME_TYPE + " requires API " + PROFILE.getMinSdkVersion() + ".");
+    }
 
-        // MediaCodec
-        MediaCodec codec = MediaCodec.createEncoderByType(COMPRESSED_AUDIO_FILE_MIME_TYPE);
-        codec.configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-        codec.start();
-
-        // Buffer stuff, whatever that means
-        ByteBuffer[] codecInputBuffers = codec.getInputBuffers(); // Note: array of buffers
-        ByteBuffer[] codecOutputBuffers = codec.getOutputBuffers();
-
-        // So basically the buffer is something temprorary we read the byte data into?
-        MediaCodec.BufferInfo outBuffInfo = new MediaCodec.BufferInfo();
-        byte[] tempBuffer = new byte[BUFFER_SIZE];
-        boolean hasMoreData = true;
-        double presentationTimeUs = 0;
-        int audioTrackIdx = 0;
-        int totalBytesRead = 0;
-        int percentComplete = 0;
-        int lastPercentageComplete = percentComplete;
-        do {
-            int inputBufIndex = 0;
-            while (inputBufIndex != -1 && hasMoreData) {
-                inputBufIndex = codec.dequeueInputBuffer(CODEC_TIMEOUT_IN_MS);
-
-                if (inputBufIndex >= 0) {
-                    ByteBuffer dstBuf = codecInputBuffers[inputBufIndex];
-                    dstBuf.clear();
-
-                    int bytesRead = -99;
-                    try {
-                        bytesRead = fis.read(tempBuffer, 0, dstBuf.limit());
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    // Log.e("bytesRead", "Readed " + bytesRead);
-                    if (bytesRead == -1) { // -1 implies EOS
-                        hasMoreData = false;
-                        codec.queueInputBuffer(inputBufIndex, 0, 0, (long) presentationTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                    } else {
-                        totalBytesRead += bytesRead;
-                        dstBuf.put(tempBuffer, 0, bytesRead);
-                        codec.queueInputBuffer(inputBufIndex, 0, bytesRead, (long) presentationTimeUs, 0);
-                        presentationTimeUs = 1000000l * (totalBytesRead / 2) / SAMPLING_RATE;
-                    }
-                }
-            }
-            // Drain audio
-            int outputBufIndex = 0;
-            // I guess these are errors?
-            while (outputBufIndex != MediaCodec.INFO_TRY_AGAIN_LATER) {
-                outputBufIndex = codec.dequeueOutputBuffer(outBuffInfo, CODEC_TIMEOUT_IN_MS);
-                if (outputBufIndex >= 0) {
-                    ByteBuffer encodedData = codecOutputBuffers[outputBufIndex];
-                    encodedData.position(outBuffInfo.offset);
-                    encodedData.limit(outBuffInfo.offset + outBuffInfo.size);
-                    if ((outBuffInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 && outBuffInfo.size != 0) {
-                        codec.releaseOutputBuffer(outputBufIndex, false);
-                    } else {
-                        muxer.writeSampleData(audioTrackIdx, codecOutputBuffers[outputBufIndex], outBuffInfo);
-                        codec.releaseOutputBuffer(outputBufIndex, false);
-                    }
-                } else if (outputBufIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    outputFormat = codec.getOutputFormat();
-                    Log.v(TAG, "Output format changed - " + outputFormat);
-                    audioTrackIdx = muxer.addTrack(outputFormat);
-                    muxer.start();
-                } else if (outputBufIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                    //Log.e(TAG, "Output buffers changed during encode!");
-                    throw new OutputBuffersChanged("Output buffers changed during encode!");
-                } else if (outputBufIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                    // NO OP
-                } else {
-                    //Log.e(TAG, "Unkown return code frm dequeueOutputBuffer - " + outputBufIndex);
-                    throw new UnkownReturnCode("Unkown return code frm dequeueOutputBuffer - " + outputBufIndex);
-                }
-            }
+    /**
+     * Creates the reporter that completes the activities of the {@link #pbHandler pbHandler} while
+     * converting an input of {@code inputLength} bytes. The handler is called on the converting
+     * thread, so it has to be thread safe, like {@link be.jonaseveraert.jonasutils_android.progressBar.ProgressBarHandler the Android ProgressBarHandler}.
+     * @param inputLength the length of the input, or {@link PcmSource#UNKNOWN_LENGTH UNKNOWN_LENGTH}
+     * @return the reporter, or null when there is no handler or the length is unknown
+     */
+    ProgressReporter createProgressReporter(long inputLength) {
+        if (pbHandler == null || inputLength == PcmSource.UNKNOWN_LENGTH)
+            return null;
+        return new ProgressReporter(pbHandler, inputLength, progressActivities, progressIntervalMs, progressPercentageDelta);
+    }
 
-            // TODO: get the percentage that is already done in the progressbar and calculate what still needs to be done. -> work with the actual percentages! (or make it variable)
-            // TODO: make a background thread for this that sleeps every second and then updates the progressbar
-            if (pbHandler != null) {
-                percentComplete = (int) Math.round(((float) totalBytesRead / (float) inputFile.length()) * 100.0);
-                if (percentComplete >= 25 && lastPercentageComplete < 25) {
-                    Thread t = new Thread(completeActivity);
-                    t.start();
-                    lastPercentageComplete = 25;
-                } else if (percentComplete >= 50 && lastPercentageComplete < 50) {
-                    Thread t = new Thread(completeActivity);
-                    t.start();
-                    lastPercentageComplete = 50;
-                } else if (percentComplete >= 75 && lastPercentageComplete < 75) {
-                    Thread t = new Thread(completeActivity);
-                    t.start();
-                    lastPercentageComplete = 75;
-                } else if (percentComplete >= 95 && lastPercentageComplete < 95) {
-                    Thread t = new Thread(completeActivity);
-                    t.start();
-                    lastPercentageComplete = 100;
-                }
-            }
-            //Log.v(TAG, "Conversion % - " + percentComplete);
-        } while (outBuffInfo.flags != MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+    /**
+     * Sets how the input file is read during {@link #convertAudio convertAudio}.
+     * @param inputMode use {@link InputMode InputMode}. Defaults to {@link InputMode#CHANNEL InputMode.CHANNEL}
+     */
+    public void setInputMode(int inputMode) {
+        if (inputMode != InputMode.STREAM && inputMode != InputMode.CHANNEL)
+            throw new IllegalArgumentException("Unknown input mode " + inputMode);
+        this.inputMode = inputMode;
+    }
 
-        fis.close();
-        muxer.stop();
-        muxer.release();
+    /**
+     * Sets how the progress of a conversion is reported to the {@link ProgressBarHandler ProgressBarHandler}.
+     * Every conversion completes {@code activities} activities of the current sub-process, one
+     * for every {@code 1 / activities} of the input. The handler is updated at most once every
+     * {@code minIntervalMs} and only when the progress moved at least {@code minPercentageDelta}.
+     * By default a conversion completes 4 activities, with updates at least 100 ms and 1% apart.
+     * @param activities the amount of activities per conversion, e.g. 100 for a bar moving in steps of 1%
+     * @param minIntervalMs the minimum time between two updates
+     * @param minPercentageDelta the minimum progress of the conversion between two updates
+     */
+    public void setProgressReporting(int activities, long minIntervalMs, double minPercentageDelta) {
+        if (activities < 1)
+            throw new IllegalArgumentException("A conversion has at least 1 activity, was " + activities);
+        this.progressActivities = activities;
+        this.progressIntervalMs = minIntervalMs;
+        this.progressPercentageDelta = minPercentageDelta;
+    }
 
-        return true;
+    /**
+     * @return the amount of activities of the progress bar's sub-process a conversion completes
+     */
+    public int getProgressActivities() {
+        return progressActivities;
     }
 
-    private final Runnable completeActivity = new Runnable() {
-        @Override
-        public void run() {
-            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-            pbHandler.completeActivity(true);
-        }
-    };
+    /**
+     * Reports the {@link EncoderMetrics metrics} of every conversion that finishes successfully.
+     * Without a listener the conversions don't measure anything.
+     * @param metricsListener the listener, or null to stop measuring
+     */
+    public void setMetricsListener(EncoderMetrics.Listener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    EncoderMetrics.Listener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Lets the synchronous conversions take their encoder from a {@link EncoderPool EncoderPool}
+     * and give it back afterwards, instead of creating and releasing a codec for every file. Useful
+     * when converting many short files, e.g. with a {@link BatchAudioConverter BatchAudioConverter}.
+     * The pool can be shared between converters.
+     * @param encoderPool the pool, or null to create a codec per conversion
+     */
+    public void setEncoderPool(EncoderPool encoderPool) {
+        this.encoderPool = encoderPool;
+    }
+
+    /**
+     * @return the pool set with {@link #setEncoderPool setEncoderPool}, or null
+     */
+    public EncoderPool getEncoderPool() {
+        return encoderPool;
+    }
+
+    /**
+     * Lets every conversion compute the {@link Waveform waveform} of the PCM while it is encoded and
+     * write it next to the output file (see {@link Waveform#sidecarFor Waveform.sidecarFor}), so it
+     * can be drawn without decoding the audio. Off by default.
+     * @param enabled true to write a waveform sidecar for every conversion
+     */
+    public void setWaveformSidecar(boolean enabled) {
+        this.waveformSidecar = enabled;
+    }
+
+    /**
+     * @return a builder for the PCM the encoder is fed, or null when no waveform sidecar is written
+     */
+    WaveformBuilder createWaveformBuilder() {
+        return waveformSidecar ? new WaveformBuilder(SAMPLING_RATE, CHANNELS) : null;
+    }
+
+    /**
+     * @return the mime type this converter encodes to
+     */
+    public String getMimeType() {
+        return COMPRESSED_AUDIO_FILE_MIME_TYPE;
+    }
+
+    public int getSamplingRate() {
+        return SAMPLING_RATE;
+    }
+
+    public int getChannels() {
+        return CHANNELS;
+    }
+
+    /**
+     * @return the sampling rate of the PCM given to this converter, see {@link #setInputFormat setInputFormat}
+     */
+    int getInputSamplingRate() {
+        return inputSamplingRate;
+    }
+
+    /**
+     * @return the size in bytes of one frame (a sample for every channel) of the PCM given to this converter
+     */
+    int getInputFrameBytes() {
+        return ConvertingPcmSource.bytesPerSample(inputEncoding) * inputChannels;
+    }
+
+    /**
+     * @return the encoder settings, or null when the mime type given in the constructor is not supported
+     */
+    public EncoderProfile getProfile() {
+        return PROFILE;
+    }
 }
@@ -0,0 +1,335 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.jonaseveraert.jonasutils_android.progressBar.ProgressNode;
+
+import static android.content.ContentValues.TAG;
+
+/**
+ * Converts multiple audio files at once using an {@link AudioConverter AudioConverter}.
+ * The jobs are run on a bounded pool of worker threads. The size of the pool is capped to the
+ * amount of encoder instances the device can run at the same time.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class BatchAudioConverter {
+    /**
+     * Amount of workers used when the device can't tell how many encoder instances it supports
+     * (before API 23)
+     */
+    private static final int DEFAULT_MAX_ENCODERS = 2;
+    /**
+     * Time an idle worker thread is kept alive
+     */
+    private static final long KEEP_ALIVE_IN_S = 30;
+
+    private final AudioConverter converter;
+    private final int maxConcurrentEncoders;
+    private final ThreadPoolExecutor executor;
+    /**
+     * The jobs that have not completed yet, a job removes itself when it is done
+     */
+    private final Set<Future<Boolean>> futures = new HashSet<>();
+    /**
+     * When set, every job reports to a child of this node instead of to the ProgressBarHandler
+     */
+    private volatile ProgressNode progressTree;
+
+    private final AtomicLong totalBytesConverted = new AtomicLong();
+    private final AtomicInteger jobsCompleted = new AtomicInteger();
+    /**
+     * Guards {@link #jobsRunning jobsRunning}, {@link #busyStartNanos busyStartNanos} and
+     * {@link #busyNanos busyNanos}, which only make sense together
+     */
+    private final Object busyLock = new Object();
+    private int jobsRunning = 0;
+    private long busyStartNanos = 0;
+    /**
+     * Time spent with at least one job running, without the currently running period
+     */
+    private long busyNanos = 0;
+
+    /**
+     * An input file and the output file it should be converted to
+     */
+    public static class Job {
+        private final File inputFile;
+        private final File outputFile;
+
+        /**
+         * @param inputFile the file that has to be converted
+         * @param outputFile the file the converted audio will be written to, may not exist yet
+         */
+        public Job(@NonNull File inputFile, @NonNull File outputFile) {
+            this.inputFile = inputFile;
+            this.outputFile = outputFile;
+        }
+
+        public File getInputFile() {
+            return inputFile;
+        }
+
+        public File getOutputFile() {
+            return outputFile;
+        }
+    }
+
+    /**
+     * Creates a batch converter that runs as many jobs at once as there are encoder instances
+     * available for the mime type of the {@code converter}.
+     * @param converter the converter used for every job. If it has a {@link be.jonaseveraert.util.progressBar.ProgressBarHandler ProgressBarHandler},
+     *                  the current sub-process should have {@link AudioConverter#getProgressActivities() getProgressActivities}
+     *                  activities per job.
+     */
+    public BatchAudioConverter(@NonNull AudioConverter converter) {
+        this(converter, getMaxEncoderInstances(converter.getMimeType()));
+    }
+
+    /**
+     * @param converter the converter used for every job
+     * @param maxConcurrentEncoders the maximum amount of jobs that are converted at the same time
+     */
+    public BatchAudioConverter(@NonNull AudioConverter converter, int maxConcurrentEncoders) {
+        if (maxConcurrentEncoders < 1)
+            throw new IllegalArgumentException("maxConcurrentEncoders has to be at least 1, was " + maxConcurrentEncoders);
+        this.converter = converter;
+        this.maxConcurrentEncoders = maxConcurrentEncoders;
+        this.executor = new ThreadPoolExecutor(maxConcurrentEncoders, maxConcurrentEncoders,
+                KEEP_ALIVE_IN_S, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), workerFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Schedules all jobs for conversion.
+     * @param jobs the input and output files
+     * @return a future per job, in the same order as {@code jobs}. {@link Future#get() get} will
+     * throw an {@link java.util.concurrent.ExecutionException ExecutionException} wrapping the exception
+     * {@link AudioConverter#convertAudio convertAudio} threw when the job failed.
+     */
+    public List<Future<Boolean>> convertAll(@NonNull List<Job> jobs) {
+        List<Future<Boolean>> jobFutures = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            jobFutures.add(convert(job));
+        }
+        return jobFutures;
+    }
+
+    /**
+     * Schedules a single job for conversion.
+     * @param job the input and output file
+     * @return the future of the job
+     */
+    public Future<Boolean> convert(@NonNull final Job job) {
+        // The node is added when the job is queued, so the progress accounts for all queued work
+        ProgressNode tree = progressTree;
+        final ProgressNode jobProgress = tree != null
+                ? tree.addChild(job.inputFile.getName(), Math.max(1, job.inputFile.length())) : null;
+        FutureTask<Boolean> future = new FutureTask<Boolean>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return runJob(job, jobProgress);
+            }
+        }) {
+            @Override
+            protected void done() {
+                synchronized (futures) {
+                    futures.remove(this);
+                }
+                // Also when the job was cancelled before it ran, a failed or cancelled job has no work left either
+                if (jobProgress != null)
+                    jobProgress.complete();
+            }
+        };
+        // Added before it can run, so done() always finds it
+        synchronized (futures) {
+            futures.add(future);
+        }
+        try {
+            executor.execute(future);
+        } catch (RuntimeException e) { // RejectedExecutionException after shutdown
+            synchronized (futures) {
+                futures.remove(future);
+            }
+            throw e;
+        }
+        return future;
+    }
+
+    private boolean runJob(Job job, ProgressNode jobProgress) throws Exception {
+        jobStarted();
+        boolean outputExisted = job.outputFile.exists();
+        try {
+            boolean result = converter.convertAudio(job.inputFile, job.outputFile, jobProgress);
+            totalBytesConverted.addAndGet(job.inputFile.length());
+            jobsCompleted.incrementAndGet();
+            return result;
+        } catch (Exception e) {
+            // Don't leave a half written file behind, it would make the next attempt fail
+            if (!outputExisted && job.outputFile.exists() && !job.outputFile.delete())
+                Log.w(TAG, "Could not delete partial output " + job.outputFile.getPath());
+            throw e;
+        } finally {
+            // A job cancelled while running may have reported after done() completed its node
+            if (jobProgress != null)
+                jobProgress.complete();
+            jobFinished();
+        }
+    }
+
+    private void jobStarted() {
+        synchronized (busyLock) {
+            if (jobsRunning++ == 0)
+                busyStartNanos = System.nanoTime();
+        }
+    }
+
+    private void jobFinished() {
+        synchronized (busyLock) {
+            if (--jobsRunning == 0)
+                busyNanos += System.nanoTime() - busyStartNanos;
+        }
+    }
+
+    /**
+     * Lets the jobs report their progress to a {@link ProgressNode progress tree}. Every job that is
+     * scheduled afterwards gets a child of {@code progressTree} weighted by the size of its input, so
+     * big files take up a bigger part of the bar than small ones.
+     * @param progressTree the parent of the jobs' nodes (e.g. a node of
+     *                     {@link be.jonaseveraert.jonasutils_android.progressBar.ProgressBarHandler#getProgressTree() ProgressBarHandler.getProgressTree()}),
+     *                     or null to report to the converter's ProgressBarHandler
+     */
+    public void setProgressTree(ProgressNode progressTree) {
+        this.progressTree = progressTree;
+    }
+
+    /**
+     * Cancels all jobs that have not completed yet. Running jobs are interrupted and their partial
+     * output is deleted.
+     */
+    public void cancelAll() {
+        List<Future<Boolean>> pending;
+        synchronized (futures) {
+            pending = new ArrayList<>(futures);
+            futures.clear();
+        }
+        // Outside the lock, a cancelled job removes itself
+        for (Future<Boolean> future : pending) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Cancels all jobs and stops the worker threads. The converter can't be used afterwards.
+     */
+    public void shutdown() {
+        cancelAll();
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the amount of jobs converted at the same time
+     */
+    public int getMaxConcurrentEncoders() {
+        return maxConcurrentEncoders;
+    }
+
+    /**
+     * @return the amount of jobs that finished successfully
+     */
+    public int getJobsCompleted() {
+        return jobsCompleted.get();
+    }
+
+    /**
+     * @return the total size in bytes of the input files that were converted successfully
+     */
+    public long getTotalBytesConverted() {
+        return totalBytesConverted.get();
+    }
+
+    /**
+     * @return the time in nanoseconds during which at least one job was running
+     */
+    public long getBusyTimeNanos() {
+        synchronized (busyLock) {
+            long nanos = busyNanos;
+            if (jobsRunning > 0)
+                nanos += System.nanoTime() - busyStartNanos;
+            return nanos;
+        }
+    }
+
+    /**
+     * @return the total throughput of all workers in input bytes per second
+     */
+    public double getThroughput() {
+        long nanos = getBusyTimeNanos();
+        if (nanos == 0)
+            return 0;
+        return totalBytesConverted.get() * 1_000_000_000.0 / nanos;
+    }
+
+    /**
+     * Returns the amount of encoders for {@code mimeType} that can be used at the same time, capped
+     * to the amount of processors.
+     * @param mimeType the mime type, use {@link AudioConverter.MimeType AudioConverter.MimeType}
+     * @return the amount of encoder instances, at least 1
+     */
+    public static int getMaxEncoderInstances(String mimeType) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int instances = DEFAULT_MAX_ENCODERS;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            MediaCodecInfo[] codecInfos = new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos();
+            outer:
+            for (MediaCodecInfo info : codecInfos) {
+                if (!info.isEncoder())
+                    continue;
+                for (String type : info.getSupportedTypes()) {
+                    if (type.equalsIgnoreCase(mimeType)) {
+                        // createEncoderByType picks the first encoder that supports the type
+                        instances = info.getCapabilitiesForType(type).getMaxSupportedInstances();
+                        break outer;
+                    }
+                }
+            }
+        }
+        return Math.max(1, Math.min(instances, cores));
+    }
+
+    private final ThreadFactory workerFactory = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "BatchAudioConverter-" + count.incrementAndGet());
+        }
+    };
+}
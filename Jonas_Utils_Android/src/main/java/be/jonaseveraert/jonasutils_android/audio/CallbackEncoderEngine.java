@@ -0,0 +1,285 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import be.jonaseveraert.jonasutils_android.audio.codec.AudioMuxer;
+import be.jonaseveraert.jonasutils_android.audio.codec.EncoderMetrics;
+import be.jonaseveraert.jonasutils_android.audio.codec.SampleInfo;
+import be.jonaseveraert.jonasutils_android.audio.waveform.Waveform;
+import be.jonaseveraert.jonasutils_android.audio.waveform.WaveformBuilder;
+
+import static android.content.ContentValues.TAG;
+
+/**
+ * Encodes a {@link PcmSource PcmSource} using {@link MediaCodec#setCallback MediaCodec's asynchronous mode}. Reading the
+ * input and writing to the muxer happens on a dedicated {@link HandlerThread HandlerThread} whenever
+ * the codec has a buffer available, so no thread has to poll the codec.
+ * Used by {@link AudioConverter#convertAudioAsync AudioConverter.convertAudioAsync}.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+class CallbackEncoderEngine extends MediaCodec.Callback {
+    private final AudioConverter converter;
+    private final PcmSource source;
+    private final File outputFile;
+    private final int samplingRate;
+    private final int bytesPerFrame;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final ConversionFuture future = new ConversionFuture();
+    private final EncoderMetrics.Listener metricsListener;
+    /**
+     * Null when there is no metrics listener
+     */
+    private final EncoderMetrics metrics;
+    /**
+     * Null when the converter doesn't write a waveform sidecar
+     */
+    private final WaveformBuilder waveform;
+
+    // Only accessed on the handler thread
+    private AudioMuxer<MediaFormat> muxer;
+    private final SampleInfo sampleInfo = new SampleInfo();
+    private MediaCodec codec;
+    private int audioTrackIdx = -1;
+    private boolean inputDone = false;
+    private boolean finished = false;
+    private long totalBytesRead = 0;
+    private long presentationTimeUs = 0;
+    /**
+     * Null when there is no progress bar handler or the length of the source is unknown
+     */
+    private final ProgressReporter progressReporter;
+
+    /**
+     * The future returned to the caller. Cancelling it stops the conversion, also while the handler
+     * thread is blocked reading the source.
+     */
+    private class ConversionFuture extends FutureTask<Boolean> {
+        ConversionFuture() {
+            super(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    throw new IllegalStateException("Completed by the encoder callbacks");
+                }
+            });
+        }
+
+        void complete() {
+            set(true);
+        }
+
+        void fail(Throwable t) {
+            setException(t);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                // The handler thread can be blocked in a read that waits for input, the interrupt
+                // makes it fail so the release below gets to run
+                thread.interrupt();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        release();
+                    }
+                });
+            }
+        }
+    }
+
+    CallbackEncoderEngine(AudioConverter converter, PcmSource source, File outputFile) {
+        this.converter = converter;
+        this.source = source;
+        this.outputFile = outputFile;
+        this.samplingRate = converter.getSamplingRate();
+        this.bytesPerFrame = 2 * converter.getChannels();
+        this.progressReporter = converter.createProgressReporter(source.length());
+        this.metricsListener = converter.getMetricsListener();
+        this.metrics = metricsListener != null ? new EncoderMetrics() : null;
+        this.waveform = converter.createWaveformBuilder();
+        this.thread = new HandlerThread("AudioConverter-" + outputFile.getName(), Process.THREAD_PRIORITY_AUDIO);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Starts the conversion on the handler thread and returns immediately.
+     * @return the future of the conversion
+     */
+    FutureTask<Boolean> start() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    converter.prepareOutputFile(outputFile);
+                    muxer = converter.createMuxer(outputFile);
+                    MediaFormat outputFormat = converter.createOutputFormat();
+
+                    // The codec is created on this thread, so its callbacks are delivered on this thread's looper
+                    if (metrics != null)
+                        metrics.start();
+                    codec = MediaCodec.createEncoderByType(converter.getMimeType());
+                    codec.setCallback(CallbackEncoderEngine.this);
+                    codec.configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                    codec.start();
+                } catch (Exception e) {
+                    fail(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+        if (finished || inputDone)
+            return;
+
+        try {
+            long t = 0;
+            if (metrics != null)
+                metrics.countInputDequeue(index);
+            ByteBuffer dstBuf = codec.getInputBuffer(index);
+            dstBuf.clear();
+            // A source without data blocks this thread, output callbacks are handled once it returns
+            if (metrics != null)
+                t = System.nanoTime();
+            int bytesRead = source.read(dstBuf);
+            if (metrics != null)
+                metrics.addRead(bytesRead, System.nanoTime() - t);
+            // Before the codec time starts, the waveform isn't part of it
+            if (waveform != null && bytesRead > 0)
+                waveform.accumulate(dstBuf, 0, bytesRead);
+            if (metrics != null)
+                t = System.nanoTime();
+            if (bytesRead == -1) { // -1 implies EOS
+                inputDone = true;
+                codec.queueInputBuffer(index, 0, 0, presentationTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            } else {
+                totalBytesRead += bytesRead;
+                codec.queueInputBuffer(index, 0, bytesRead, presentationTimeUs, 0);
+                presentationTimeUs = 1000000L * (totalBytesRead / bytesPerFrame) / samplingRate;
+                if (progressReporter != null)
+                    progressReporter.onProgress(totalBytesRead);
+            }
+            if (metrics != null)
+                metrics.addCodecTime(System.nanoTime() - t);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+        if (finished)
+            return;
+
+        try {
+            long t = 0;
+            if (metrics != null)
+                metrics.countOutputDequeue(index);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 && info.size != 0) {
+                codec.releaseOutputBuffer(index, false);
+            } else {
+                if (info.size != 0) {
+                    ByteBuffer encodedData = codec.getOutputBuffer(index);
+                    encodedData.position(info.offset);
+                    encodedData.limit(info.offset + info.size);
+                    sampleInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+                    if (metrics != null)
+                        t = System.nanoTime();
+                    muxer.writeSampleData(audioTrackIdx, encodedData, sampleInfo);
+                    if (metrics != null)
+                        metrics.addWrite(info.size, System.nanoTime() - t);
+                }
+                codec.releaseOutputBuffer(index, false);
+            }
+
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                if (metrics != null)
+                    t = System.nanoTime();
+                muxer.stop();
+                if (metrics != null)
+                    metrics.addMuxerTime(System.nanoTime() - t);
+                if (waveform != null)
+                    waveform.writeTo(Waveform.sidecarFor(outputFile));
+                release();
+                if (progressReporter != null)
+                    progressReporter.finish();
+                if (metrics != null) {
+                    metrics.finish(presentationTimeUs);
+                    metricsListener.onConversionFinished(outputFile, metrics);
+                }
+                future.complete();
+            }
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+        if (finished)
+            return;
+
+        Log.v(TAG, "Output format changed - " + format);
+        audioTrackIdx = muxer.addTrack(format);
+        muxer.start();
+    }
+
+    @Override
+    public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+        fail(e);
+    }
+
+    private void fail(Throwable t) {
+        if (finished)
+            return;
+        release();
+        future.fail(t);
+    }
+
+    /**
+     * Releases the codec, muxer and input and stops the handler thread. Has to be called on the
+     * handler thread.
+     */
+    private void release() {
+        if (finished)
+            return;
+        finished = true;
+
+        if (codec != null) {
+            try {
+                codec.stop();
+            } catch (IllegalStateException e) {
+                // The codec was not started or is in an error state, release it anyway
+            }
+            codec.release();
+        }
+        if (muxer != null)
+            muxer.release();
+        try {
+            source.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not close the PCM source", e);
+        }
+        thread.quitSafely();
+    }
+}
@@ -0,0 +1,324 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.Properties;
+
+import be.jonaseveraert.jonasutils_android.audio.codec.AudioMuxer;
+import be.jonaseveraert.jonasutils_android.audio.codec.SampleInfo;
+import be.jonaseveraert.jonasutils_android.audio.waveform.Waveform;
+import be.jonaseveraert.jonasutils_android.audio.waveform.WaveformBuilder;
+
+import static android.content.ContentValues.TAG;
+
+/**
+ * Converts large files in chunks so an interrupted conversion can be resumed.
+ * <p>
+ * Every chunk of the input is encoded into its own segment file inside a work directory next to the
+ * output file ({@code <outputFile>.parts}). After each segment a checkpoint is written. When the
+ * conversion is started again for the same input (e.g. after the app was killed), the segments that
+ * were completed are kept and the conversion continues with the next chunk. When all segments are
+ * done they are copied into the output file without re-encoding and the work directory is deleted.
+ * <p>
+ * Each segment is encoded separately, so codecs with an encoder delay (like AAC) can have a very
+ * short glitch at the chunk boundaries. Use large chunks (e.g. a few minutes of audio).
+ * <p>
+ * The {@link AudioConverter#setLoudnessNormalization loudness} measured in a chunk is stored in the
+ * checkpoint and carried over to the next one, so the whole input is normalized once; only the
+ * look-ahead stops at the chunk boundaries. {@link AudioConverter#setSilenceTrimming Silence trimming}
+ * makes segments shorter than a chunk, each segment starts where the one before it ended. A
+ * silence that spans a chunk boundary is trimmed as trailing and leading silence of the two chunks.
+ * <p>
+ * With a {@link AudioConverter#setWaveformSidecar waveform sidecar}, every segment gets its own
+ * waveform; they are merged into one sidecar next to the output file.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class ChunkedAudioConverter {
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String KEY_INPUT_PATH = "inputPath";
+    private static final String KEY_INPUT_LENGTH = "inputLength";
+    private static final String KEY_INPUT_LAST_MODIFIED = "inputLastModified";
+    private static final String KEY_CHUNK_BYTES = "chunkBytes";
+    private static final String KEY_COMPLETED_SEGMENTS = "completedSegments";
+    private static final String KEY_STITCHING = "stitching";
+    private static final String KEY_LOUDNESS_SUM = "loudnessSumOfMeanSquares";
+    private static final String KEY_LOUDNESS_WINDOWS = "loudnessWindows";
+    private static final String KEY_LOUDNESS_GAIN = "loudnessGain";
+
+    /**
+     * Size of the buffer used to copy the encoded samples of the segments
+     */
+    private static final int SAMPLE_BUFFER_SIZE = 256 * 1024;
+
+    private final AudioConverter converter;
+    private final long chunkBytes;
+
+    /**
+     * @param converter the converter used for every chunk. Its progress bar handler (if any) gets
+     *                  {@link AudioConverter#getProgressActivities() getProgressActivities} activities per chunk.
+     * @param chunkDurationInS the duration of the audio in one chunk in seconds
+     */
+    public ChunkedAudioConverter(@NonNull AudioConverter converter, int chunkDurationInS) {
+        if (chunkDurationInS < 1)
+            throw new IllegalArgumentException("The chunk duration has to be at least 1 second, was " + chunkDurationInS);
+        this.converter = converter;
+        // Whole frames of the input PCM
+        this.chunkBytes = (long) chunkDurationInS * converter.getInputSamplingRate() * converter.getInputFrameBytes();
+    }
+
+    /**
+     * Converts {@code inputFile} or resumes an earlier, interrupted conversion of it.
+     * @param inputFile the file containing raw PCM
+     * @param outputFile the file the converted audio will be written to
+     * @return true if the conversion has finished
+     * @throws FileNotFoundException when the inputFile does not exist
+     * @throws FileAlreadyExistsException when the outputFile already exists and is not part of an
+     * interrupted conversion
+     * @throws IOException if an I/O error occurs while converting, writing the checkpoint or
+     * stitching the segments
+     * @throws AudioFormatNotSupported when the format of the converter is not supported
+     */
+    public boolean convertAudio(@NonNull File inputFile, @NonNull File outputFile) throws FileNotFoundException, FileAlreadyExistsException, IOException, AudioFormatNotSupported {
+        if (!inputFile.exists())
+            throw new FileNotFoundException(inputFile.getPath() + " does not exist");
+
+        File workDir = getWorkDir(outputFile);
+        Properties checkpoint = readCheckpoint(workDir, inputFile);
+        if (checkpoint == null && outputFile.exists()) {
+            // Fail before any segment is encoded instead of when stitching
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                throw new FileAlreadyExistsException(outputFile.getPath(), null, "File already exists.");
+            else
+                throw new RuntimeException("File already exists: " + outputFile.getPath());
+        }
+        if (checkpoint == null) {
+            // Nothing to resume, start over
+            deleteRecursively(workDir);
+            if (!workDir.mkdirs())
+                throw new FileCouldNotBeCreatedException("Could not create " + workDir.getPath());
+            checkpoint = new Properties();
+            checkpoint.setProperty(KEY_INPUT_PATH, inputFile.getAbsolutePath());
+            checkpoint.setProperty(KEY_INPUT_LENGTH, Long.toString(inputFile.length()));
+            checkpoint.setProperty(KEY_INPUT_LAST_MODIFIED, Long.toString(inputFile.lastModified()));
+            checkpoint.setProperty(KEY_CHUNK_BYTES, Long.toString(chunkBytes));
+            checkpoint.setProperty(KEY_COMPLETED_SEGMENTS, "0");
+            writeCheckpoint(workDir, checkpoint);
+        } else {
+            Log.v(TAG, "Resuming the conversion of " + inputFile.getPath() + " at segment " + checkpoint.getProperty(KEY_COMPLETED_SEGMENTS));
+        }
+
+        int segments = getSegmentCount(inputFile);
+        int completed = Integer.parseInt(checkpoint.getProperty(KEY_COMPLETED_SEGMENTS));
+        LoudnessNormalizingPcmSource.Loudness loudness = readLoudness(checkpoint);
+        for (int i = completed; i < segments; i++) {
+            File segment = getSegmentFile(workDir, i);
+            // A segment that was being written when the conversion was interrupted
+            if (segment.exists() && !segment.delete())
+                throw new FileCouldNotBeDeletedException("Could not delete the partial segment " + segment.getPath());
+
+            // The loudness of the chunks before, it only changes when the segment is completed
+            LoudnessNormalizingPcmSource.Loudness chunkLoudness = new LoudnessNormalizingPcmSource.Loudness(
+                    loudness.getGatedSumOfMeanSquares(), loudness.getGatedWindows(), loudness.getGain());
+            converter.convertChunk(new FilePcmSource(inputFile, i * chunkBytes, chunkBytes), segment, chunkLoudness);
+            loudness = chunkLoudness;
+
+            checkpoint.setProperty(KEY_COMPLETED_SEGMENTS, Integer.toString(i + 1));
+            checkpoint.setProperty(KEY_LOUDNESS_SUM, Double.toString(loudness.getGatedSumOfMeanSquares()));
+            checkpoint.setProperty(KEY_LOUDNESS_WINDOWS, Long.toString(loudness.getGatedWindows()));
+            checkpoint.setProperty(KEY_LOUDNESS_GAIN, Double.toString(loudness.getGain()));
+            writeCheckpoint(workDir, checkpoint);
+        }
+
+        if (Boolean.parseBoolean(checkpoint.getProperty(KEY_STITCHING))) {
+            // The output file was being written when the conversion was interrupted
+            if (outputFile.exists() && !outputFile.delete())
+                throw new FileCouldNotBeDeletedException("Could not delete the partial output " + outputFile.getPath());
+        } else {
+            checkpoint.setProperty(KEY_STITCHING, "true");
+            writeCheckpoint(workDir, checkpoint);
+        }
+        stitch(workDir, segments, outputFile);
+        WaveformBuilder waveform = converter.createWaveformBuilder();
+        if (waveform != null)
+            mergeWaveforms(workDir, segments, outputFile, waveform);
+
+        deleteRecursively(workDir);
+        return true;
+    }
+
+    /**
+     * @return whether there is an interrupted conversion of {@code inputFile} to {@code outputFile}
+     * that can be resumed
+     */
+    public boolean canResume(@NonNull File inputFile, @NonNull File outputFile) {
+        return readCheckpoint(getWorkDir(outputFile), inputFile) != null;
+    }
+
+    /**
+     * Deletes the segments and checkpoint of an interrupted conversion to {@code outputFile}.
+     * @throws FileCouldNotBeDeletedException if a file could not be deleted
+     */
+    public void discard(@NonNull File outputFile) throws FileCouldNotBeDeletedException {
+        deleteRecursively(getWorkDir(outputFile));
+    }
+
+    /**
+     * Copies the encoded samples of all segments into the output file. Every segment starts where
+     * the one before it ended: after its last sample, which lasts as long as the sample before it.
+     * Segments can be shorter than a chunk when silence is trimmed.
+     */
+    private void stitch(File workDir, int segments, File outputFile) throws IOException, AudioFormatNotSupported {
+        converter.prepareOutputFile(outputFile);
+        AudioMuxer<MediaFormat> muxer = converter.createMuxer(outputFile);
+        long offsetUs = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SAMPLE_BUFFER_SIZE);
+        SampleInfo info = new SampleInfo();
+        int trackIdx = -1;
+
+        try {
+            for (int i = 0; i < segments; i++) {
+                MediaExtractor extractor = new MediaExtractor();
+                try {
+                    extractor.setDataSource(getSegmentFile(workDir, i).getAbsolutePath());
+                    extractor.selectTrack(0);
+                    if (trackIdx == -1) {
+                        trackIdx = muxer.addTrack(extractor.getTrackFormat(0));
+                        muxer.start();
+                    }
+
+                    long lastTimeUs = -1;
+                    long sampleDurationUs = 0;
+                    int size;
+                    while ((size = extractor.readSampleData(buffer, 0)) >= 0) {
+                        long timeUs = extractor.getSampleTime();
+                        if (lastTimeUs >= 0)
+                            sampleDurationUs = timeUs - lastTimeUs;
+                        lastTimeUs = timeUs;
+                        // SAMPLE_FLAG_SYNC has the same value as MediaCodec.BUFFER_FLAG_KEY_FRAME
+                        info.set(0, size, timeUs + offsetUs, extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC);
+                        buffer.position(0);
+                        buffer.limit(size);
+                        muxer.writeSampleData(trackIdx, buffer, info);
+                        buffer.clear();
+                        extractor.advance();
+                    }
+                    if (lastTimeUs >= 0)
+                        offsetUs += lastTimeUs + sampleDurationUs;
+                } finally {
+                    extractor.release();
+                }
+            }
+            muxer.stop();
+        } finally {
+            muxer.release();
+        }
+    }
+
+    /**
+     * Writes the waveforms of all segments, one after the other, as the sidecar of the output file.
+     * Nothing is written when a segment has none, e.g. when the sidecar was enabled while resuming.
+     */
+    private static void mergeWaveforms(File workDir, int segments, File outputFile, WaveformBuilder waveform) throws IOException {
+        for (int i = 0; i < segments; i++) {
+            File sidecar = Waveform.sidecarFor(getSegmentFile(workDir, i));
+            if (!sidecar.exists()) {
+                Log.w(TAG, "Segment " + i + " has no waveform, " + outputFile.getPath() + " won't have one either");
+                return;
+            }
+            waveform.append(Waveform.read(sidecar));
+        }
+        waveform.writeTo(Waveform.sidecarFor(outputFile));
+    }
+
+    /**
+     * @return the loudness of the completed segments, nothing measured when there are none
+     */
+    private static LoudnessNormalizingPcmSource.Loudness readLoudness(Properties checkpoint) {
+        String sum = checkpoint.getProperty(KEY_LOUDNESS_SUM);
+        String windows = checkpoint.getProperty(KEY_LOUDNESS_WINDOWS);
+        String gain = checkpoint.getProperty(KEY_LOUDNESS_GAIN);
+        if (sum == null || windows == null || gain == null)
+            return new LoudnessNormalizingPcmSource.Loudness();
+        try {
+            return new LoudnessNormalizingPcmSource.Loudness(Double.parseDouble(sum), Long.parseLong(windows), Double.parseDouble(gain));
+        } catch (IllegalArgumentException e) { // Also NumberFormatException
+            Log.w(TAG, "Invalid loudness in the checkpoint, it is measured again", e);
+            return new LoudnessNormalizingPcmSource.Loudness();
+        }
+    }
+
+    private int getSegmentCount(File inputFile) {
+        return (int) Math.max(1, (inputFile.length() + chunkBytes - 1) / chunkBytes);
+    }
+
+    private static File getWorkDir(File outputFile) {
+        return new File(outputFile.getPath() + ".parts");
+    }
+
+    private static File getSegmentFile(File workDir, int index) {
+        return new File(workDir, "segment-" + index);
+    }
+
+    /**
+     * @return the checkpoint, or null when there is none or when it belongs to another input or chunk size
+     */
+    private Properties readCheckpoint(File workDir, File inputFile) {
+        File file = new File(workDir, CHECKPOINT_FILE);
+        if (!file.exists())
+            return null;
+
+        Properties checkpoint = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            checkpoint.load(in);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read checkpoint " + file.getPath(), e);
+            return null;
+        }
+
+        boolean sameJob = inputFile.getAbsolutePath().equals(checkpoint.getProperty(KEY_INPUT_PATH))
+                && Long.toString(inputFile.length()).equals(checkpoint.getProperty(KEY_INPUT_LENGTH))
+                && Long.toString(inputFile.lastModified()).equals(checkpoint.getProperty(KEY_INPUT_LAST_MODIFIED))
+                && Long.toString(chunkBytes).equals(checkpoint.getProperty(KEY_CHUNK_BYTES))
+                && checkpoint.getProperty(KEY_COMPLETED_SEGMENTS) != null;
+        return sameJob ? checkpoint : null;
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file first, so a crash never leaves a half written checkpoint
+     */
+    private static void writeCheckpoint(File workDir, Properties checkpoint) throws IOException {
+        File tempFile = new File(workDir, CHECKPOINT_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            checkpoint.store(out, null);
+            out.getFD().sync();
+        }
+        if (!tempFile.renameTo(new File(workDir, CHECKPOINT_FILE)))
+            throw new IOException("Could not write the checkpoint in " + workDir.getPath());
+    }
+
+    private static void deleteRecursively(File file) throws FileCouldNotBeDeletedException {
+        if (!file.exists())
+            return;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteRecursively(child);
+        }
+        if (!file.delete())
+            throw new FileCouldNotBeDeletedException("Could not delete " + file.getPath());
+    }
+}
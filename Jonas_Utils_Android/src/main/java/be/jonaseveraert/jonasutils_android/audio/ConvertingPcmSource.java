@@ -0,0 +1,259 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link PcmSource PcmSource} that converts the PCM of another source to the 16 bit format the
+ * encoder expects: it converts 8 bit and float samples to 16 bit, mixes the channels (e.g. stereo
+ * to mono) and resamples (e.g. 48 kHz to 16 kHz).
+ * <p>
+ * Downsampling averages the input frames of each output period, upsampling interpolates linearly
+ * and holds the last input frame until the end of its period.
+ * All buffers are allocated in the constructor, reading does not allocate.
+ */
+public class ConvertingPcmSource implements PcmSource {
+    /**
+     * Signed 16 bit little endian samples (same value as {@code android.media.AudioFormat.ENCODING_PCM_16BIT})
+     */
+    public static final int ENCODING_PCM_16BIT = 2;
+    /**
+     * Unsigned 8 bit samples (same value as {@code android.media.AudioFormat.ENCODING_PCM_8BIT})
+     */
+    public static final int ENCODING_PCM_8BIT = 3;
+    /**
+     * 32 bit little endian float samples between -1 and 1 (same value as {@code android.media.AudioFormat.ENCODING_PCM_FLOAT})
+     */
+    public static final int ENCODING_PCM_FLOAT = 4;
+
+    /**
+     * The amount of input the converter reads from the upstream source at once
+     */
+    private static final int SCRATCH_SIZE = 16384;
+
+    private final PcmSource upstream;
+    private final int inRate;
+    private final int inChannels;
+    private final int inEncoding;
+    private final int inFrameBytes;
+    private final int outRate;
+    private final int outChannels;
+    private final int outFrameBytes;
+    /**
+     * Upper bound of output frames produced by one input frame
+     */
+    private final int maxOutPerIn;
+
+    /**
+     * Input read from upstream, in read mode between calls
+     */
+    private final ByteBuffer scratch;
+    private final int[] inFrame;
+    private final int[] frame;
+    private final int[] prevFrame;
+    private final long[] sum;
+    private int sumCount = 0;
+    /**
+     * Resampling phase, in units of 1 / (inRate * outRate) seconds
+     */
+    private long acc = 0;
+    private boolean hasPrevFrame = false;
+    private boolean upstreamDone = false;
+
+    /**
+     * @param upstream the source of the PCM that has to be converted
+     * @param inRate the sampling rate of the upstream PCM
+     * @param inChannels the amount of channels of the upstream PCM
+     * @param inEncoding {@link #ENCODING_PCM_16BIT ENCODING_PCM_16BIT}, {@link #ENCODING_PCM_8BIT ENCODING_PCM_8BIT}
+     *                   or {@link #ENCODING_PCM_FLOAT ENCODING_PCM_FLOAT}
+     * @param outRate the sampling rate this source produces
+     * @param outChannels the amount of channels this source produces
+     */
+    public ConvertingPcmSource(@NonNull PcmSource upstream, int inRate, int inChannels, int inEncoding, int outRate, int outChannels) {
+        if (inRate <= 0 || outRate <= 0 || inChannels <= 0 || outChannels <= 0)
+            throw new IllegalArgumentException("Sampling rates and channels have to be positive");
+        this.upstream = upstream;
+        this.inRate = inRate;
+        this.inChannels = inChannels;
+        this.inEncoding = inEncoding;
+        this.inFrameBytes = bytesPerSample(inEncoding) * inChannels;
+        this.outRate = outRate;
+        this.outChannels = outChannels;
+        this.outFrameBytes = 2 * outChannels;
+        this.maxOutPerIn = (outRate + inRate - 1) / inRate + 1;
+
+        this.scratch = ByteBuffer.allocate(Math.max(SCRATCH_SIZE - SCRATCH_SIZE % inFrameBytes, inFrameBytes)).order(ByteOrder.LITTLE_ENDIAN);
+        this.scratch.flip();
+        this.inFrame = new int[inChannels];
+        this.frame = new int[outChannels];
+        this.prevFrame = new int[outChannels];
+        this.sum = new long[outChannels];
+    }
+
+    /**
+     * @param encoding one of the {@code ENCODING_} constants
+     * @return the size of a sample in bytes
+     */
+    public static int bytesPerSample(int encoding) {
+        switch (encoding) {
+            case ENCODING_PCM_8BIT:
+                return 1;
+            case ENCODING_PCM_16BIT:
+                return 2;
+            case ENCODING_PCM_FLOAT:
+                return 4;
+            default:
+                throw new IllegalArgumentException("Unknown PCM encoding " + encoding);
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (dst.remaining() < outFrameBytes * maxOutPerIn)
+            throw new IllegalArgumentException("The buffer is too small to hold the converted output");
+
+        ByteOrder order = dst.order();
+        dst.order(ByteOrder.LITTLE_ENDIAN);
+        int start = dst.position();
+        try {
+            while (dst.remaining() >= outFrameBytes * maxOutPerIn) {
+                if (scratch.remaining() < inFrameBytes) {
+                    if (upstreamDone) {
+                        if (hasPrevFrame)
+                            flushLastFrame(dst);
+                        break;
+                    }
+                    // Return what was converted rather than blocking on the upstream source
+                    if (dst.position() > start)
+                        break;
+                    scratch.compact();
+                    int bytesRead = upstream.read(scratch);
+                    scratch.flip();
+                    if (bytesRead == -1)
+                        upstreamDone = true;
+                    continue;
+                }
+                readFrame();
+                resample(dst);
+            }
+        } finally {
+            dst.order(order);
+        }
+
+        int written = dst.position() - start;
+        if (written == 0 && upstreamDone)
+            return -1; // A trailing partial frame is dropped
+        return written;
+    }
+
+    /**
+     * Decodes one input frame from the scratch buffer and maps its channels onto {@link #frame frame}
+     */
+    private void readFrame() {
+        for (int c = 0; c < inChannels; c++) {
+            switch (inEncoding) {
+                case ENCODING_PCM_8BIT:
+                    inFrame[c] = ((scratch.get() & 0xFF) - 128) << 8;
+                    break;
+                case ENCODING_PCM_16BIT:
+                    inFrame[c] = scratch.getShort();
+                    break;
+                default:
+                    float f = scratch.getFloat();
+                    inFrame[c] = f >= 1f ? Short.MAX_VALUE : f <= -1f ? Short.MIN_VALUE : (int) (f * Short.MAX_VALUE);
+                    break;
+            }
+        }
+
+        if (inChannels == outChannels) {
+            System.arraycopy(inFrame, 0, frame, 0, outChannels);
+        } else if (inChannels > outChannels) {
+            // Downmix: every output channel is the average of the input channels that map onto it
+            for (int c = 0; c < outChannels; c++) {
+                int total = 0;
+                int count = 0;
+                for (int i = c; i < inChannels; i += outChannels) {
+                    total += inFrame[i];
+                    count++;
+                }
+                frame[c] = total / count;
+            }
+        } else {
+            // Upmix: repeat the input channels
+            for (int c = 0; c < outChannels; c++)
+                frame[c] = inFrame[c % inChannels];
+        }
+    }
+
+    /**
+     * Writes the output frames that {@link #frame frame} produces at the output sampling rate
+     */
+    private void resample(ByteBuffer dst) {
+        if (inRate == outRate) {
+            writeFrame(dst, frame);
+        } else if (inRate > outRate) {
+            for (int c = 0; c < outChannels; c++)
+                sum[c] += frame[c];
+            sumCount++;
+            acc += outRate;
+            if (acc >= inRate) {
+                acc -= inRate;
+                for (int c = 0; c < outChannels; c++) {
+                    dst.putShort((short) (sum[c] / sumCount));
+                    sum[c] = 0;
+                }
+                sumCount = 0;
+            }
+        } else {
+            if (!hasPrevFrame) {
+                // The output starts at the first input frame, the frames in between follow with the next one
+                System.arraycopy(frame, 0, prevFrame, 0, outChannels);
+                hasPrevFrame = true;
+                return;
+            }
+            while (acc < outRate) {
+                for (int c = 0; c < outChannels; c++)
+                    dst.putShort((short) (prevFrame[c] + (frame[c] - prevFrame[c]) * acc / outRate));
+                acc += inRate;
+            }
+            acc -= outRate;
+            System.arraycopy(frame, 0, prevFrame, 0, outChannels);
+        }
+    }
+
+    /**
+     * Writes the output frames of the last input frame when upsampling. There is no next frame to
+     * interpolate towards, so the last frame is held until the end of its period.
+     */
+    private void flushLastFrame(ByteBuffer dst) {
+        while (acc < outRate) {
+            writeFrame(dst, prevFrame);
+            acc += inRate;
+        }
+        hasPrevFrame = false;
+    }
+
+    private void writeFrame(ByteBuffer dst, int[] samples) {
+        for (int c = 0; c < outChannels; c++)
+            dst.putShort((short) samples[c]);
+    }
+
+    /**
+     * @return the approximate amount of bytes this source produces, or {@link #UNKNOWN_LENGTH UNKNOWN_LENGTH}
+     */
+    @Override
+    public long length() {
+        long upstreamLength = upstream.length();
+        if (upstreamLength == UNKNOWN_LENGTH)
+            return UNKNOWN_LENGTH;
+        return upstreamLength / inFrameBytes * outRate / inRate * outFrameBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        upstream.close();
+    }
+}
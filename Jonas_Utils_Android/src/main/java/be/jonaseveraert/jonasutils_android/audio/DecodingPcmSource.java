@@ -0,0 +1,351 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static android.content.ContentValues.TAG;
+
+/**
+ * A {@link PcmSource PcmSource} that decodes a compressed audio file (e.g. MP3, AAC or WAV) with a
+ * {@link MediaExtractor MediaExtractor} and a decoder {@link MediaCodec MediaCodec}.
+ * <p>
+ * The decoder runs on its own thread and hands the PCM over through a bounded ring of reusable
+ * buffers: it fills free buffers and queues them, the reader empties them and gives them back.
+ * So while an {@link AudioConverter AudioConverter} encodes one buffer, the next ones are being
+ * decoded, and when the encoder falls behind the decoder waits for a free buffer.
+ * <p>
+ * The PCM has the format the decoder produces, see {@link #waitForFormat() waitForFormat}.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN)
+public class DecodingPcmSource implements PcmSource {
+    public static final int DEFAULT_BUFFER_COUNT = 8;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final long CODEC_TIMEOUT_US = 10000;
+    /**
+     * Queued after the last buffer
+     */
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final File inputFile;
+    private final MediaExtractor extractor;
+    private final MediaCodec decoder;
+    private final Thread decodeThread;
+
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final BlockingQueue<ByteBuffer> filledBuffers;
+    /**
+     * The buffer the reader is emptying, only used by the reader
+     */
+    private ByteBuffer current;
+    private boolean ended = false;
+
+    private final CountDownLatch formatKnown = new CountDownLatch(1);
+    private volatile int samplingRate;
+    private volatile int channels;
+    private volatile int encoding = ConvertingPcmSource.ENCODING_PCM_16BIT;
+    private final long durationUs;
+
+    private volatile boolean closed = false;
+    private volatile Throwable failure;
+
+    /**
+     * Starts decoding {@code inputFile} with {@link #DEFAULT_BUFFER_COUNT DEFAULT_BUFFER_COUNT}
+     * buffers of {@link #DEFAULT_BUFFER_SIZE DEFAULT_BUFFER_SIZE} bytes
+     * @param inputFile the compressed audio file
+     * @throws FileNotFoundException when the inputFile does not exist
+     * @throws IOException when the file can't be read
+     * @throws AudioFormatNotSupported when the file has no audio track or there is no decoder for it
+     */
+    public DecodingPcmSource(@NonNull File inputFile) throws FileNotFoundException, IOException, AudioFormatNotSupported {
+        this(inputFile, DEFAULT_BUFFER_COUNT, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Starts decoding {@code inputFile}
+     * @param inputFile the compressed audio file
+     * @param bufferCount the amount of PCM buffers between the decoder and the reader
+     * @param bufferSize the size of a PCM buffer in bytes
+     * @throws FileNotFoundException when the inputFile does not exist
+     * @throws IOException when the file can't be read
+     * @throws AudioFormatNotSupported when the file has no audio track or there is no decoder for it
+     */
+    public DecodingPcmSource(@NonNull File inputFile, int bufferCount, int bufferSize) throws FileNotFoundException, IOException, AudioFormatNotSupported {
+        if (bufferCount < 2 || bufferSize < 1)
+            throw new IllegalArgumentException("At least 2 buffers of 1 byte are needed, were " + bufferCount + " of " + bufferSize);
+        if (!inputFile.exists())
+            throw new FileNotFoundException(inputFile.getPath() + " does not exist");
+        this.inputFile = inputFile;
+        this.freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        // One more for the end of the stream
+        this.filledBuffers = new ArrayBlockingQueue<>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++)
+            freeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+
+        extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(inputFile.getAbsolutePath());
+            MediaFormat trackFormat = selectAudioTrack();
+            String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+            samplingRate = trackFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            channels = trackFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            durationUs = trackFormat.containsKey(MediaFormat.KEY_DURATION) ? trackFormat.getLong(MediaFormat.KEY_DURATION) : -1;
+
+            try {
+                codec = MediaCodec.createDecoderByType(mime);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new AudioFormatNotSupported("There is no decoder for " + mime + " (" + inputFile.getName() + ")");
+            }
+            codec.configure(trackFormat, null, null, 0);
+            codec.start();
+        } catch (IOException | AudioFormatNotSupported | RuntimeException e) {
+            if (codec != null)
+                codec.release();
+            extractor.release();
+            throw e;
+        }
+        decoder = codec;
+
+        decodeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                decodeAll();
+            }
+        }, "DecodingPcmSource-" + inputFile.getName());
+        decodeThread.start();
+    }
+
+    private MediaFormat selectAudioTrack() throws AudioFormatNotSupported {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+        throw new AudioFormatNotSupported(inputFile.getName() + " has no audio track");
+    }
+
+    private void decodeAll() {
+        try {
+            decode();
+        } catch (InterruptedException e) {
+            // Closed
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            formatKnown.countDown();
+            // The ring has room for the marker: the reader holds at most one buffer, the rest are free or filled
+            filledBuffers.offer(END_OF_STREAM);
+            try {
+                decoder.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Could not stop the decoder of " + inputFile.getName(), e);
+            }
+            decoder.release();
+            extractor.release();
+        }
+    }
+
+    private void decode() throws InterruptedException {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        // Only used before API 21, where buffers can't be requested by index
+        ByteBuffer[] inputBuffers = null;
+        ByteBuffer[] outputBuffers = null;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            inputBuffers = decoder.getInputBuffers();
+            outputBuffers = decoder.getOutputBuffers();
+        }
+
+        ByteBuffer filling = null;
+        boolean inputDone = false;
+        while (!closed) {
+            if (!inputDone) {
+                int inIndex = decoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                if (inIndex >= 0) {
+                    ByteBuffer input = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                            ? decoder.getInputBuffer(inIndex) : inputBuffers[inIndex];
+                    input.clear();
+                    int size = extractor.readSampleData(input, 0);
+                    if (size < 0) {
+                        decoder.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        decoder.queueInputBuffer(inIndex, 0, size, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            int outIndex = decoder.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+            if (outIndex >= 0) {
+                if (info.size > 0 && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                    formatKnown.countDown();
+                    ByteBuffer output = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                            ? decoder.getOutputBuffer(outIndex) : outputBuffers[outIndex];
+                    output.limit(info.offset + info.size);
+                    output.position(info.offset);
+                    // Copy into ring buffers, a buffer is only handed over when it is full
+                    while (output.hasRemaining()) {
+                        if (filling == null) {
+                            filling = freeBuffers.take();
+                            filling.clear();
+                        }
+                        int count = Math.min(output.remaining(), filling.remaining());
+                        int limit = output.limit();
+                        output.limit(output.position() + count);
+                        filling.put(output);
+                        output.limit(limit);
+                        if (!filling.hasRemaining()) {
+                            filling.flip();
+                            filledBuffers.put(filling);
+                            filling = null;
+                        }
+                    }
+                }
+                decoder.releaseOutputBuffer(outIndex, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+                    break;
+            } else if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                outputFormatChanged(decoder.getOutputFormat());
+            } else if (outIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                outputBuffers = decoder.getOutputBuffers();
+            }
+        }
+        if (filling != null && filling.position() > 0) {
+            filling.flip();
+            filledBuffers.put(filling);
+        }
+    }
+
+    private void outputFormatChanged(MediaFormat format) {
+        if (formatKnown.getCount() == 0) {
+            // The reader may already have picked a conversion for the old format
+            Log.w(TAG, "The format of " + inputFile.getName() + " changed while decoding: " + format);
+            return;
+        }
+        samplingRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && format.containsKey(MediaFormat.KEY_PCM_ENCODING)) {
+            int pcmEncoding = format.getInteger(MediaFormat.KEY_PCM_ENCODING);
+            ConvertingPcmSource.bytesPerSample(pcmEncoding); // Fails the decoding for encodings that can't be converted
+            encoding = pcmEncoding;
+        }
+        formatKnown.countDown();
+    }
+
+    /**
+     * Waits until the decoder reported the format of its output. Until then the sampling rate and
+     * channels are those of the compressed track, which a decoder can change (e.g. for HE-AAC).
+     * @throws InterruptedIOException when the calling thread is interrupted while waiting
+     */
+    public void waitForFormat() throws InterruptedIOException {
+        try {
+            formatKnown.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the decoder of " + inputFile.getName());
+        }
+    }
+
+    /**
+     * @return the sampling rate of the decoded PCM, see {@link #waitForFormat() waitForFormat}
+     */
+    public int getSamplingRate() {
+        return samplingRate;
+    }
+
+    /**
+     * @return the amount of channels of the decoded PCM, see {@link #waitForFormat() waitForFormat}
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return the encoding of the decoded PCM, one of the {@code ENCODING_} constants of
+     * {@link ConvertingPcmSource ConvertingPcmSource}
+     */
+    public int getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (ended || closed)
+            return -1;
+        if (current == null || !current.hasRemaining()) {
+            if (current != null)
+                freeBuffers.offer(current);
+            try {
+                current = filledBuffers.take();
+            } catch (InterruptedException e) {
+                current = null;
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the decoder of " + inputFile.getName());
+            }
+            if (current == END_OF_STREAM) {
+                current = null;
+                ended = true;
+                Throwable error = failure;
+                if (error != null)
+                    throw new IOException("Could not decode " + inputFile.getName(), error);
+                return -1;
+            }
+        }
+
+        int count = Math.min(dst.remaining(), current.remaining());
+        int limit = current.limit();
+        current.limit(current.position() + count);
+        dst.put(current);
+        current.limit(limit);
+        return count;
+    }
+
+    /**
+     * @return the estimated amount of bytes of decoded PCM, from the duration of the track, or
+     * {@link #UNKNOWN_LENGTH UNKNOWN_LENGTH} when the duration is not known
+     */
+    @Override
+    public long length() {
+        if (durationUs < 0)
+            return UNKNOWN_LENGTH;
+        long frames = durationUs * samplingRate / 1000000L;
+        return frames * channels * ConvertingPcmSource.bytesPerSample(encoding);
+    }
+
+    /**
+     * Stops decoding and releases the decoder
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        decodeThread.interrupt();
+        try {
+            decodeThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while stopping the decoder of " + inputFile.getName());
+        }
+    }
+}
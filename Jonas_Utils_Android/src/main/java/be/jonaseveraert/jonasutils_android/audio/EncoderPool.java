@@ -0,0 +1,358 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import be.jonaseveraert.jonasutils_android.audio.codec.MediaCodecAudioEncoder;
+
+import static android.content.ContentValues.TAG;
+
+/**
+ * Keeps encoders alive between conversions, so converting many short files doesn't create a new
+ * {@link MediaCodec MediaCodec} for every file. Creating a codec allocates a (hardware) component,
+ * which takes far longer than encoding a short voice clip.
+ * <p>
+ * Encoders are kept per mime type, sampling rate, amount of channels and bit rate. A finished
+ * encoder is stopped and kept idle; the next {@link #acquire acquire} with the same key configures
+ * and starts it again. It is not {@link MediaCodec#flush() flushed} instead: after a flush the codec
+ * doesn't report its output format again, which the muxer of every new file needs.
+ * <p>
+ * Idle encoders are released after the idle timeout, and the least recently used ones are released
+ * when there are more than the maximum amount of idle encoders, because a device only has a few
+ * codec instances. The pool is thread safe. Call {@link #shutdown() shutdown} to release all idle
+ * encoders when the pool isn't needed anymore.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN)
+public class EncoderPool {
+    /**
+     * The amount of idle encoders kept by default
+     */
+    public static final int DEFAULT_MAX_IDLE_ENCODERS = 2;
+    /**
+     * The time in ms an idle encoder is kept by default
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+
+    private final int maxIdleEncoders;
+    private final long idleTimeoutMs;
+    private final ScheduledThreadPoolExecutor evictor;
+
+    // Guarded by this, least recently used first
+    private final ArrayDeque<Idle> idle = new ArrayDeque<>();
+    private boolean shutdown = false;
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger reused = new AtomicInteger();
+
+    /**
+     * An encoder that waits for its next job
+     */
+    private static final class Idle {
+        final Key key;
+        final MediaCodec codec;
+        final long idleSinceMs;
+
+        Idle(Key key, MediaCodec codec, long idleSinceMs) {
+            this.key = key;
+            this.codec = codec;
+            this.idleSinceMs = idleSinceMs;
+        }
+    }
+
+    /**
+     * The part of an output format that decides whether an encoder can be reused
+     */
+    private static final class Key {
+        final String mime;
+        final int samplingRate;
+        final int channels;
+        final int bitRate;
+
+        Key(MediaFormat format) {
+            this.mime = format.getString(MediaFormat.KEY_MIME);
+            this.samplingRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            this.channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            // FLAC has no bit rate
+            this.bitRate = format.containsKey(MediaFormat.KEY_BIT_RATE) ? format.getInteger(MediaFormat.KEY_BIT_RATE) : 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return samplingRate == key.samplingRate && channels == key.channels && bitRate == key.bitRate && mime.equals(key.mime);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mime.hashCode();
+            result = 31 * result + samplingRate;
+            result = 31 * result + channels;
+            result = 31 * result + bitRate;
+            return result;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return mime + " " + samplingRate + " Hz " + channels + " ch " + bitRate + " bps";
+        }
+    }
+
+    /**
+     * A started encoder lent out by the pool. Give it back with {@link #recycle() recycle} when the
+     * job reached the end of the stream, or {@link #discard() discard} it when the job failed.
+     */
+    public final class Session {
+        private final Key key;
+        private final MediaCodec codec;
+        private final MediaCodecAudioEncoder encoder;
+        private boolean returned = false;
+
+        private Session(Key key, MediaCodec codec) {
+            this.key = key;
+            this.codec = codec;
+            // A new wrapper per job: before API 21 it holds the buffers of the current configuration
+            this.encoder = new MediaCodecAudioEncoder(codec);
+        }
+
+        /**
+         * @return the configured and started codec
+         */
+        public MediaCodec getCodec() {
+            return codec;
+        }
+
+        /**
+         * @return the codec as an encoder for an {@link be.jonaseveraert.jonasutils_android.audio.codec.EncodeLoop EncodeLoop}
+         */
+        public MediaCodecAudioEncoder getEncoder() {
+            return encoder;
+        }
+
+        /**
+         * Stops the encoder and returns it to the pool. Does nothing when the session was already
+         * returned.
+         */
+        public void recycle() {
+            if (returned)
+                return;
+            returned = true;
+            try {
+                codec.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Could not stop the " + key + " encoder, releasing it", e);
+                codec.release();
+                return;
+            }
+            release(key, codec);
+        }
+
+        /**
+         * Releases the encoder instead of returning it to the pool, e.g. when the job failed and the
+         * codec may be in an error state. Does nothing when the session was already returned.
+         */
+        public void discard() {
+            if (returned)
+                return;
+            returned = true;
+            stopAndRelease(codec);
+        }
+    }
+
+    /**
+     * Creates a pool that keeps at most {@link #DEFAULT_MAX_IDLE_ENCODERS DEFAULT_MAX_IDLE_ENCODERS}
+     * idle encoders for {@link #DEFAULT_IDLE_TIMEOUT_MS DEFAULT_IDLE_TIMEOUT_MS} ms
+     */
+    public EncoderPool() {
+        this(DEFAULT_MAX_IDLE_ENCODERS, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    /**
+     * @param maxIdleEncoders the maximum amount of idle encoders, e.g.
+     *                        {@link BatchAudioConverter#getMaxEncoderInstances BatchAudioConverter.getMaxEncoderInstances}
+     * @param idleTimeoutMs the time in ms after which an idle encoder is released
+     */
+    public EncoderPool(int maxIdleEncoders, long idleTimeoutMs) {
+        if (maxIdleEncoders < 0 || idleTimeoutMs < 1)
+            throw new IllegalArgumentException("Invalid pool settings: " + maxIdleEncoders + " encoders for " + idleTimeoutMs + " ms");
+        this.maxIdleEncoders = maxIdleEncoders;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.evictor = new ScheduledThreadPoolExecutor(1, evictorFactory);
+        // The thread only lives while an eviction is scheduled
+        this.evictor.setKeepAliveTime(idleTimeoutMs, TimeUnit.MILLISECONDS);
+        this.evictor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Lends out a started encoder configured with {@code format}, reusing an idle one with the same
+     * mime type, sampling rate, channels and bit rate when there is one.
+     * @param format the output format, as passed to {@link MediaCodec#configure MediaCodec.configure}
+     * @return the session of the encoder
+     * @throws IOException when no encoder could be created for the mime type
+     */
+    public Session acquire(@NonNull MediaFormat format) throws IOException {
+        Key key = new Key(format);
+        MediaCodec codec;
+        while ((codec = takeIdle(key)) != null) {
+            try {
+                codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                codec.start();
+                reused.incrementAndGet();
+                return new Session(key, codec);
+            } catch (IllegalStateException e) {
+                // E.g. the codec was reclaimed by the system while it was idle
+                Log.w(TAG, "Could not reuse a " + key + " encoder", e);
+                codec.release();
+            }
+        }
+
+        codec = MediaCodec.createEncoderByType(key.mime);
+        try {
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            codec.start();
+        } catch (RuntimeException e) {
+            codec.release();
+            throw e;
+        }
+        created.incrementAndGet();
+        return new Session(key, codec);
+    }
+
+    private synchronized MediaCodec takeIdle(Key key) {
+        // The most recently used one, it is the least likely to have been reclaimed
+        Iterator<Idle> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            Idle candidate = iterator.next();
+            if (candidate.key.equals(key)) {
+                iterator.remove();
+                return candidate.codec;
+            }
+        }
+        return null;
+    }
+
+    private void release(Key key, MediaCodec codec) {
+        List<MediaCodec> evicted = new ArrayList<>();
+        synchronized (this) {
+            if (shutdown || maxIdleEncoders == 0) {
+                evicted.add(codec);
+            } else {
+                idle.addLast(new Idle(key, codec, System.currentTimeMillis()));
+                while (idle.size() > maxIdleEncoders)
+                    evicted.add(idle.removeFirst().codec);
+                evictor.schedule(evictTask, idleTimeoutMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        // Releasing can take a while, don't hold the lock
+        for (MediaCodec old : evicted)
+            old.release();
+    }
+
+    private final Runnable evictTask = new Runnable() {
+        @Override
+        public void run() {
+            evictIdle(System.currentTimeMillis() - idleTimeoutMs);
+        }
+    };
+
+    /**
+     * Releases the encoders that are idle since before {@code idleBeforeMs}
+     */
+    private void evictIdle(long idleBeforeMs) {
+        List<MediaCodec> evicted = new ArrayList<>();
+        synchronized (this) {
+            while (!idle.isEmpty() && idle.peekFirst().idleSinceMs <= idleBeforeMs)
+                evicted.add(idle.removeFirst().codec);
+        }
+        for (MediaCodec codec : evicted)
+            codec.release();
+    }
+
+    /**
+     * Releases all idle encoders now
+     */
+    public void evictAll() {
+        evictIdle(Long.MAX_VALUE);
+    }
+
+    /**
+     * Releases all idle encoders and stops keeping encoders. Sessions that are still lent out are
+     * released when they are returned.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+        }
+        evictor.shutdownNow();
+        evictAll();
+    }
+
+    /**
+     * @return the amount of idle encoders
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return the amount of encoders the pool created
+     */
+    public int getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * @return the amount of times an idle encoder was reused
+     */
+    public int getReusedCount() {
+        return reused.get();
+    }
+
+    /**
+     * Stops and releases a codec that may not have been started or may be in an error state
+     * @param codec the codec to release
+     */
+    static void stopAndRelease(MediaCodec codec) {
+        try {
+            codec.stop();
+        } catch (IllegalStateException e) {
+            // Not started or in an error state, release it anyway
+        }
+        codec.release();
+    }
+
+    private final ThreadFactory evictorFactory = new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull final Runnable r) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "EncoderPool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+}
@@ -0,0 +1,156 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaMuxer;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The per format settings of an {@link AudioConverter AudioConverter}: the container the encoded
+ * audio is written to, the input buffer size, the bitrate mode and the complexity of the encoder.
+ */
+public final class EncoderProfile {
+    /**
+     * Used for {@link #getBitrateMode() bitrateMode} and {@link #getComplexity() complexity} to keep
+     * the encoder's default
+     */
+    public static final int DEFAULT = -1;
+    /**
+     * Container for raw FLAC streams, written by {@link be.jonaseveraert.jonasutils_android.audio.codec.FlacAudioMuxer FlacAudioMuxer}
+     * because {@link MediaMuxer MediaMuxer} can't write FLAC.
+     */
+    public static final int CONTAINER_FLAC = -1;
+
+    /**
+     * Variables for the {@code bitrateMode} parameter in {@link #EncoderProfile EncoderProfile}
+     */
+    public abstract static class BitrateMode {
+        /**
+         * Constant quality
+         */
+        public static final int CQ = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ;
+        /**
+         * Variable bitrate
+         */
+        public static final int VBR = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
+        /**
+         * Constant bitrate
+         */
+        public static final int CBR = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR;
+    }
+
+    /**
+     * AAC-LC in an MPEG-4 container. The sampling rate and channels can be chosen freely.
+     */
+    public static final EncoderProfile AAC_LC = new EncoderProfile(AudioConverter.MimeType.MP4A_LATM,
+            MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4, 16384, DEFAULT, DEFAULT, Build.VERSION_CODES.JELLY_BEAN_MR2);
+    /**
+     * Opus in a WebM container, cheap to store and upload for voice at low bitrates (e.g. 24 kbps).
+     * Use a sampling rate of 8000, 12000, 16000, 24000 or 48000 Hz.
+     */
+    public static final EncoderProfile OPUS = new EncoderProfile(AudioConverter.MimeType.OPUS,
+            MediaMuxer.OutputFormat.MUXER_OUTPUT_WEBM, 8192, BitrateMode.VBR, 5, Build.VERSION_CODES.Q);
+    /**
+     * AMR-WB in a 3GPP container, for speech. Requires a sampling rate of 16000 Hz and mono input.
+     */
+    public static final EncoderProfile AMR_WB = new EncoderProfile(AudioConverter.MimeType.AMR_WB,
+            MediaMuxer.OutputFormat.MUXER_OUTPUT_3GPP, 4096, BitrateMode.CBR, DEFAULT, Build.VERSION_CODES.O);
+    /**
+     * Lossless FLAC, written as a raw .flac file. The complexity is the FLAC compression level (0 - 8),
+     * the bitrate is ignored.
+     */
+    public static final EncoderProfile FLAC = new EncoderProfile(AudioConverter.MimeType.FLAC,
+            CONTAINER_FLAC, 16384, DEFAULT, 5, Build.VERSION_CODES.LOLLIPOP);
+
+    private final String mimeType;
+    private final int container;
+    private final int maxInputSize;
+    private final int bitrateMode;
+    private final int complexity;
+    private final int minSdkVersion;
+
+    /**
+     * @param mimeType the mime type of the encoder, use {@link AudioConverter.MimeType AudioConverter.MimeType}
+     * @param container one of {@link MediaMuxer.OutputFormat MediaMuxer.OutputFormat} or {@link #CONTAINER_FLAC CONTAINER_FLAC}
+     * @param maxInputSize the size of the encoder's input buffers in bytes
+     * @param bitrateMode use {@link BitrateMode BitrateMode} or {@link #DEFAULT DEFAULT}, ignored below API 21
+     * @param complexity the encoder complexity (for FLAC the compression level) or {@link #DEFAULT DEFAULT},
+     *                   ignored below API 21 except for FLAC
+     * @param minSdkVersion the lowest API level the encoder and container are available on
+     */
+    public EncoderProfile(@NonNull String mimeType, int container, int maxInputSize, int bitrateMode, int complexity, int minSdkVersion) {
+        this.mimeType = mimeType;
+        this.container = container;
+        this.maxInputSize = maxInputSize;
+        this.bitrateMode = bitrateMode;
+        this.complexity = complexity;
+        this.minSdkVersion = minSdkVersion;
+    }
+
+    /**
+     * @param mimeType use {@link AudioConverter.MimeType AudioConverter.MimeType}
+     * @return the built-in profile for the mime type, or null if there is none
+     */
+    @Nullable
+    public static EncoderProfile forMimeType(String mimeType) {
+        for (EncoderProfile profile : new EncoderProfile[]{AAC_LC, OPUS, AMR_WB, FLAC}) {
+            if (profile.mimeType.equals(mimeType))
+                return profile;
+        }
+        return null;
+    }
+
+    /**
+     * @return a copy of this profile with another input buffer size
+     */
+    public EncoderProfile withMaxInputSize(int maxInputSize) {
+        return new EncoderProfile(mimeType, container, maxInputSize, bitrateMode, complexity, minSdkVersion);
+    }
+
+    /**
+     * @return a copy of this profile with another bitrate mode
+     */
+    public EncoderProfile withBitrateMode(int bitrateMode) {
+        return new EncoderProfile(mimeType, container, maxInputSize, bitrateMode, complexity, minSdkVersion);
+    }
+
+    /**
+     * @return a copy of this profile with another complexity
+     */
+    public EncoderProfile withComplexity(int complexity) {
+        return new EncoderProfile(mimeType, container, maxInputSize, bitrateMode, complexity, minSdkVersion);
+    }
+
+    /**
+     * @return whether the encoder and container are available on this device's API level
+     */
+    public boolean isSupported() {
+        return Build.VERSION.SDK_INT >= minSdkVersion;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public int getContainer() {
+        return container;
+    }
+
+    public int getMaxInputSize() {
+        return maxInputSize;
+    }
+
+    public int getBitrateMode() {
+        return bitrateMode;
+    }
+
+    public int getComplexity() {
+        return complexity;
+    }
+
+    public int getMinSdkVersion() {
+        return minSdkVersion;
+    }
+}
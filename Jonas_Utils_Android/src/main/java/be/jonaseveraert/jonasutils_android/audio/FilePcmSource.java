@@ -0,0 +1,121 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link PcmSource PcmSource} reading a file of raw PCM.
+ */
+public class FilePcmSource implements PcmSource {
+    /**
+     * See {@link AudioConverter.InputMode#STREAM AudioConverter.InputMode.STREAM}
+     */
+    public static final int MODE_STREAM = 0;
+    /**
+     * See {@link AudioConverter.InputMode#CHANNEL AudioConverter.InputMode.CHANNEL}
+     */
+    public static final int MODE_CHANNEL = 1;
+
+    private final File file;
+    private final FileInputStream fis;
+    private final FileChannel channel;
+    private final int inputMode;
+    /**
+     * Only used in {@link #MODE_STREAM stream} mode
+     */
+    private final byte[] tempBuffer;
+    /**
+     * The length of the part of the file that is read, or -1 for the whole file
+     */
+    private final long rangeLength;
+    private long remaining;
+
+    /**
+     * Reads the file through a {@link FileChannel FileChannel}.
+     * @param file the file containing raw PCM
+     * @throws FileNotFoundException when the file does not exist
+     */
+    public FilePcmSource(@NonNull File file) throws FileNotFoundException {
+        this(file, MODE_CHANNEL, 0);
+    }
+
+    /**
+     * @param file the file containing raw PCM
+     * @param inputMode {@link #MODE_STREAM MODE_STREAM} or {@link #MODE_CHANNEL MODE_CHANNEL}
+     * @param bufferSize the size of the temporary buffer used in {@link #MODE_STREAM stream} mode
+     * @throws FileNotFoundException when the file does not exist
+     */
+    public FilePcmSource(@NonNull File file, int inputMode, int bufferSize) throws FileNotFoundException {
+        this.file = file;
+        this.fis = new FileInputStream(file);
+        this.channel = fis.getChannel();
+        this.inputMode = inputMode;
+        this.tempBuffer = inputMode == MODE_STREAM ? new byte[bufferSize] : null;
+        this.rangeLength = -1;
+        this.remaining = Long.MAX_VALUE;
+    }
+
+    /**
+     * Reads a part of the file through a {@link FileChannel FileChannel}.
+     * @param file the file containing raw PCM
+     * @param offset the position of the first byte that is read
+     * @param length the maximum amount of bytes that is read
+     * @throws FileNotFoundException when the file does not exist
+     * @throws IOException if the channel can't be positioned at {@code offset}
+     */
+    public FilePcmSource(@NonNull File file, long offset, long length) throws IOException {
+        this.file = file;
+        this.fis = new FileInputStream(file);
+        this.channel = fis.getChannel();
+        this.inputMode = MODE_CHANNEL;
+        this.tempBuffer = null;
+        this.rangeLength = Math.max(0, Math.min(length, file.length() - offset));
+        this.remaining = rangeLength;
+        channel.position(offset);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (remaining <= 0)
+            return -1;
+
+        int limit = dst.limit();
+        if (dst.remaining() > remaining)
+            dst.limit(dst.position() + (int) remaining);
+        int bytesRead;
+        try {
+            if (inputMode == MODE_CHANNEL) {
+                bytesRead = channel.read(dst);
+            } else {
+                bytesRead = fis.read(tempBuffer, 0, Math.min(dst.remaining(), tempBuffer.length));
+                if (bytesRead > 0)
+                    dst.put(tempBuffer, 0, bytesRead);
+            }
+        } finally {
+            dst.limit(limit);
+        }
+        if (bytesRead > 0)
+            remaining -= bytesRead;
+        return bytesRead;
+    }
+
+    @Override
+    public long length() {
+        return rangeLength == -1 ? file.length() : rangeLength;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fis.close();
+    }
+}
@@ -0,0 +1,308 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link PcmSource PcmSource} that brings 16 bit PCM to a target loudness in one pass, so quiet
+ * and loud recordings are encoded at the same level.
+ * <p>
+ * The loudness is the RMS of all 10 ms windows read so far that are louder than the gate, so
+ * silence doesn't pull it down. The PCM is delayed by the look-ahead: the gain of a window is
+ * based on the loudness up to the end of the look-ahead, and it is lowered in time for peaks in the
+ * look-ahead so they don't clip. The gain changes linearly within a window, so there are no
+ * clicks. The gain is capped to {@code maxGainDb} both ways, so noise isn't blown up.
+ * <p>
+ * The amount of PCM doesn't change, so the presentation times don't either. All buffers are
+ * allocated in the constructor, reading does not allocate.
+ */
+public class LoudnessNormalizingPcmSource implements PcmSource {
+    /**
+     * The RMS level (in dB relative to full scale) the PCM is brought to by default
+     */
+    public static final double DEFAULT_TARGET_DBFS = -20;
+    /**
+     * The look-ahead by default
+     */
+    public static final int DEFAULT_LOOK_AHEAD_MS = 500;
+    /**
+     * The maximum amplification and attenuation by default
+     */
+    public static final double DEFAULT_MAX_GAIN_DB = 20;
+    /**
+     * Windows below this level don't count for the loudness
+     */
+    private static final double GATE_DBFS = -50;
+    /**
+     * The highest level of a sample after the gain
+     */
+    private static final double CEILING_DBFS = -1;
+    private static final int WINDOW_MS = 10;
+
+    private final PcmSource upstream;
+    private final int channels;
+    private final int frameBytes;
+    private final int windowSamples;
+    private final double targetRms;
+    private final double maxGain;
+    private final double gateMeanSquare;
+    private final double ceiling;
+
+    /**
+     * Read from upstream, in read mode between calls
+     */
+    private final ByteBuffer scratch;
+    /**
+     * The look-ahead, a ring of windows
+     */
+    private final short[] ring;
+    private final int[] windowLengths;
+    private final int[] windowPeaks;
+    private final int ringWindows;
+    private int ringStart = 0;
+    private int ringCount = 0;
+    /**
+     * The window that is ready to be read, in read mode
+     */
+    private final ByteBuffer pending;
+
+    private final Loudness loudness;
+    private boolean upstreamDone = false;
+
+    /**
+     * The loudness measured so far and the gain of the last window. A source normalizing the next
+     * part of the same recording (e.g. the next chunk of a
+     * {@link ChunkedAudioConverter ChunkedAudioConverter}) continues from it, so the whole recording
+     * gets one gain instead of one per part.
+     * <p>
+     * The source updates it while it is read, it is not thread safe.
+     */
+    public static final class Loudness {
+        private double gatedSumOfMeanSquares;
+        private long gatedWindows;
+        private double gain;
+
+        /**
+         * Nothing measured yet
+         */
+        public Loudness() {
+            this(0, 0, 1);
+        }
+
+        /**
+         * @param gatedSumOfMeanSquares see {@link #getGatedSumOfMeanSquares() getGatedSumOfMeanSquares}
+         * @param gatedWindows see {@link #getGatedWindows() getGatedWindows}
+         * @param gain see {@link #getGain() getGain}
+         */
+        public Loudness(double gatedSumOfMeanSquares, long gatedWindows, double gain) {
+            if (gatedSumOfMeanSquares < 0 || gatedWindows < 0 || !(gain > 0))
+                throw new IllegalArgumentException("Invalid loudness: " + gatedSumOfMeanSquares + ", " + gatedWindows + " windows, gain " + gain);
+            this.gatedSumOfMeanSquares = gatedSumOfMeanSquares;
+            this.gatedWindows = gatedWindows;
+            this.gain = gain;
+        }
+
+        /**
+         * @return the sum of the mean squares of the windows louder than the gate
+         */
+        public double getGatedSumOfMeanSquares() {
+            return gatedSumOfMeanSquares;
+        }
+
+        /**
+         * @return the amount of windows louder than the gate
+         */
+        public long getGatedWindows() {
+            return gatedWindows;
+        }
+
+        /**
+         * @return the gain applied to the last window
+         */
+        public double getGain() {
+            return gain;
+        }
+    }
+
+    /**
+     * Normalizes to {@link #DEFAULT_TARGET_DBFS DEFAULT_TARGET_DBFS} with the default look-ahead
+     * @param upstream the 16 bit PCM
+     * @param samplingRate the sampling rate of the PCM
+     * @param channels the amount of channels of the PCM
+     */
+    public LoudnessNormalizingPcmSource(@NonNull PcmSource upstream, int samplingRate, int channels) {
+        this(upstream, samplingRate, channels, DEFAULT_TARGET_DBFS, DEFAULT_LOOK_AHEAD_MS, DEFAULT_MAX_GAIN_DB);
+    }
+
+    /**
+     * @param upstream the 16 bit PCM
+     * @param samplingRate the sampling rate of the PCM
+     * @param channels the amount of channels of the PCM
+     * @param targetDbfs the RMS level the PCM is brought to, e.g. -20
+     * @param lookAheadMs how far ahead the loudness and peaks are measured, which is also the delay
+     * @param maxGainDb the maximum amplification and attenuation
+     */
+    public LoudnessNormalizingPcmSource(@NonNull PcmSource upstream, int samplingRate, int channels, double targetDbfs, int lookAheadMs, double maxGainDb) {
+        this(upstream, samplingRate, channels, targetDbfs, lookAheadMs, maxGainDb, new Loudness());
+    }
+
+    /**
+     * Normalizes the next part of a recording, continuing from the loudness of the parts before it.
+     * The look-ahead doesn't reach into the next part.
+     * @param upstream the 16 bit PCM
+     * @param samplingRate the sampling rate of the PCM
+     * @param channels the amount of channels of the PCM
+     * @param targetDbfs the RMS level the PCM is brought to, e.g. -20
+     * @param lookAheadMs how far ahead the loudness and peaks are measured, which is also the delay
+     * @param maxGainDb the maximum amplification and attenuation
+     * @param loudness the loudness of the parts before, updated while this source is read
+     */
+    public LoudnessNormalizingPcmSource(@NonNull PcmSource upstream, int samplingRate, int channels, double targetDbfs, int lookAheadMs, double maxGainDb, @NonNull Loudness loudness) {
+        if (samplingRate <= 0 || channels <= 0)
+            throw new IllegalArgumentException("Sampling rate and channels have to be positive");
+        if (lookAheadMs < 0 || maxGainDb < 0)
+            throw new IllegalArgumentException("The look-ahead and maximum gain can't be negative");
+        this.upstream = upstream;
+        this.loudness = loudness;
+        this.channels = channels;
+        this.frameBytes = 2 * channels;
+        int windowFrames = Math.max(1, samplingRate * WINDOW_MS / 1000);
+        this.windowSamples = windowFrames * channels;
+        this.targetRms = Short.MAX_VALUE * Math.pow(10, targetDbfs / 20);
+        this.maxGain = Math.pow(10, maxGainDb / 20);
+        double gate = Short.MAX_VALUE * Math.pow(10, GATE_DBFS / 20);
+        this.gateMeanSquare = gate * gate;
+        this.ceiling = Short.MAX_VALUE * Math.pow(10, CEILING_DBFS / 20);
+
+        this.ringWindows = lookAheadMs / WINDOW_MS + 1;
+        this.ring = new short[ringWindows * windowSamples];
+        this.windowLengths = new int[ringWindows];
+        this.windowPeaks = new int[ringWindows];
+        this.scratch = ByteBuffer.allocate(windowSamples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        this.pending = ByteBuffer.allocate(windowSamples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        this.pending.flip();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        while (dst.hasRemaining()) {
+            if (pending.hasRemaining()) {
+                int count = Math.min(dst.remaining(), pending.remaining());
+                int limit = pending.limit();
+                pending.limit(pending.position() + count);
+                dst.put(pending);
+                pending.limit(limit);
+                continue;
+            }
+            // Fill the look-ahead, then release one window for every window read
+            while (!upstreamDone && ringCount < ringWindows)
+                readWindow();
+            if (ringCount == 0)
+                break;
+            writeWindow();
+        }
+        int written = dst.position() - start;
+        if (written == 0 && upstreamDone && ringCount == 0)
+            return -1;
+        return written;
+    }
+
+    /**
+     * Reads the next window from upstream into the ring and measures it
+     */
+    private void readWindow() throws IOException {
+        scratch.clear();
+        while (scratch.hasRemaining() && !upstreamDone) {
+            if (upstream.read(scratch) == -1)
+                upstreamDone = true;
+        }
+        scratch.flip();
+        // A trailing partial frame is dropped
+        int samples = (scratch.remaining() - scratch.remaining() % frameBytes) / 2;
+        if (samples == 0)
+            return;
+
+        int slot = (ringStart + ringCount) % ringWindows;
+        int offset = slot * windowSamples;
+        double sumOfSquares = 0;
+        int peak = 0;
+        for (int i = 0; i < samples; i++) {
+            short sample = scratch.getShort();
+            ring[offset + i] = sample;
+            sumOfSquares += sample * sample;
+            peak = Math.max(peak, Math.abs(sample));
+        }
+        windowLengths[slot] = samples;
+        windowPeaks[slot] = peak;
+        ringCount++;
+
+        double meanSquare = sumOfSquares / samples;
+        if (meanSquare >= gateMeanSquare) {
+            loudness.gatedSumOfMeanSquares += meanSquare;
+            loudness.gatedWindows++;
+        }
+    }
+
+    /**
+     * Applies the gain to the oldest window of the ring and moves it to {@link #pending pending}
+     */
+    private void writeWindow() {
+        double gain = loudness.gain;
+        double target = gain;
+        if (loudness.gatedWindows > 0) {
+            double rms = Math.sqrt(loudness.gatedSumOfMeanSquares / loudness.gatedWindows);
+            target = Math.max(1 / maxGain, Math.min(maxGain, targetRms / rms));
+        }
+        int peak = 0;
+        for (int i = 0; i < ringCount; i++)
+            peak = Math.max(peak, windowPeaks[(ringStart + i) % ringWindows]);
+        if (peak * target > ceiling)
+            target = ceiling / peak;
+
+        int offset = ringStart * windowSamples;
+        int samples = windowLengths[ringStart];
+        int frames = samples / channels;
+        double step = (target - gain) / frames;
+        double frameGain = gain;
+        pending.clear();
+        for (int frame = 0; frame < frames; frame++) {
+            frameGain += step;
+            for (int c = 0; c < channels; c++) {
+                long value = Math.round(ring[offset + frame * channels + c] * frameGain);
+                pending.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value)));
+            }
+        }
+        pending.flip();
+        loudness.gain = target;
+        ringStart = (ringStart + 1) % ringWindows;
+        ringCount--;
+    }
+
+    /**
+     * @return the gain applied to the last window that was read
+     */
+    public double getGain() {
+        return loudness.gain;
+    }
+
+    /**
+     * @return the loudness measured so far, to continue from in the next part of the recording
+     */
+    public Loudness getLoudness() {
+        return loudness;
+    }
+
+    @Override
+    public long length() {
+        return upstream.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        upstream.close();
+    }
+}
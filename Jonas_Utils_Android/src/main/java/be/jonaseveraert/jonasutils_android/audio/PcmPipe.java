@@ -0,0 +1,163 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A push based {@link PcmSource PcmSource}. A producer (e.g. a microphone recording thread) calls
+ * {@link #write write} while an {@link AudioConverter AudioConverter} encodes the data on another
+ * thread. The pipe holds a bounded amount of data: when the encoder has no free input buffers, the
+ * pipe fills up and {@link #write write} blocks until the encoder catches up.
+ * The producer has to call {@link #finish() finish} after the last write to end the stream.
+ */
+public class PcmPipe implements PcmSource {
+    private final byte[] ring;
+    private int readPos = 0;
+    private int available = 0;
+    private boolean finished = false;
+    private boolean closed = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * @param capacity the amount of bytes that can be buffered before {@link #write write} blocks
+     */
+    public PcmPipe(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity has to be at least 1, was " + capacity);
+        this.ring = new byte[capacity];
+    }
+
+    /**
+     * Writes PCM data to the pipe, blocking while the pipe is full.
+     * @param data the PCM data
+     * @param offset the offset in {@code data}
+     * @param length the amount of bytes to write
+     * @throws InterruptedIOException when the calling thread is interrupted while waiting
+     * @throws IOException when the encoder side has been closed (e.g. because the conversion failed)
+     * or when {@link #finish() finish} was already called
+     */
+    public void write(@NonNull byte[] data, int offset, int length) throws IOException {
+        lock.lock();
+        try {
+            while (length > 0) {
+                while (available == ring.length && !closed)
+                    await(notFull);
+                if (closed)
+                    throw new IOException("The pipe has been closed");
+                if (finished)
+                    throw new IOException("Can't write after finish()");
+
+                int writePos = (readPos + available) % ring.length;
+                int count = Math.min(length, Math.min(ring.length - available, ring.length - writePos));
+                System.arraycopy(data, offset, ring, writePos, count);
+                available += count;
+                offset += count;
+                length -= count;
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of {@code data} to the pipe, blocking while the pipe is full.
+     * @param data the PCM data, its position is advanced by the amount of bytes written
+     * @throws IOException see {@link #write(byte[], int, int) write}
+     */
+    public void write(@NonNull ByteBuffer data) throws IOException {
+        lock.lock();
+        try {
+            while (data.hasRemaining()) {
+                while (available == ring.length && !closed)
+                    await(notFull);
+                if (closed)
+                    throw new IOException("The pipe has been closed");
+                if (finished)
+                    throw new IOException("Can't write after finish()");
+
+                int writePos = (readPos + available) % ring.length;
+                int count = Math.min(data.remaining(), Math.min(ring.length - available, ring.length - writePos));
+                data.get(ring, writePos, count);
+                available += count;
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the end of the stream. The encoder finishes after it has read the remaining data.
+     */
+    public void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        lock.lock();
+        try {
+            while (available == 0 && !finished && !closed)
+                await(notEmpty);
+            if (available == 0)
+                return -1;
+
+            int count = Math.min(dst.remaining(), Math.min(available, ring.length - readPos));
+            dst.put(ring, readPos, count);
+            readPos = (readPos + count) % ring.length;
+            available -= count;
+            notFull.signal();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return {@link #UNKNOWN_LENGTH UNKNOWN_LENGTH}, the length of a pipe is not known in advance
+     */
+    @Override
+    public long length() {
+        return UNKNOWN_LENGTH;
+    }
+
+    /**
+     * Closes the pipe. Blocked and subsequent writes will fail, reads return the end of the stream
+     * once the buffered data has been read.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void await(Condition condition) throws InterruptedIOException {
+        try {
+            condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the pipe");
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A source of raw PCM audio that is pulled by the encoder of an {@link AudioConverter AudioConverter}.
+ * The encoder only reads when it has a free input buffer, so a source that produces data faster than
+ * it can be encoded is slowed down (see {@link PcmPipe PcmPipe}).
+ */
+public interface PcmSource extends Closeable {
+    /**
+     * Returned by {@link #length() length} when the length of the source is not known in advance.
+     */
+    long UNKNOWN_LENGTH = -1;
+
+    /**
+     * Reads PCM data into {@code dst}, starting at its position. Blocks until at least one byte
+     * was read or the end of the source has been reached.
+     * @param dst the buffer to read into
+     * @return the number of bytes read, or -1 when the end of the source has been reached
+     * @throws IOException if an I/O error occurs
+     */
+    int read(ByteBuffer dst) throws IOException;
+
+    /**
+     * @return the total amount of bytes this source will produce, or {@link #UNKNOWN_LENGTH UNKNOWN_LENGTH}
+     * (progress is only reported for sources with a known length)
+     */
+    long length();
+}
@@ -0,0 +1,118 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import be.jonaseveraert.jonasutils_android.audio.codec.EncodeLoop;
+import be.jonaseveraert.jonasutils_android.progressBar.ProgressNode;
+import be.jonaseveraert.util.progressBar.ProgressBarHandler;
+
+/**
+ * Maps the bytes read during one conversion onto the activities of the current sub-process of a
+ * {@link ProgressBarHandler ProgressBarHandler}, or onto a {@link ProgressNode ProgressNode}.
+ * An activity is completed for every {@code 1 / activities} of the input. Updates are throttled: the handler is only called when the
+ * progress moved at least {@code minPercentageDelta} and {@code minIntervalMs} passed since the
+ * last update. Below the percentage threshold an update only costs a comparison, the clock is not
+ * read.
+ */
+final class ProgressReporter implements EncodeLoop.Listener {
+    private final ProgressBarHandler pbHandler;
+    private final ProgressNode progressNode;
+    private final long inputLength;
+    private final int activities;
+    private final long minIntervalNanos;
+    private final long minDeltaBytes;
+
+    private int activitiesCompleted = 0;
+    /**
+     * The amount of bytes that has to be read before the progress is checked again
+     */
+    private long nextCheckBytes;
+    private long lastUpdateNanos;
+
+    /**
+     * @param pbHandler the handler whose current sub-process has {@code activities} activities for this conversion
+     * @param inputLength the length of the input, read once
+     * @param activities the amount of activities the conversion completes
+     * @param minIntervalMs the minimum time between two updates of the handler
+     * @param minPercentageDelta the minimum progress between two updates of the handler
+     */
+    ProgressReporter(ProgressBarHandler pbHandler, long inputLength, int activities, long minIntervalMs, double minPercentageDelta) {
+        this(pbHandler, null, inputLength, activities, minIntervalMs, minPercentageDelta);
+    }
+
+    /**
+     * @param progressNode the leaf that reports the progress of this conversion
+     * @param inputLength the length of the input, read once
+     * @param minIntervalMs the minimum time between two updates of the node
+     * @param minPercentageDelta the minimum progress between two updates of the node
+     */
+    ProgressReporter(ProgressNode progressNode, long inputLength, long minIntervalMs, double minPercentageDelta) {
+        this(null, progressNode, inputLength, 1, minIntervalMs, minPercentageDelta);
+    }
+
+    private ProgressReporter(ProgressBarHandler pbHandler, ProgressNode progressNode, long inputLength, int activities, long minIntervalMs, double minPercentageDelta) {
+        this.pbHandler = pbHandler;
+        this.progressNode = progressNode;
+        this.inputLength = inputLength;
+        this.activities = activities;
+        this.minIntervalNanos = minIntervalMs * 1000000L;
+        this.minDeltaBytes = (long) (inputLength * minPercentageDelta / 100.0);
+        // Empty input is only completed by finish()
+        this.nextCheckBytes = inputLength <= 0 ? Long.MAX_VALUE : progressNode != null ? minDeltaBytes : nextActivityBytes();
+        this.lastUpdateNanos = System.nanoTime();
+    }
+
+    @Override
+    public void onProgress(long totalBytesRead) {
+        if (totalBytesRead < nextCheckBytes)
+            return;
+
+        long now = System.nanoTime();
+        if (now - lastUpdateNanos < minIntervalNanos)
+            return; // Checked again with the next read
+        lastUpdateNanos = now;
+
+        if (progressNode != null) {
+            progressNode.setProgress((double) totalBytesRead / inputLength);
+            nextCheckBytes = totalBytesRead + Math.max(1, minDeltaBytes);
+            return;
+        }
+        int completed = (int) Math.min(activities, totalBytesRead * activities / inputLength);
+        completeActivities(completed);
+        nextCheckBytes = Math.max(totalBytesRead + minDeltaBytes, nextActivityBytes());
+    }
+
+    /**
+     * Completes the activities that are left, called when the whole input was encoded
+     */
+    void finish() {
+        if (progressNode != null)
+            progressNode.complete();
+        else
+            completeActivities(activities);
+    }
+
+    private void completeActivities(int completed) {
+        int newActivities = completed - activitiesCompleted;
+        if (newActivities <= 0)
+            return;
+        activitiesCompleted = completed;
+
+        if (completed == activities) {
+            // The last activity completes the sub-process
+            if (newActivities > 1)
+                pbHandler.completeActivities(newActivities - 1);
+            pbHandler.completeActivity(true);
+        } else {
+            pbHandler.completeActivities(newActivities);
+        }
+    }
+
+    /**
+     * @return the amount of bytes at which the next activity is completed
+     */
+    private long nextActivityBytes() {
+        if (activitiesCompleted >= activities)
+            return Long.MAX_VALUE;
+        // Rounded up, so the activity is complete at this amount of bytes
+        return ((activitiesCompleted + 1) * inputLength + activities - 1) / activities;
+    }
+}
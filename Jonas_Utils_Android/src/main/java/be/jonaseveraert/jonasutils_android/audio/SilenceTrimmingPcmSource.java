@@ -0,0 +1,271 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link PcmSource PcmSource} that shortens the silences in 16 bit PCM, so they aren't encoded
+ * at full bit rate. The PCM is cut in windows of 10 ms; a window is silent when its energy is below
+ * the threshold.
+ * <p>
+ * A silent run of at least {@code minSilenceMs} is compressed to {@code keepSilenceMs}: half of it
+ * from the start of the run and half from the end, so speech doesn't start or stop abruptly.
+ * Shorter pauses are kept as they are. Leading silence is trimmed to the second half and trailing
+ * silence to the first half, whatever their length.
+ * <p>
+ * The encoder derives the presentation times from the amount of PCM it was fed, so the output
+ * stays continuous; {@link #getDroppedFrames() getDroppedFrames} tells how much was cut. At most
+ * {@code minSilenceMs} of PCM is held back. All buffers are allocated in the constructor, reading
+ * does not allocate.
+ */
+public class SilenceTrimmingPcmSource implements PcmSource {
+    /**
+     * Windows below this level (in dB relative to full scale) are silent by default
+     */
+    public static final double DEFAULT_THRESHOLD_DBFS = -50;
+    /**
+     * Silent runs of at least this length are compressed by default
+     */
+    public static final int DEFAULT_MIN_SILENCE_MS = 500;
+    /**
+     * The length a compressed silent run keeps by default
+     */
+    public static final int DEFAULT_KEEP_SILENCE_MS = 200;
+    private static final int WINDOW_MS = 10;
+
+    private final PcmSource upstream;
+    private final int frameBytes;
+    private final int windowBytes;
+    private final int windowSamples;
+    /**
+     * The sum of squares below which a full window is silent
+     */
+    private final double thresholdSumOfSquares;
+    private final int minSilenceWindows;
+    private final int keepHeadWindows;
+    private final int keepTailWindows;
+
+    /**
+     * The window that is being read from upstream
+     */
+    private final ByteBuffer window;
+    /**
+     * The windows of the current silent run that were held back, a ring of whole windows
+     */
+    private final byte[] held;
+    private final int heldCapacity;
+    private int heldStart = 0;
+    private int heldCount = 0;
+    /**
+     * The PCM that is ready to be read, in read mode
+     */
+    private final ByteBuffer pending;
+
+    private boolean speechSeen = false;
+    private int runLength = 0;
+    private boolean upstreamDone = false;
+    private boolean finished = false;
+    private long framesRead = 0;
+    private long framesWritten = 0;
+
+    /**
+     * Trims silence with the default threshold and lengths
+     * @param upstream the 16 bit PCM
+     * @param samplingRate the sampling rate of the PCM
+     * @param channels the amount of channels of the PCM
+     */
+    public SilenceTrimmingPcmSource(@NonNull PcmSource upstream, int samplingRate, int channels) {
+        this(upstream, samplingRate, channels, DEFAULT_THRESHOLD_DBFS, DEFAULT_MIN_SILENCE_MS, DEFAULT_KEEP_SILENCE_MS);
+    }
+
+    /**
+     * @param upstream the 16 bit PCM
+     * @param samplingRate the sampling rate of the PCM
+     * @param channels the amount of channels of the PCM
+     * @param thresholdDbfs the level of the RMS of a window below which it is silent, e.g. -50
+     * @param minSilenceMs the length from which a silent run is compressed
+     * @param keepSilenceMs the length of silence that is kept of a compressed run, 0 to drop silent
+     *                      runs completely
+     */
+    public SilenceTrimmingPcmSource(@NonNull PcmSource upstream, int samplingRate, int channels, double thresholdDbfs, int minSilenceMs, int keepSilenceMs) {
+        if (samplingRate <= 0 || channels <= 0)
+            throw new IllegalArgumentException("Sampling rate and channels have to be positive");
+        if (keepSilenceMs < 0 || minSilenceMs < keepSilenceMs)
+            throw new IllegalArgumentException("Kept silence has to be between 0 and " + minSilenceMs + " ms, was " + keepSilenceMs);
+        this.upstream = upstream;
+        this.frameBytes = 2 * channels;
+        int windowFrames = Math.max(1, samplingRate * WINDOW_MS / 1000);
+        this.windowSamples = windowFrames * channels;
+        this.windowBytes = windowFrames * frameBytes;
+        double threshold = Short.MAX_VALUE * Math.pow(10, thresholdDbfs / 20);
+        this.thresholdSumOfSquares = threshold * threshold * windowSamples;
+        this.minSilenceWindows = Math.max(1, minSilenceMs / WINDOW_MS);
+        int keepWindows = Math.min(minSilenceWindows, keepSilenceMs / WINDOW_MS);
+        this.keepHeadWindows = keepWindows / 2;
+        this.keepTailWindows = keepWindows - keepHeadWindows;
+
+        this.window = ByteBuffer.allocate(windowBytes);
+        this.heldCapacity = minSilenceWindows;
+        this.held = new byte[heldCapacity * windowBytes];
+        // All held windows and the window that ends the run
+        this.pending = ByteBuffer.allocate((heldCapacity + 1) * windowBytes);
+        this.pending.flip();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        while (dst.hasRemaining()) {
+            if (pending.hasRemaining()) {
+                int count = Math.min(dst.remaining(), pending.remaining());
+                int limit = pending.limit();
+                pending.limit(pending.position() + count);
+                dst.put(pending);
+                pending.limit(limit);
+            } else if (finished) {
+                break;
+            } else {
+                pending.clear();
+                processWindow();
+                pending.flip();
+            }
+        }
+        int written = dst.position() - start;
+        if (written == 0 && finished)
+            return -1;
+        return written;
+    }
+
+    /**
+     * Reads the next window from upstream and adds the PCM it releases to {@link #pending pending}
+     */
+    private void processWindow() throws IOException {
+        window.clear();
+        while (window.hasRemaining() && !upstreamDone) {
+            if (upstream.read(window) == -1)
+                upstreamDone = true;
+        }
+        window.flip();
+        // A trailing partial frame is dropped
+        window.limit(window.limit() - window.limit() % frameBytes);
+        framesRead += window.remaining() / frameBytes;
+
+        if (window.remaining() == windowBytes) {
+            if (isSilent()) {
+                silentWindow();
+            } else {
+                emitHeld(heldCount);
+                clearHeld();
+                emit(window);
+                speechSeen = true;
+                runLength = 0;
+            }
+        } else if (window.hasRemaining() && !isSilent()) {
+            // The last window, shorter than the others
+            emitHeld(heldCount);
+            clearHeld();
+            emit(window);
+            speechSeen = true;
+            runLength = 0;
+        }
+
+        if (upstreamDone) {
+            // Trailing silence keeps its head, which a long run already emitted
+            if (!speechSeen)
+                emitHeld(heldCount); // Only silence, keep what a leading run keeps
+            else if (runLength > 0 && runLength < minSilenceWindows)
+                emitHeld(Math.min(keepHeadWindows, heldCount));
+            clearHeld();
+            finished = true;
+        }
+    }
+
+    private boolean isSilent() {
+        double sumOfSquares = 0;
+        for (int i = window.position(); i + 1 < window.limit(); i += 2) {
+            int sample = (short) (window.get(i) & 0xFF | window.get(i + 1) << 8);
+            sumOfSquares += sample * sample;
+        }
+        int samples = window.remaining() / 2;
+        return sumOfSquares < thresholdSumOfSquares * samples / windowSamples;
+    }
+
+    private void silentWindow() {
+        runLength++;
+        if (!speechSeen) {
+            // Leading silence: only the end of the run is kept
+            hold(keepTailWindows);
+        } else if (runLength < minSilenceWindows) {
+            hold(heldCapacity);
+        } else if (runLength == minSilenceWindows) {
+            // The run is long: emit its head, and from now on only keep its tail
+            hold(heldCapacity);
+            emitHeld(Math.min(keepHeadWindows, heldCount));
+            dropHeld(heldCount - Math.min(keepTailWindows, heldCount));
+        } else {
+            hold(keepTailWindows);
+        }
+    }
+
+    /**
+     * Adds the window to the held windows, dropping the oldest ones beyond {@code capacity}
+     */
+    private void hold(int capacity) {
+        if (capacity == 0)
+            return;
+        if (heldCount >= capacity)
+            dropHeld(heldCount - capacity + 1);
+        int slot = (heldStart + heldCount) % heldCapacity;
+        window.get(held, slot * windowBytes, windowBytes);
+        heldCount++;
+    }
+
+    private void dropHeld(int windows) {
+        heldStart = (heldStart + windows) % heldCapacity;
+        heldCount -= windows;
+    }
+
+    private void clearHeld() {
+        heldStart = 0;
+        heldCount = 0;
+    }
+
+    /**
+     * Emits the oldest {@code windows} held windows, they stay held
+     */
+    private void emitHeld(int windows) {
+        for (int i = 0; i < windows; i++) {
+            int slot = (heldStart + i) % heldCapacity;
+            pending.put(held, slot * windowBytes, windowBytes);
+            framesWritten += windowBytes / frameBytes;
+        }
+    }
+
+    private void emit(ByteBuffer pcm) {
+        framesWritten += pcm.remaining() / frameBytes;
+        pending.put(pcm);
+    }
+
+    /**
+     * @return the amount of frames read from upstream that were dropped or are still held back
+     */
+    public long getDroppedFrames() {
+        return framesRead - framesWritten;
+    }
+
+    /**
+     * @return the length of the upstream source, an upper bound of what this source produces, or
+     * {@link #UNKNOWN_LENGTH UNKNOWN_LENGTH}
+     */
+    @Override
+    public long length() {
+        return upstream.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        upstream.close();
+    }
+}
@@ -0,0 +1,90 @@
+package be.jonaseveraert.jonasutils_android.audio.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An encoder driven by an {@link EncodeLoop EncodeLoop}. Mirrors the synchronous API of
+ * {@code android.media.MediaCodec}, so the loop can run against the Android codecs
+ * ({@link MediaCodecAudioEncoder MediaCodecAudioEncoder}) or against a pure Java stand-in
+ * ({@link PassthroughAudioEncoder PassthroughAudioEncoder}).
+ * @param <F> the type describing the output format of the encoder
+ */
+public interface AudioEncoder<F> {
+    /**
+     * No buffer is available, try again later
+     */
+    int INFO_TRY_AGAIN_LATER = -1;
+    /**
+     * The output format changed, {@link #getOutputFormat() getOutputFormat} returns the new format
+     */
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+    /**
+     * The output buffers changed (only on old Android devices)
+     */
+    int INFO_OUTPUT_BUFFERS_CHANGED = -3;
+
+    /**
+     * The buffer contains codec specific data instead of media data
+     */
+    int BUFFER_FLAG_CODEC_CONFIG = 2;
+    /**
+     * The buffer marks the end of the stream
+     */
+    int BUFFER_FLAG_END_OF_STREAM = 4;
+
+    /**
+     * @param timeoutUs how long to wait for an input buffer
+     * @return the index of a free input buffer or {@link #INFO_TRY_AGAIN_LATER INFO_TRY_AGAIN_LATER}
+     */
+    int dequeueInputBuffer(long timeoutUs);
+
+    /**
+     * @param index an index returned by {@link #dequeueInputBuffer dequeueInputBuffer}
+     * @return the input buffer with that index
+     */
+    ByteBuffer getInputBuffer(int index);
+
+    /**
+     * Submits a filled input buffer to the encoder.
+     * @param index the index of the buffer
+     * @param offset the offset of the data in the buffer
+     * @param size the size of the data
+     * @param presentationTimeUs the presentation time of the first sample in the buffer
+     * @param flags 0 or {@link #BUFFER_FLAG_END_OF_STREAM BUFFER_FLAG_END_OF_STREAM}
+     */
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+
+    /**
+     * @param info receives the offset, size, presentation time and flags of the encoded data
+     * @param timeoutUs how long to wait for output
+     * @return the index of an output buffer, or one of the {@code INFO_} constants
+     */
+    int dequeueOutputBuffer(SampleInfo info, long timeoutUs);
+
+    /**
+     * @param index an index returned by {@link #dequeueOutputBuffer dequeueOutputBuffer}
+     * @return the output buffer with that index
+     */
+    ByteBuffer getOutputBuffer(int index);
+
+    /**
+     * Returns an output buffer to the encoder.
+     * @param index the index of the buffer
+     */
+    void releaseOutputBuffer(int index);
+
+    /**
+     * @return the output format, valid after {@link #INFO_OUTPUT_FORMAT_CHANGED INFO_OUTPUT_FORMAT_CHANGED}
+     */
+    F getOutputFormat();
+
+    /**
+     * Stops encoding. The encoder can't be used until it is started again.
+     */
+    void stop();
+
+    /**
+     * Frees the resources of the encoder.
+     */
+    void release();
+}
@@ -0,0 +1,41 @@
+package be.jonaseveraert.jonasutils_android.audio.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the output of an {@link AudioEncoder AudioEncoder} into a container.
+ * @param <F> the type describing the format of a track, the same type as the encoder's output format
+ */
+public interface AudioMuxer<F> {
+    /**
+     * @param format the format of the track
+     * @return the index of the track
+     */
+    int addTrack(F format);
+
+    /**
+     * Starts the muxer, after all tracks have been added.
+     */
+    void start();
+
+    /**
+     * Writes encoded data to a track.
+     * @param trackIndex the index returned by {@link #addTrack addTrack}
+     * @param data the encoded data, between its position and limit
+     * @param info the offset, size, presentation time and flags of the data
+     * @throws IOException if the data could not be written
+     */
+    void writeSampleData(int trackIndex, ByteBuffer data, SampleInfo info) throws IOException;
+
+    /**
+     * Finishes the container.
+     * @throws IOException if the container could not be finished
+     */
+    void stop() throws IOException;
+
+    /**
+     * Frees the resources of the muxer.
+     */
+    void release();
+}
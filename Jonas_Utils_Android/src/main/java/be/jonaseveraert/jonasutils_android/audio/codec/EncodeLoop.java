@@ -0,0 +1,214 @@
+package be.jonaseveraert.jonasutils_android.audio.codec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+
+import be.jonaseveraert.jonasutils_android.audio.OutputBuffersChanged;
+import be.jonaseveraert.jonasutils_android.audio.PcmSource;
+import be.jonaseveraert.jonasutils_android.audio.UnkownReturnCode;
+import be.jonaseveraert.jonasutils_android.audio.waveform.WaveformBuilder;
+
+/**
+ * The synchronous encode loop: reads PCM from a {@link PcmSource PcmSource} into the input buffers
+ * of an {@link AudioEncoder AudioEncoder} and writes its output to an {@link AudioMuxer AudioMuxer}.
+ * The loop only uses plain Java, so it can run against the Android codecs or against the pure Java
+ * stand-ins.
+ * @param <F> the format type of the encoder and muxer
+ */
+public class EncodeLoop<F> {
+    private final AudioEncoder<F> encoder;
+    private final AudioMuxer<F> muxer;
+    private final int samplingRate;
+    /**
+     * Bytes per frame of the 16 bit PCM the encoder is fed
+     */
+    private final int bytesPerFrame;
+    private final long timeoutUs;
+    private Listener listener;
+    private EncoderMetrics metrics;
+    private WaveformBuilder waveform;
+
+    /**
+     * Gets notified about the progress of the loop. Called on the thread running the loop.
+     */
+    public interface Listener {
+        /**
+         * Called after each round of filling input buffers and draining output.
+         * @param totalBytesRead the amount of bytes read from the source so far
+         */
+        void onProgress(long totalBytesRead);
+    }
+
+    /**
+     * @param encoder a started encoder
+     * @param muxer the muxer the encoded data is written to. It is started when the encoder reports
+     *              its output format.
+     * @param samplingRate the sampling rate of the PCM, used to calculate the presentation times
+     * @param channels the amount of channels of the (16 bit) PCM, used to calculate the presentation times
+     * @param timeoutUs how long to wait for a buffer of the encoder
+     */
+    public EncodeLoop(AudioEncoder<F> encoder, AudioMuxer<F> muxer, int samplingRate, int channels, long timeoutUs) {
+        this.encoder = encoder;
+        this.muxer = muxer;
+        this.samplingRate = samplingRate;
+        this.bytesPerFrame = 2 * channels;
+        this.timeoutUs = timeoutUs;
+    }
+
+    /**
+     * @param listener the listener, or null to stop listening
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param metrics the metrics the loop records into, or null to not measure anything. Without
+     *                metrics the loop doesn't read the clock.
+     */
+    public void setMetrics(EncoderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param waveform the builder every buffer of PCM is added to before it is encoded, or null to
+     *                 not compute a waveform
+     */
+    public void setWaveform(WaveformBuilder waveform) {
+        this.waveform = waveform;
+    }
+
+    /**
+     * Encodes the source until it ends, then stops and releases the muxer. The encoder is left to
+     * the caller: it is stopped (or flushed) and released by whoever created it, so it can be reused.
+     * @param source the PCM to encode
+     * @return true if the encoding has finished
+     * @throws IOException if reading the source or writing the output fails. The muxer is released.
+     * @throws InterruptedIOException when the calling thread was interrupted. The muxer is released.
+     */
+    public boolean run(PcmSource source) throws IOException {
+        boolean finished = false;
+        try {
+            runLoop(source);
+            finished = true;
+        } catch (ClosedByInterruptException e) {
+            // The interrupt reached a channel of the source or the muxer before the loop saw it
+            InterruptedIOException cancelled = new InterruptedIOException("The encoding was cancelled");
+            cancelled.initCause(e);
+            throw cancelled;
+        } finally {
+            if (!finished)
+                muxer.release();
+        }
+        return true;
+    }
+
+    private void runLoop(PcmSource source) throws IOException {
+        SampleInfo outBuffInfo = new SampleInfo();
+        boolean hasMoreData = true;
+        double presentationTimeUs = 0;
+        int audioTrackIdx = 0;
+        long totalBytesRead = 0;
+        final EncoderMetrics metrics = this.metrics;
+        final WaveformBuilder waveform = this.waveform;
+        long t = 0;
+        if (metrics != null)
+            metrics.start();
+        do {
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("The encoding was cancelled");
+            }
+
+            int inputBufIndex = 0;
+            while (inputBufIndex != -1 && hasMoreData) {
+                if (metrics != null)
+                    t = System.nanoTime();
+                inputBufIndex = encoder.dequeueInputBuffer(timeoutUs);
+                if (metrics != null) {
+                    metrics.addCodecTime(System.nanoTime() - t);
+                    metrics.countInputDequeue(inputBufIndex);
+                }
+
+                if (inputBufIndex >= 0) {
+                    ByteBuffer dstBuf = encoder.getInputBuffer(inputBufIndex);
+                    dstBuf.clear();
+
+                    // Blocks until the source has data, which is what slows down a pushing producer
+                    if (metrics != null)
+                        t = System.nanoTime();
+                    int bytesRead = source.read(dstBuf);
+                    if (metrics != null)
+                        metrics.addRead(bytesRead, System.nanoTime() - t);
+                    // Before the codec time starts, the waveform isn't part of it
+                    if (waveform != null && bytesRead > 0)
+                        waveform.accumulate(dstBuf, 0, bytesRead);
+                    if (metrics != null)
+                        t = System.nanoTime();
+                    if (bytesRead == -1) { // -1 implies EOS
+                        hasMoreData = false;
+                        encoder.queueInputBuffer(inputBufIndex, 0, 0, (long) presentationTimeUs, AudioEncoder.BUFFER_FLAG_END_OF_STREAM);
+                    } else {
+                        totalBytesRead += bytesRead;
+                        encoder.queueInputBuffer(inputBufIndex, 0, bytesRead, (long) presentationTimeUs, 0);
+                        presentationTimeUs = 1000000L * (totalBytesRead / bytesPerFrame) / samplingRate;
+                    }
+                    if (metrics != null)
+                        metrics.addCodecTime(System.nanoTime() - t);
+                }
+            }
+            // Drain audio
+            int outputBufIndex = 0;
+            while (outputBufIndex != AudioEncoder.INFO_TRY_AGAIN_LATER) {
+                if (metrics != null)
+                    t = System.nanoTime();
+                outputBufIndex = encoder.dequeueOutputBuffer(outBuffInfo, timeoutUs);
+                if (metrics != null) {
+                    metrics.addCodecTime(System.nanoTime() - t);
+                    metrics.countOutputDequeue(outputBufIndex);
+                }
+                if (outputBufIndex >= 0) {
+                    ByteBuffer encodedData = encoder.getOutputBuffer(outputBufIndex);
+                    encodedData.position(outBuffInfo.offset);
+                    encodedData.limit(outBuffInfo.offset + outBuffInfo.size);
+                    if ((outBuffInfo.flags & AudioEncoder.BUFFER_FLAG_CODEC_CONFIG) != 0 && outBuffInfo.size != 0) {
+                        encoder.releaseOutputBuffer(outputBufIndex);
+                    } else {
+                        if (metrics != null)
+                            t = System.nanoTime();
+                        muxer.writeSampleData(audioTrackIdx, encodedData, outBuffInfo);
+                        if (metrics != null)
+                            metrics.addWrite(outBuffInfo.size, System.nanoTime() - t);
+                        encoder.releaseOutputBuffer(outputBufIndex);
+                    }
+                } else if (outputBufIndex == AudioEncoder.INFO_OUTPUT_FORMAT_CHANGED) {
+                    if (metrics != null)
+                        t = System.nanoTime();
+                    audioTrackIdx = muxer.addTrack(encoder.getOutputFormat());
+                    muxer.start();
+                    if (metrics != null)
+                        metrics.addMuxerTime(System.nanoTime() - t);
+                } else if (outputBufIndex == AudioEncoder.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    throw new OutputBuffersChanged("Output buffers changed during encode!");
+                } else if (outputBufIndex == AudioEncoder.INFO_TRY_AGAIN_LATER) {
+                    // NO OP
+                } else {
+                    throw new UnkownReturnCode("Unkown return code frm dequeueOutputBuffer - " + outputBufIndex);
+                }
+            }
+
+            if (listener != null)
+                listener.onProgress(totalBytesRead);
+        } while (outBuffInfo.flags != AudioEncoder.BUFFER_FLAG_END_OF_STREAM);
+
+        if (metrics != null)
+            t = System.nanoTime();
+        muxer.stop();
+        muxer.release();
+        if (metrics != null) {
+            metrics.addMuxerTime(System.nanoTime() - t);
+            metrics.finish((long) presentationTimeUs);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package be.jonaseveraert.jonasutils_android.audio.codec;
+
+import java.io.File;
+
+/**
+ * Counters and timings of one conversion: how much was read and written, how often the encoder
+ * had no buffer available and where the time went (encoder, reading the input or the muxer).
+ * Use it to find out whether a device is codec-bound or I/O-bound.
+ * <p>
+ * An instance is filled by one thread only and is handed to the {@link Listener Listener} when the
+ * conversion has finished. It is only created when a listener is set, so conversions without a
+ * listener don't measure anything.
+ */
+public final class EncoderMetrics {
+    private long bytesRead;
+    private long bytesWritten;
+    private int inputDequeues;
+    private int inputTryAgainLater;
+    private int outputDequeues;
+    private int outputTryAgainLater;
+    private long codecNanos;
+    private long ioNanos;
+    private long muxerNanos;
+    private long audioDurationUs;
+    private long startNanos;
+    private long wallNanos;
+
+    /**
+     * Gets the metrics of every conversion that finished successfully.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread that ran the conversion, so it can be called by several threads at
+         * once when the converter is used for parallel jobs.
+         * @param outputFile the file the audio was converted to
+         * @param metrics the metrics of the conversion
+         */
+        void onConversionFinished(File outputFile, EncoderMetrics metrics);
+    }
+
+    /**
+     * Marks the start of the conversion
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of the conversion
+     * @param audioDurationUs the duration of the encoded audio
+     */
+    public void finish(long audioDurationUs) {
+        this.wallNanos = System.nanoTime() - startNanos;
+        this.audioDurationUs = audioDurationUs;
+    }
+
+    /**
+     * Records a read of the input
+     * @param bytes the amount of bytes read, -1 at the end of the input
+     * @param nanos the time the read took
+     */
+    public void addRead(int bytes, long nanos) {
+        if (bytes > 0)
+            bytesRead += bytes;
+        ioNanos += nanos;
+    }
+
+    /**
+     * Records an encoded buffer written to the muxer
+     * @param bytes the size of the buffer
+     * @param nanos the time writing took
+     */
+    public void addWrite(int bytes, long nanos) {
+        bytesWritten += bytes;
+        muxerNanos += nanos;
+    }
+
+    /**
+     * Records time spent in the muxer other than writing samples (adding the track, starting and stopping)
+     */
+    public void addMuxerTime(long nanos) {
+        muxerNanos += nanos;
+    }
+
+    /**
+     * Records a call to the encoder that dequeues, queues or releases a buffer
+     * @param nanos the time the call took, including the time blocked waiting for a buffer
+     */
+    public void addCodecTime(long nanos) {
+        codecNanos += nanos;
+    }
+
+    /**
+     * Records a dequeue of an input buffer
+     * @param index the index returned by the encoder
+     */
+    public void countInputDequeue(int index) {
+        inputDequeues++;
+        if (index == AudioEncoder.INFO_TRY_AGAIN_LATER)
+            inputTryAgainLater++;
+    }
+
+    /**
+     * Records a dequeue of an output buffer
+     * @param index the index or info code returned by the encoder
+     */
+    public void countOutputDequeue(int index) {
+        outputDequeues++;
+        if (index == AudioEncoder.INFO_TRY_AGAIN_LATER)
+            outputTryAgainLater++;
+    }
+
+    /**
+     * @return the amount of PCM bytes read from the input
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the amount of encoded bytes written to the muxer
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getInputDequeues() {
+        return inputDequeues;
+    }
+
+    /**
+     * @return how many input dequeues returned no buffer because the encoder was still busy
+     */
+    public int getInputTryAgainLater() {
+        return inputTryAgainLater;
+    }
+
+    public int getOutputDequeues() {
+        return outputDequeues;
+    }
+
+    /**
+     * @return how many output dequeues returned no buffer because the encoder had no output yet
+     */
+    public int getOutputTryAgainLater() {
+        return outputTryAgainLater;
+    }
+
+    /**
+     * @return the time spent in (or blocked on) the encoder in nanoseconds
+     */
+    public long getCodecNanos() {
+        return codecNanos;
+    }
+
+    /**
+     * @return the time spent reading the input in nanoseconds
+     */
+    public long getIoNanos() {
+        return ioNanos;
+    }
+
+    /**
+     * @return the time spent in the muxer in nanoseconds
+     */
+    public long getMuxerNanos() {
+        return muxerNanos;
+    }
+
+    /**
+     * @return the wall-clock time of the conversion in nanoseconds
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * @return the duration of the encoded audio in microseconds
+     */
+    public long getAudioDurationUs() {
+        return audioDurationUs;
+    }
+
+    /**
+     * @return the seconds of audio encoded per wall-clock second, or 0 when nothing was timed
+     */
+    public double getRealtimeFactor() {
+        if (wallNanos <= 0)
+            return 0;
+        return audioDurationUs * 1000.0 / wallNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "EncoderMetrics{" +
+                "bytesRead=" + bytesRead +
+                ", bytesWritten=" + bytesWritten +
+                ", inputDequeues=" + inputDequeues +
+                ", inputTryAgainLater=" + inputTryAgainLater +
+                ", outputDequeues=" + outputDequeues +
+                ", outputTryAgainLater=" + outputTryAgainLater +
+                ", codecMs=" + codecNanos / 1000000 +
+                ", ioMs=" + ioNanos / 1000000 +
+                ", muxerMs=" + muxerNanos / 1000000 +
+                ", wallMs=" + wallNanos / 1000000 +
+                ", realtimeFactor=" + getRealtimeFactor() +
+                '}';
+    }
+}
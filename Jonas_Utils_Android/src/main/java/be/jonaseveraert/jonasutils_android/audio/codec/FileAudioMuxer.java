@@ -0,0 +1,68 @@
+package be.jonaseveraert.jonasutils_android.audio.codec;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A pure Java muxer that writes the data of a single track to a file, without any container.
+ * Used together with {@link PassthroughAudioEncoder PassthroughAudioEncoder}.
+ */
+public class FileAudioMuxer implements AudioMuxer<PcmFormat> {
+    private final FileOutputStream fos;
+    private final FileChannel channel;
+    private boolean hasTrack = false;
+    private long bytesWritten = 0;
+
+    /**
+     * @param outputFile the file the track data is written to
+     * @throws FileNotFoundException if the file can't be opened for writing
+     */
+    public FileAudioMuxer(File outputFile) throws FileNotFoundException {
+        this.fos = new FileOutputStream(outputFile);
+        this.channel = fos.getChannel();
+    }
+
+    @Override
+    public int addTrack(PcmFormat format) {
+        if (hasTrack)
+            throw new IllegalStateException("FileAudioMuxer only supports one track");
+        hasTrack = true;
+        return 0;
+    }
+
+    @Override
+    public void start() {
+        // Nothing to write before the data
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, SampleInfo info) throws IOException {
+        while (data.hasRemaining())
+            bytesWritten += channel.write(data);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        fos.close();
+    }
+
+    @Override
+    public void release() {
+        try {
+            fos.close();
+        } catch (IOException e) {
+            // Already closed or nothing left to flush
+        }
+    }
+
+    /**
+     * @return the amount of bytes written to the file
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
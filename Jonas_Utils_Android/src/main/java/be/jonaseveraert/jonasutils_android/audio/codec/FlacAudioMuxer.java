@@ -0,0 +1,121 @@
+package be.jonaseveraert.jonasutils_android.audio.codec;
+
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the output of a FLAC encoder to a native .flac file. {@link android.media.MediaMuxer MediaMuxer}
+ * has no container for FLAC, but the encoded frames only need the "fLaC" marker and a STREAMINFO
+ * block in front of them.
+ */
+public class FlacAudioMuxer implements AudioMuxer<MediaFormat> {
+    private static final byte[] FLAC_MARKER = {'f', 'L', 'a', 'C'};
+    private static final int STREAMINFO_LENGTH = 34;
+
+    private final FileOutputStream fos;
+    private final FileChannel channel;
+    private MediaFormat format;
+    private boolean headerWritten = false;
+
+    /**
+     * @param outputFile the .flac file
+     * @throws FileNotFoundException if the file can't be opened for writing
+     */
+    public FlacAudioMuxer(File outputFile) throws FileNotFoundException {
+        this.fos = new FileOutputStream(outputFile);
+        this.channel = fos.getChannel();
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        if (this.format != null)
+            throw new IllegalStateException("A FLAC file only has one track");
+        this.format = format;
+        return 0;
+    }
+
+    @Override
+    public void start() {
+        // The header is written with the first frame
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, SampleInfo info) throws IOException {
+        writeHeader();
+        while (data.hasRemaining())
+            channel.write(data);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        writeHeader();
+        fos.close();
+    }
+
+    @Override
+    public void release() {
+        try {
+            fos.close();
+        } catch (IOException e) {
+            // Already closed or nothing left to flush
+        }
+    }
+
+    /**
+     * Writes the codec specific data of the encoder, which is the FLAC header, or a minimal header
+     * when the encoder didn't provide one.
+     */
+    private void writeHeader() throws IOException {
+        if (headerWritten || format == null)
+            return;
+        headerWritten = true;
+
+        ByteBuffer csd = format.containsKey("csd-0") ? format.getByteBuffer("csd-0") : null;
+        if (csd != null && csd.remaining() > 0) {
+            csd = csd.duplicate();
+            if (!startsWithMarker(csd))
+                writeFully(ByteBuffer.wrap(FLAC_MARKER));
+            writeFully(csd);
+        } else {
+            writeFully(ByteBuffer.wrap(FLAC_MARKER));
+            writeFully(streamInfo(format.getInteger(MediaFormat.KEY_SAMPLE_RATE), format.getInteger(MediaFormat.KEY_CHANNEL_COUNT)));
+        }
+    }
+
+    private static boolean startsWithMarker(ByteBuffer csd) {
+        if (csd.remaining() < FLAC_MARKER.length)
+            return false;
+        for (int i = 0; i < FLAC_MARKER.length; i++) {
+            if (csd.get(csd.position() + i) != FLAC_MARKER[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the last metadata block: a STREAMINFO for 16 bit PCM with unknown length and frame sizes
+     */
+    private static ByteBuffer streamInfo(int sampleRate, int channels) {
+        ByteBuffer block = ByteBuffer.allocate(4 + STREAMINFO_LENGTH);
+        block.putInt(0x80 << 24 | STREAMINFO_LENGTH); // last block, type 0 (STREAMINFO)
+        block.putShort((short) 16); // min block size
+        block.putShort((short) 0xFFFF); // max block size
+        block.put(new byte[6]); // min and max frame size, unknown
+        // sample rate (20 bits), channels - 1 (3 bits), bits per sample - 1 (5 bits), total samples (36 bits, unknown)
+        block.putLong((long) sampleRate << 44 | (long) (channels - 1) << 41 | (long) (16 - 1) << 36);
+        block.put(new byte[16]); // MD5 signature, unknown
+        block.flip();
+        return block;
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        while (data.hasRemaining())
+            channel.write(data);
+    }
+}
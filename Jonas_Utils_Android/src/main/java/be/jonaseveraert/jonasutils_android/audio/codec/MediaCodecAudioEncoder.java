@@ -0,0 +1,89 @@
+package be.jonaseveraert.jonasutils_android.audio.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The Android backend of {@link AudioEncoder AudioEncoder}, wrapping a started {@link MediaCodec MediaCodec}.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN)
+public class MediaCodecAudioEncoder implements AudioEncoder<MediaFormat> {
+    private final MediaCodec codec;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    // Only used before API 21, where buffers can't be requested by index
+    private ByteBuffer[] inputBuffers;
+    private ByteBuffer[] outputBuffers;
+
+    /**
+     * @param codec a configured and started encoder
+     */
+    public MediaCodecAudioEncoder(@NonNull MediaCodec codec) {
+        this.codec = codec;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            this.inputBuffers = codec.getInputBuffers();
+            this.outputBuffers = codec.getOutputBuffers();
+        }
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        return codec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            return codec.getInputBuffer(index);
+        return inputBuffers[index];
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        codec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+        int index = codec.dequeueOutputBuffer(bufferInfo, timeoutUs);
+        if (index >= 0)
+            info.set(bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            return codec.getOutputBuffer(index);
+        return outputBuffers[index];
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        codec.releaseOutputBuffer(index, false);
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+        return codec.getOutputFormat();
+    }
+
+    @Override
+    public void stop() {
+        codec.stop();
+    }
+
+    @Override
+    public void release() {
+        codec.release();
+    }
+
+    public MediaCodec getCodec() {
+        return codec;
+    }
+}
@@ -0,0 +1,54 @@
+package be.jonaseveraert.jonasutils_android.audio.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+
+import static android.content.ContentValues.TAG;
+
+/**
+ * The Android backend of {@link AudioMuxer AudioMuxer}, wrapping a {@link MediaMuxer MediaMuxer}.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class MediaMuxerAudioMuxer implements AudioMuxer<MediaFormat> {
+    private final MediaMuxer muxer;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+    public MediaMuxerAudioMuxer(@NonNull MediaMuxer muxer) {
+        this.muxer = muxer;
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        Log.v(TAG, "Output format changed - " + format);
+        return muxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        muxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, SampleInfo info) {
+        bufferInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        muxer.writeSampleData(trackIndex, data, bufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        muxer.stop();
+    }
+
+    @Override
+    public void release() {
+        muxer.release();
+    }
+}
@@ -0,0 +1,139 @@
+package be.jonaseveraert.jonasutils_android.audio.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A deterministic, pure Java stand-in for an encoder. Every input buffer is copied unchanged into
+ * an output buffer. Together with {@link FileAudioMuxer FileAudioMuxer} it allows running the
+ * {@link EncodeLoop EncodeLoop} (buffer handling, timestamps, progress reporting) on a plain JVM,
+ * e.g. to benchmark or profile the pipeline without a device.
+ * <p>
+ * Input buffer {@code i} is paired with output buffer {@code i}: an input buffer becomes available
+ * again when its output buffer is released. Nothing happens in the background, so the timeouts are
+ * ignored.
+ */
+public class PassthroughAudioEncoder implements AudioEncoder<PcmFormat> {
+    private final PcmFormat format;
+    private final ByteBuffer[] inputBuffers;
+    private final ByteBuffer[] outputBuffers;
+
+    // Queued input that has not been dequeued as output yet
+    private final int[] queuedSize;
+    private final long[] queuedPresentationTimeUs;
+    private final int[] queuedFlags;
+
+    private final IntQueue freeInput;
+    private final IntQueue queuedInput;
+    private boolean formatReported = false;
+
+    /**
+     * A fifo of buffer indices, without boxing
+     */
+    private static final class IntQueue {
+        private final int[] items;
+        private int head = 0;
+        private int count = 0;
+
+        IntQueue(int capacity) {
+            items = new int[capacity];
+        }
+
+        void add(int item) {
+            items[(head + count) % items.length] = item;
+            count++;
+        }
+
+        int poll() {
+            if (count == 0)
+                return -1;
+            int item = items[head];
+            head = (head + 1) % items.length;
+            count--;
+            return item;
+        }
+    }
+
+    /**
+     * @param format the format reported as output format
+     * @param bufferCount the amount of input (and output) buffers
+     * @param bufferSize the size of each buffer in bytes
+     */
+    public PassthroughAudioEncoder(PcmFormat format, int bufferCount, int bufferSize) {
+        this.format = format;
+        this.inputBuffers = new ByteBuffer[bufferCount];
+        this.outputBuffers = new ByteBuffer[bufferCount];
+        this.queuedSize = new int[bufferCount];
+        this.queuedPresentationTimeUs = new long[bufferCount];
+        this.queuedFlags = new int[bufferCount];
+        this.freeInput = new IntQueue(bufferCount);
+        this.queuedInput = new IntQueue(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            inputBuffers[i] = ByteBuffer.allocateDirect(bufferSize);
+            outputBuffers[i] = ByteBuffer.allocateDirect(bufferSize);
+            freeInput.add(i);
+        }
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        int index = freeInput.poll();
+        return index == -1 ? INFO_TRY_AGAIN_LATER : index;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return inputBuffers[index];
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        ByteBuffer in = inputBuffers[index];
+        ByteBuffer out = outputBuffers[index];
+        in.limit(offset + size).position(offset);
+        out.clear();
+        out.put(in);
+        queuedSize[index] = size;
+        queuedPresentationTimeUs[index] = presentationTimeUs;
+        queuedFlags[index] = flags;
+        queuedInput.add(index);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+        if (!formatReported) {
+            formatReported = true;
+            return INFO_OUTPUT_FORMAT_CHANGED;
+        }
+        int index = queuedInput.poll();
+        if (index == -1)
+            return INFO_TRY_AGAIN_LATER;
+
+        info.set(0, queuedSize[index], queuedPresentationTimeUs[index], queuedFlags[index]);
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return outputBuffers[index];
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        freeInput.add(index);
+    }
+
+    @Override
+    public PcmFormat getOutputFormat() {
+        return format;
+    }
+
+    @Override
+    public void stop() {
+        // Nothing to stop
+    }
+
+    @Override
+    public void release() {
+        // The buffers are garbage collected
+    }
+}
@@ -0,0 +1,34 @@
+package be.jonaseveraert.jonasutils_android.audio.codec;
+
+/**
+ * The track format used by the pure Java backend ({@link PassthroughAudioEncoder PassthroughAudioEncoder}
+ * and {@link FileAudioMuxer FileAudioMuxer}).
+ */
+public final class PcmFormat {
+    private final String mimeType;
+    private final int sampleRate;
+    private final int channels;
+
+    public PcmFormat(String mimeType, int sampleRate, int channels) {
+        this.mimeType = mimeType;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    @Override
+    public String toString() {
+        return mimeType + ", " + sampleRate + " Hz, " + channels + " channel(s)";
+    }
+}
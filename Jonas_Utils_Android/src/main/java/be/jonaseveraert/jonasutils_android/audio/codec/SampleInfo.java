@@ -0,0 +1,18 @@
+package be.jonaseveraert.jonasutils_android.audio.codec;
+
+/**
+ * Describes a buffer of encoded data, like {@code android.media.MediaCodec.BufferInfo}.
+ */
+public final class SampleInfo {
+    public int offset;
+    public int size;
+    public long presentationTimeUs;
+    public int flags;
+
+    public void set(int offset, int size, long presentationTimeUs, int flags) {
+        this.offset = offset;
+        this.size = size;
+        this.presentationTimeUs = presentationTimeUs;
+        this.flags = flags;
+    }
+}
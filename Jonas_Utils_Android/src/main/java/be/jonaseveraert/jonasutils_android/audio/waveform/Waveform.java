@@ -0,0 +1,258 @@
+package be.jonaseveraert.jonasutils_android.audio.waveform;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A multi-resolution summary of a recording: per level the minimum, maximum and RMS sample of
+ * every block of frames, over all channels. Level 0 has the shortest blocks, every next level
+ * merges {@link WaveformBuilder#LEVEL_FACTOR LEVEL_FACTOR} blocks of the level below, up to a level
+ * with a single block. {@link #getPeaks getPeaks} uses the coarsest level that still has enough
+ * detail, so drawing a zoomed out view of a long recording only touches a few blocks.
+ * <p>
+ * A waveform is computed while converting (see
+ * {@link be.jonaseveraert.jonasutils_android.audio.AudioConverter#setWaveformSidecar AudioConverter.setWaveformSidecar})
+ * and stored in a small binary file next to the audio, which is {@link #read read} without decoding
+ * any audio.
+ * <p>
+ * A waveform is immutable and can be shared between threads.
+ */
+public final class Waveform {
+    /**
+     * The extension appended to the name of the audio file to get the name of its sidecar
+     */
+    public static final String SIDECAR_EXTENSION = ".wfm";
+
+    static final int MAGIC = 0x57464D31; // "WFM1"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 4 + 8 + 4;
+
+    private final int samplingRate;
+    private final int channels;
+    private final long frameCount;
+    private final int[] blockFrames;
+    /**
+     * Per level the min, max and RMS of every block
+     */
+    private final short[][] levels;
+
+    Waveform(int samplingRate, int channels, long frameCount, int[] blockFrames, short[][] levels) {
+        this.samplingRate = samplingRate;
+        this.channels = channels;
+        this.frameCount = frameCount;
+        this.blockFrames = blockFrames;
+        this.levels = levels;
+    }
+
+    /**
+     * @param audioFile the converted audio file
+     * @return the file the waveform of {@code audioFile} is stored in
+     */
+    public static File sidecarFor(@NonNull File audioFile) {
+        return new File(audioFile.getPath() + SIDECAR_EXTENSION);
+    }
+
+    /**
+     * Reads a waveform from a sidecar file
+     * @param sidecar the file written by {@link WaveformBuilder#writeTo WaveformBuilder.writeTo}
+     * @return the waveform
+     * @throws IOException When an I/O Exception occurs or the file is not a waveform
+     */
+    public static Waveform read(@NonNull File sidecar) throws IOException {
+        try (FileInputStream in = new FileInputStream(sidecar)) {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // Read until the buffer is full
+            }
+            buffer.flip();
+            return fromBinary(buffer);
+        }
+    }
+
+    /**
+     * Reads a waveform in the format of {@link #toBinary() toBinary}
+     * @param data the waveform, e.g. a mapped sidecar file. Its position is not changed.
+     * @return the waveform
+     * @throws IOException when the data is not a waveform or is truncated
+     */
+    public static Waveform fromBinary(@NonNull ByteBuffer data) throws IOException {
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not a waveform");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported waveform version " + version);
+            int samplingRate = buffer.getInt();
+            int channels = buffer.getInt();
+            long frameCount = buffer.getLong();
+            int levelCount = buffer.getInt();
+            if (samplingRate < 1 || channels < 1 || frameCount < 0 || levelCount < 1 || levelCount > 64)
+                throw new IOException("Corrupt waveform");
+
+            int[] blockFrames = new int[levelCount];
+            short[][] levels = new short[levelCount][];
+            for (int level = 0; level < levelCount; level++) {
+                blockFrames[level] = buffer.getInt();
+                int blockCount = buffer.getInt();
+                if (blockFrames[level] < 1 || blockCount < 0 || blockCount * 6L > buffer.remaining())
+                    throw new IOException("Truncated waveform");
+                levels[level] = new short[3 * blockCount];
+                buffer.asShortBuffer().get(levels[level]);
+                buffer.position(buffer.position() + levels[level].length * 2);
+            }
+            return new Waveform(samplingRate, channels, frameCount, blockFrames, levels);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated waveform", e);
+        }
+    }
+
+    /**
+     * Encodes the waveform (big endian): magic, version, sampling rate, channels, frame count and
+     * level count, then per level the frames per block, the block count and the min, max and RMS
+     * of every block.
+     * @return a buffer with the encoded waveform, ready to be read
+     */
+    public ByteBuffer toBinary() {
+        int size = HEADER_SIZE;
+        for (short[] level : levels)
+            size += 8 + level.length * 2;
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(samplingRate);
+        buffer.putInt(channels);
+        buffer.putLong(frameCount);
+        buffer.putInt(levels.length);
+        for (int level = 0; level < levels.length; level++) {
+            buffer.putInt(blockFrames[level]);
+            buffer.putInt(levels[level].length / 3);
+            buffer.asShortBuffer().put(levels[level]);
+            buffer.position(buffer.position() + levels[level].length * 2);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public int getSamplingRate() {
+        return samplingRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return the amount of frames of the recording
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return the duration of the recording in microseconds
+     */
+    public long getDurationUs() {
+        return frameCount * 1000000L / samplingRate;
+    }
+
+    /**
+     * @return the amount of levels, level 0 is the finest
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * @param level the level
+     * @return the amount of frames per block of the level
+     */
+    public int getBlockFrames(int level) {
+        return blockFrames[level];
+    }
+
+    /**
+     * @param level the level
+     * @return the amount of blocks of the level
+     */
+    public int getBlockCount(int level) {
+        return levels[level].length / 3;
+    }
+
+    /**
+     * @return the lowest sample of a block
+     */
+    public short getMin(int level, int block) {
+        return levels[level][3 * block];
+    }
+
+    /**
+     * @return the highest sample of a block
+     */
+    public short getMax(int level, int block) {
+        return levels[level][3 * block + 1];
+    }
+
+    /**
+     * @return the RMS of the samples of a block
+     */
+    public short getRms(int level, int block) {
+        return levels[level][3 * block + 2];
+    }
+
+    /**
+     * Summarizes a part of the recording in {@code buckets} columns, e.g. one per pixel of a view.
+     * Uses the coarsest level whose blocks are not longer than a bucket.
+     * @param startFrame the first frame of the part
+     * @param endFrame the frame after the part
+     * @param buckets the amount of columns
+     * @param min receives the lowest sample of every column, at least {@code buckets} long
+     * @param max receives the highest sample of every column, at least {@code buckets} long
+     * @param rms receives the RMS of every column, at least {@code buckets} long. Can be null.
+     * @return the amount of columns filled, 0 when the part is empty
+     */
+    public int getPeaks(long startFrame, long endFrame, int buckets, @NonNull short[] min, @NonNull short[] max, short[] rms) {
+        startFrame = Math.max(0, startFrame);
+        endFrame = Math.min(frameCount, endFrame);
+        if (buckets < 1 || endFrame <= startFrame || levels[0].length == 0)
+            return 0;
+        double framesPerBucket = (double) (endFrame - startFrame) / buckets;
+
+        int level = 0;
+        while (level + 1 < levels.length && blockFrames[level + 1] <= framesPerBucket)
+            level++;
+        short[] blocks = levels[level];
+        int frames = blockFrames[level];
+        int blockCount = blocks.length / 3;
+
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            long from = startFrame + (long) (bucket * framesPerBucket);
+            long to = startFrame + (long) ((bucket + 1) * framesPerBucket);
+            int first = (int) Math.min(blockCount - 1, from / frames);
+            // At least the block that contains the start, when zoomed in further than level 0
+            int last = (int) Math.min(blockCount, Math.max(first + 1, (to + frames - 1) / frames));
+            int bucketMin = Short.MAX_VALUE;
+            int bucketMax = Short.MIN_VALUE;
+            double sumOfSquares = 0;
+            for (int block = first; block < last; block++) {
+                bucketMin = Math.min(bucketMin, blocks[3 * block]);
+                bucketMax = Math.max(bucketMax, blocks[3 * block + 1]);
+                double blockRms = blocks[3 * block + 2];
+                sumOfSquares += blockRms * blockRms;
+            }
+            min[bucket] = (short) bucketMin;
+            max[bucket] = (short) bucketMax;
+            if (rms != null)
+                rms[bucket] = (short) Math.min(Short.MAX_VALUE, Math.round(Math.sqrt(sumOfSquares / (last - first))));
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,274 @@
+package be.jonaseveraert.jonasutils_android.audio.waveform;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Computes the {@link Waveform waveform} of 16 bit PCM while it is encoded, so the UI doesn't have
+ * to read the audio a second time to draw it.
+ * <p>
+ * Every block of {@code blockFrames} frames is reduced to its minimum, maximum and RMS over all
+ * channels, with a plain loop over the samples that doesn't allocate. When the PCM has ended,
+ * {@link #writeTo writeTo} adds the coarser levels (every level merges {@link #LEVEL_FACTOR LEVEL_FACTOR}
+ * blocks of the level below) and writes everything as a sidecar file, see
+ * {@link Waveform#sidecarFor Waveform.sidecarFor}.
+ * <p>
+ * A builder is not thread safe, it is fed by the thread that encodes.
+ */
+public final class WaveformBuilder {
+    /**
+     * The amount of frames per block of the finest level by default, 16 ms at 16 kHz
+     */
+    public static final int DEFAULT_BLOCK_FRAMES = 256;
+    /**
+     * The amount of blocks of a level that are merged into one block of the next level
+     */
+    public static final int LEVEL_FACTOR = 4;
+
+    private final int samplingRate;
+    private final int channels;
+    private final int blockFrames;
+    private final int blockSamples;
+
+    // The finest level, min, max and RMS per block
+    private short[] blocks = new short[3 * 1024];
+    private int blockCount = 0;
+    private long sampleCount = 0;
+
+    // The block that is being filled
+    private int blockMin = Short.MAX_VALUE;
+    private int blockMax = Short.MIN_VALUE;
+    private long blockSumOfSquares = 0;
+    private int blockFill = 0;
+    /**
+     * The low byte of a sample that was split over two buffers, or -1
+     */
+    private int pendingByte = -1;
+
+    /**
+     * @param samplingRate the sampling rate of the PCM
+     * @param channels the amount of channels of the PCM
+     */
+    public WaveformBuilder(int samplingRate, int channels) {
+        this(samplingRate, channels, DEFAULT_BLOCK_FRAMES);
+    }
+
+    /**
+     * @param samplingRate the sampling rate of the PCM
+     * @param channels the amount of channels of the PCM
+     * @param blockFrames the amount of frames per block of the finest level
+     */
+    public WaveformBuilder(int samplingRate, int channels, int blockFrames) {
+        if (samplingRate < 1 || channels < 1 || blockFrames < 1)
+            throw new IllegalArgumentException("Invalid format: " + samplingRate + " Hz, " + channels + " channels, " + blockFrames + " frames per block");
+        this.samplingRate = samplingRate;
+        this.channels = channels;
+        this.blockFrames = blockFrames;
+        this.blockSamples = blockFrames * channels;
+    }
+
+    /**
+     * Adds the next PCM to the waveform. The buffer is read with absolute gets: its position and
+     * limit don't change, the byte order is restored afterwards.
+     * @param pcm the buffer with 16 bit little endian PCM
+     * @param offset the index of the first byte of the PCM
+     * @param size the amount of bytes, a sample may be split over two calls
+     */
+    public void accumulate(@NonNull ByteBuffer pcm, int offset, int size) {
+        if (size <= 0)
+            return;
+        int end = offset + size;
+        int i = offset;
+        if (pendingByte != -1) {
+            addSample((short) (pcm.get(i) << 8 | pendingByte));
+            pendingByte = -1;
+            i++;
+        }
+
+        ByteOrder order = pcm.order();
+        pcm.order(ByteOrder.LITTLE_ENDIAN);
+        int min = blockMin;
+        int max = blockMax;
+        long sumOfSquares = blockSumOfSquares;
+        int fill = blockFill;
+        for (; i + 1 < end; i += 2) {
+            int sample = pcm.getShort(i);
+            if (sample < min)
+                min = sample;
+            if (sample > max)
+                max = sample;
+            sumOfSquares += sample * sample;
+            if (++fill == blockSamples) {
+                addBlock(min, max, sumOfSquares, fill);
+                min = Short.MAX_VALUE;
+                max = Short.MIN_VALUE;
+                sumOfSquares = 0;
+                fill = 0;
+            }
+        }
+        pcm.order(order);
+        sampleCount += (i - offset) / 2;
+        blockMin = min;
+        blockMax = max;
+        blockSumOfSquares = sumOfSquares;
+        blockFill = fill;
+
+        if (i < end)
+            pendingByte = pcm.get(i) & 0xFF;
+    }
+
+    private void addSample(short sample) {
+        blockMin = Math.min(blockMin, sample);
+        blockMax = Math.max(blockMax, sample);
+        blockSumOfSquares += sample * sample;
+        sampleCount++;
+        if (++blockFill == blockSamples) {
+            addBlock(blockMin, blockMax, blockSumOfSquares, blockFill);
+            blockMin = Short.MAX_VALUE;
+            blockMax = Short.MIN_VALUE;
+            blockSumOfSquares = 0;
+            blockFill = 0;
+        }
+    }
+
+    /**
+     * Adds a waveform built before, e.g. of the previous segment of the same recording, as if its
+     * PCM was accumulated. Its finest blocks are merged into the blocks of this builder; a block
+     * that ends up in two blocks of this builder counts for both, its RMS weighted by the frames in
+     * each.
+     * @param waveform the waveform, with the same sampling rate and amount of channels
+     */
+    public void append(@NonNull Waveform waveform) {
+        if (waveform.getSamplingRate() != samplingRate || waveform.getChannels() != channels)
+            throw new IllegalArgumentException("Can't append a waveform of " + waveform.getSamplingRate() + " Hz, "
+                    + waveform.getChannels() + " channels to one of " + samplingRate + " Hz, " + channels + " channels");
+        if (pendingByte != -1)
+            throw new IllegalStateException("The last sample that was accumulated is incomplete");
+        int frames = waveform.getBlockFrames(0);
+        long remainingFrames = waveform.getFrameCount();
+        for (int block = 0; block < waveform.getBlockCount(0) && remainingFrames > 0; block++) {
+            long samples = Math.min(frames, remainingFrames) * channels;
+            remainingFrames -= frames;
+            short min = waveform.getMin(0, block);
+            short max = waveform.getMax(0, block);
+            double rms = waveform.getRms(0, block);
+            while (samples > 0) {
+                int count = (int) Math.min(samples, blockSamples - blockFill);
+                blockMin = Math.min(blockMin, min);
+                blockMax = Math.max(blockMax, max);
+                blockSumOfSquares += Math.round(rms * rms * count);
+                blockFill += count;
+                sampleCount += count;
+                samples -= count;
+                if (blockFill == blockSamples) {
+                    addBlock(blockMin, blockMax, blockSumOfSquares, blockFill);
+                    blockMin = Short.MAX_VALUE;
+                    blockMax = Short.MIN_VALUE;
+                    blockSumOfSquares = 0;
+                    blockFill = 0;
+                }
+            }
+        }
+    }
+
+    private void addBlock(int min, int max, long sumOfSquares, int samples) {
+        if (3 * blockCount + 3 > blocks.length)
+            blocks = Arrays.copyOf(blocks, blocks.length * 2);
+        int i = 3 * blockCount;
+        blocks[i] = (short) min;
+        blocks[i + 1] = (short) max;
+        blocks[i + 2] = rms((double) sumOfSquares / samples);
+        blockCount++;
+    }
+
+    private static short rms(double meanSquare) {
+        return (short) Math.min(Short.MAX_VALUE, Math.round(Math.sqrt(meanSquare)));
+    }
+
+    /**
+     * @return the amount of frames added so far
+     */
+    public long getFrameCount() {
+        return sampleCount / channels;
+    }
+
+    /**
+     * Ends the last block and builds the waveform with all its levels. The builder can't be fed
+     * afterwards.
+     * @return the waveform of the PCM
+     */
+    public Waveform build() {
+        if (blockFill > 0) {
+            addBlock(blockMin, blockMax, blockSumOfSquares, blockFill);
+            blockFill = 0;
+        }
+        long frameCount = getFrameCount();
+
+        int levelCount = 1;
+        for (long count = blockCount; count > 1; count = (count + LEVEL_FACTOR - 1) / LEVEL_FACTOR)
+            levelCount++;
+        int[] levelBlockFrames = new int[levelCount];
+        short[][] levels = new short[levelCount][];
+        levelBlockFrames[0] = blockFrames;
+        levels[0] = Arrays.copyOf(blocks, 3 * blockCount);
+        for (int level = 1; level < levelCount; level++) {
+            levelBlockFrames[level] = levelBlockFrames[level - 1] * LEVEL_FACTOR;
+            levels[level] = mergeLevel(levels[level - 1], levelBlockFrames[level - 1], frameCount);
+        }
+        return new Waveform(samplingRate, channels, frameCount, levelBlockFrames, levels);
+    }
+
+    /**
+     * Merges every {@link #LEVEL_FACTOR LEVEL_FACTOR} blocks of a level. The RMS of the merged
+     * block is weighted by the amount of frames of each block, the last block can be shorter.
+     */
+    private static short[] mergeLevel(short[] finer, int finerBlockFrames, long frameCount) {
+        int finerCount = finer.length / 3;
+        int count = (finerCount + LEVEL_FACTOR - 1) / LEVEL_FACTOR;
+        short[] merged = new short[3 * count];
+        for (int block = 0; block < count; block++) {
+            int min = Short.MAX_VALUE;
+            int max = Short.MIN_VALUE;
+            double sumOfSquares = 0;
+            long frames = 0;
+            int last = Math.min(finerCount, (block + 1) * LEVEL_FACTOR);
+            for (int child = block * LEVEL_FACTOR; child < last; child++) {
+                min = Math.min(min, finer[3 * child]);
+                max = Math.max(max, finer[3 * child + 1]);
+                long childFrames = Math.max(1, Math.min(finerBlockFrames, frameCount - (long) child * finerBlockFrames));
+                double rms = finer[3 * child + 2];
+                sumOfSquares += rms * rms * childFrames;
+                frames += childFrames;
+            }
+            merged[3 * block] = (short) min;
+            merged[3 * block + 1] = (short) max;
+            merged[3 * block + 2] = rms(sumOfSquares / frames);
+        }
+        return merged;
+    }
+
+    /**
+     * {@link #build() Builds} the waveform and writes it to a sidecar file
+     * @param sidecar the file, e.g. {@link Waveform#sidecarFor Waveform.sidecarFor(outputFile)}. It
+     *                is replaced when it exists.
+     * @return the waveform
+     * @throws IOException When an I/O Exception occurs
+     */
+    public Waveform writeTo(@NonNull File sidecar) throws IOException {
+        Waveform waveform = build();
+        ByteBuffer buffer = waveform.toBinary();
+        try (FileOutputStream out = new FileOutputStream(sidecar)) {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        return waveform;
+    }
+}
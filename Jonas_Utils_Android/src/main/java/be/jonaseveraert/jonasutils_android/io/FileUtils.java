@@ -14,9 +14,35 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import be.jonaseveraert.jonasutils_android.progressBar.ProgressNode;
 
 // TODO: in Jonas' utils for Android
 public abstract class FileUtils {
+    /**
+     * The most bytes copied by one {@link FileChannel#transferTo transferTo} call, so the progress
+     * is reported regularly
+     */
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+    /**
+     * The size of the buffer used when the channels can't transfer directly
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Gets notified of the progress of a copy
+     */
+    public interface CopyListener {
+        /**
+         * Called on the copying thread after every chunk
+         * @param bytesCopied the amount of bytes copied so far
+         * @param totalBytes the size of the source when the copy started
+         */
+        void onProgress(long bytesCopied, long totalBytes);
+    }
+
     /**
      * Creates a tempfile from a resource
      * @param context the context from which the method is executed
@@ -27,6 +53,7 @@ public abstract class FileUtils {
      *      file, does not exist but cannot be created, or cannot be opened for any other reason
      * @throws IOException if an I/O error occurs
      * @implNote Don't forget to call {@code file.delete()} or {@code file.deleteOnExit()}
+     * @see RawResourceCache RawResourceCache, which extracts a resource only once
      */
     public static File rawResourceToTempFile(Context context, int id, @Nullable String filename) throws FileNotFoundException, IOException {
         InputStream is = context.getResources().openRawResource(id);
@@ -46,16 +73,97 @@ public abstract class FileUtils {
         return file;
     }
 
+    /**
+     * Copies a file, replacing {@code dst} if it exists
+     * @param src the file to copy
+     * @param dst the copy
+     * @throws IOException if an I/O error occurs
+     */
     public static void copyTo(File src, File dst) throws IOException {
-        try (InputStream in = new FileInputStream(src)) {
-            try (OutputStream out = new FileOutputStream(dst)) {
-                // Transfer bytes from in to out
-                byte[] buf = new byte[1024];
-                int len;
-                while ((len = in.read(buf)) > 0) {
-                    out.write(buf, 0, len);
-                }
+        copyTo(src, dst, null, false);
+    }
+
+    /**
+     * Copies a file, replacing {@code dst} if it exists. The bytes are moved with
+     * {@link FileChannel#transferTo FileChannel.transferTo}, which lets the kernel copy them without
+     * passing through the app where it can, otherwise through a direct buffer.
+     * @param src the file to copy
+     * @param dst the copy
+     * @param listener gets notified of the progress, can be null
+     * @param durable if true, the copy is written to a temporary file next to {@code dst}, synced
+     *                to the storage device and then renamed to {@code dst}. {@code dst} is then
+     *                either the old file or the complete copy, never a partial one, even when the
+     *                app or device dies during the copy. The directory isn't synced, so after a
+     *                power loss the rename itself can be lost and {@code dst} be the old file. Of
+     *                concurrent durable copies to the same {@code dst}, the last one to finish wins.
+     * @throws IOException if an I/O error occurs
+     */
+    public static void copyTo(@NonNull File src, @NonNull File dst, @Nullable CopyListener listener, boolean durable) throws IOException {
+        // A unique temporary file, so durable copies to the same dst don't write into each other
+        File target = durable ? File.createTempFile("." + dst.getName() + "-", ".part", dst.getAbsoluteFile().getParentFile()) : dst;
+        boolean copied = false;
+        try {
+            try (FileInputStream in = new FileInputStream(src);
+                 FileOutputStream out = new FileOutputStream(target)) {
+                copy(in.getChannel(), out.getChannel(), listener);
+                if (durable)
+                    out.getChannel().force(true);
             }
+            if (durable && !target.renameTo(dst))
+                throw new IOException("Could not rename " + target + " to " + dst);
+            copied = true;
+        } finally {
+            if (durable && !copied)
+                target.delete();
+        }
+    }
+
+    /**
+     * Copies {@code in} to {@code out} with {@link FileChannel#transferTo transferTo}, and with a
+     * buffer from where {@code transferTo} stops. Package-private so the tests can use a channel
+     * that can't transfer.
+     */
+    static void copy(FileChannel in, FileChannel out, CopyListener listener) throws IOException {
+        long size = in.size();
+        long position = 0;
+        while (position < size) {
+            long transferred = in.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), out);
+            if (transferred <= 0)
+                break; // Not supported between these files, or the source shrank
+            position += transferred;
+            if (listener != null)
+                listener.onProgress(position, size);
         }
+        if (position >= size)
+            return;
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long reported = position;
+        int read;
+        while ((read = in.read(buffer, position)) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                out.write(buffer);
+            buffer.clear();
+            position += read;
+            if (listener != null && (position - reported >= TRANSFER_CHUNK_SIZE || position >= size)) {
+                listener.onProgress(position, size);
+                reported = position;
+            }
+        }
+    }
+
+    /**
+     * @param node the leaf that shows the progress of a copy, e.g. a node of
+     *             {@link be.jonaseveraert.jonasutils_android.progressBar.ProgressBarHandler#getProgressTree() ProgressBarHandler.getProgressTree}
+     * @return a listener that sets the progress of {@code node}
+     */
+    public static CopyListener progressListener(@NonNull final ProgressNode node) {
+        return new CopyListener() {
+            @Override
+            public void onProgress(long bytesCopied, long totalBytes) {
+                node.setProgress(totalBytes == 0 ? 1 : (double) bytesCopied / totalBytes);
+            }
+        };
     }
 }
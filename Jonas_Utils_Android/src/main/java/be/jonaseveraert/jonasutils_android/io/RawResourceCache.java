@@ -0,0 +1,372 @@
+package be.jonaseveraert.jonasutils_android.io;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import static android.content.ContentValues.TAG;
+
+/**
+ * Extracts raw resources to files once and keeps them, instead of copying a resource to a new temp
+ * file on every access like {@link FileUtils#rawResourceToTempFile FileUtils.rawResourceToTempFile}.
+ * <p>
+ * The files are kept in a directory per app version, so an update never serves an old resource;
+ * the directories of other versions are deleted when the cache is opened. A file is named after
+ * the resource id and the CRC32 of its content. When the files take up more than the disk budget,
+ * the least recently used ones are deleted.
+ * <p>
+ * The cache is thread safe. When several threads ask for the same resource at once, it is
+ * extracted once and the other threads wait for it. A file can be evicted (or {@link #clear cleared})
+ * at any time, so read resources with {@link #openStream openStream}, {@link #readBytes readBytes}
+ * or {@link #map map}: they open the file while it is still in the cache, and an open file stays
+ * readable after it is deleted.
+ * <p>
+ * There is one cache per process, see {@link #getDefault getDefault}. It owns its directory: it
+ * deletes the files it doesn't know and keeps all files in it within the budget, so a second
+ * instance on the same directory would delete the files the first one is extracting.
+ */
+public class RawResourceCache {
+    /**
+     * The disk budget of the {@link #getDefault cache}
+     */
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+    private static final String CACHE_DIRECTORY = "raw-resources";
+    private static final Pattern ENTRY_NAME = Pattern.compile("(\\d+)-([0-9a-f]{8})");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static volatile RawResourceCache defaultCache;
+
+    private final Context context;
+    private final File directory;
+    private final long maxBytes;
+
+    // Guarded by this, in access order
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private final ConcurrentHashMap<Integer, FutureTask<File>> extractions = new ConcurrentHashMap<>();
+
+    /**
+     * An extracted file, with its size when it was added
+     */
+    private static final class Entry {
+        final File file;
+        final long size;
+
+        Entry(File file) {
+            this.file = file;
+            this.size = file.length();
+        }
+    }
+
+    /**
+     * Opens the cache in the cache directory of the app, reusing the files extracted before by the
+     * same version of the app
+     * @param context the context from which the method is executed
+     * @param maxBytes the disk budget, the least recently used files are deleted beyond it. The
+     *                 file that was just extracted is always kept.
+     */
+    private RawResourceCache(@NonNull Context context, long maxBytes) {
+        this.context = context.getApplicationContext();
+        this.maxBytes = maxBytes;
+        File root = new File(context.getCacheDir(), CACHE_DIRECTORY);
+        String version = getAppVersion(context);
+        this.directory = new File(root, version);
+
+        File[] versions = root.listFiles();
+        if (versions != null) {
+            for (File old : versions) {
+                if (!old.getName().equals(version))
+                    deleteTree(old);
+            }
+        }
+        if (!directory.isDirectory() && !directory.mkdirs())
+            Log.w(TAG, "Could not create " + directory);
+        loadEntries();
+    }
+
+    /**
+     * @param context the context from which the method is executed
+     * @return the process-wide cache, with a budget of {@link #DEFAULT_MAX_BYTES DEFAULT_MAX_BYTES}.
+     * It is the only instance, it is created on the first call.
+     */
+    public static RawResourceCache getDefault(@NonNull Context context) {
+        RawResourceCache result = defaultCache;
+        if (result == null) {
+            synchronized (RawResourceCache.class) {
+                result = defaultCache;
+                if (result == null) {
+                    result = new RawResourceCache(context, DEFAULT_MAX_BYTES);
+                    defaultCache = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String getAppVersion(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            // The update time also changes when a debug build is reinstalled with the same version
+            return info.versionCode + "-" + info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Adds the files extracted by an earlier process, oldest first
+     */
+    private void loadEntries() {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long modifiedA = a.lastModified();
+                long modifiedB = b.lastModified();
+                return modifiedA < modifiedB ? -1 : modifiedA == modifiedB ? 0 : 1;
+            }
+        });
+        synchronized (this) {
+            for (File file : files) {
+                Matcher matcher = ENTRY_NAME.matcher(file.getName());
+                if (!matcher.matches()) {
+                    file.delete(); // Left behind by an extraction that didn't finish
+                    continue;
+                }
+                int id = Integer.parseInt(matcher.group(1));
+                Entry entry = new Entry(file);
+                Entry previous = entries.put(id, entry);
+                if (previous != null) {
+                    totalBytes -= previous.size;
+                    previous.file.delete();
+                }
+                totalBytes += entry.size;
+            }
+        }
+    }
+
+    /**
+     * Returns the extracted file of a resource, extracting it if this is the first access. The file
+     * may not be changed or deleted.
+     * <p>
+     * The file is deleted when it is evicted to make room for another resource or when the cache is
+     * {@link #clear cleared}, which can happen before the caller opens it. Use
+     * {@link #openStream openStream}, {@link #readBytes readBytes} or {@link #map map} to read it.
+     * @param id the resource id
+     * @return the file with the content of the resource, it can disappear at any time
+     * @throws IOException if an I/O error occurs
+     */
+    public File getFile(final int id) throws IOException {
+        File file = getEntry(id);
+        if (file != null)
+            return file;
+
+        FutureTask<File> extraction = new FutureTask<>(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                // Another thread may have extracted it between the first check and now
+                File extracted = getEntry(id);
+                return extracted != null ? extracted : extract(id);
+            }
+        });
+        FutureTask<File> running = extractions.putIfAbsent(id, extraction);
+        if (running == null) {
+            running = extraction;
+            extraction.run();
+        }
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for resource " + id);
+        } finally {
+            if (running == extraction)
+                extractions.remove(id, extraction);
+        }
+    }
+
+    /**
+     * Opens the extracted file of a resource
+     * @param id the resource id
+     * @return a stream of the content, has to be closed
+     * @throws IOException if an I/O error occurs
+     */
+    public InputStream openStream(int id) throws IOException {
+        return open(id);
+    }
+
+    /**
+     * Reads a resource into memory
+     * @param id the resource id
+     * @return a heap buffer with the content
+     * @throws IOException if an I/O error occurs
+     */
+    public ByteBuffer readBytes(int id) throws IOException {
+        try (FileInputStream in = open(id)) {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // Read until the buffer is full
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Memory-maps the extracted file of a resource. The mapping stays valid when the file is evicted.
+     * @param id the resource id
+     * @return a read-only buffer with the content
+     * @throws IOException if an I/O error occurs
+     */
+    public MappedByteBuffer map(int id) throws IOException {
+        try (FileInputStream in = open(id)) {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Opens the extracted file of a resource while it is in the cache, so it can't be evicted
+     * between {@link #getFile getFile} and opening it. It is extracted again if it was.
+     */
+    private FileInputStream open(int id) throws IOException {
+        while (true) {
+            File file = getFile(id);
+            synchronized (this) {
+                Entry entry = entries.get(id);
+                if (entry != null && entry.file.equals(file)) {
+                    try {
+                        return new FileInputStream(file);
+                    } catch (FileNotFoundException e) {
+                        // Deleted behind our back, extract it again
+                        entries.remove(id);
+                        totalBytes -= entry.size;
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized File getEntry(int id) {
+        Entry entry = entries.get(id);
+        if (entry == null)
+            return null;
+        if (!entry.file.exists()) {
+            // Deleted behind our back, e.g. when the system cleared the cache directory
+            entries.remove(id);
+            totalBytes -= entry.size;
+            return null;
+        }
+        return entry.file;
+    }
+
+    private File extract(int id) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        File temp = File.createTempFile("extract-" + id + "-", ".tmp", directory);
+        CRC32 crc = new CRC32();
+        try {
+            try (InputStream in = context.getResources().openRawResource(id);
+                 FileOutputStream out = new FileOutputStream(temp)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+            File file = new File(directory, id + "-" + String.format("%08x", crc.getValue()));
+            if (!temp.renameTo(file))
+                throw new IOException("Could not rename " + temp + " to " + file);
+            added(id, file);
+            return file;
+        } finally {
+            if (temp.exists())
+                temp.delete();
+        }
+    }
+
+    private synchronized void added(int id, File file) {
+        Entry entry = new Entry(file);
+        Entry previous = entries.put(id, entry);
+        if (previous != null) {
+            totalBytes -= previous.size;
+            if (!previous.file.equals(file))
+                previous.file.delete();
+        }
+        totalBytes += entry.size;
+
+        Iterator<Map.Entry<Integer, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Integer, Entry> eldest = iterator.next();
+            if (eldest.getKey() == id)
+                continue;
+            totalBytes -= eldest.getValue().size;
+            eldest.getValue().file.delete();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return the total size in bytes of the extracted files
+     */
+    public synchronized long getSize() {
+        return totalBytes;
+    }
+
+    /**
+     * Deletes all extracted files
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values())
+            entry.file.delete();
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteTree(child);
+        }
+        file.delete();
+    }
+}
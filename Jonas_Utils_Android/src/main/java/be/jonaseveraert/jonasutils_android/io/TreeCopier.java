@@ -0,0 +1,429 @@
+package be.jonaseveraert.jonasutils_android.io;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.jonaseveraert.jonasutils_android.progressBar.ProgressNode;
+
+import static android.content.ContentValues.TAG;
+
+/**
+ * Copies and moves directory trees with several files at once. Small files are copied on one
+ * bounded pool and large files on another: flash storage is fastest with many small requests in
+ * flight, while a few large sequential copies already use all of its bandwidth. Large files are
+ * copied in chunks (see {@link FileUtils#copyTo(File, File, FileUtils.CopyListener, boolean) FileUtils.copyTo}),
+ * so their progress is reported and a cancel takes effect while they are copied.
+ * <p>
+ * Symbolic links are followed, except a link to a directory that contains it, which would make
+ * the tree endless; it is skipped.
+ * <p>
+ * A copier copies one tree at a time. {@link #cancel() cancel} can be called from any thread.
+ */
+public class TreeCopier {
+    /**
+     * Files of at least this size are copied on the pool for large files
+     */
+    public static final long DEFAULT_LARGE_FILE_THRESHOLD = 4 * 1024 * 1024;
+    private static final int DEFAULT_SMALL_FILE_THREADS = 4;
+    private static final int DEFAULT_LARGE_FILE_THREADS = 2;
+    /**
+     * Time an idle worker thread is kept alive
+     */
+    private static final long KEEP_ALIVE_IN_S = 30;
+
+    private final long largeFileThreshold;
+    private final ThreadPoolExecutor smallFileExecutor;
+    private final ThreadPoolExecutor largeFileExecutor;
+    private final List<Future<Void>> futures = new ArrayList<>();
+    private volatile ProgressNode progressTree;
+    private volatile boolean durable = false;
+    /**
+     * Set by {@link #cancel() cancel}, reset when a copy or move ends, so a cancel that comes in
+     * before the operation started still stops it
+     */
+    private volatile boolean cancelled = false;
+
+    private final AtomicLong bytesCopied = new AtomicLong();
+    private final AtomicInteger filesCopied = new AtomicInteger();
+    private volatile long totalBytes = 0;
+    private volatile int totalFiles = 0;
+    private volatile long startNanos = 0;
+    private volatile long endNanos = 0;
+
+    /**
+     * Creates a copier with 4 threads for small files and 2 for large files
+     */
+    public TreeCopier() {
+        this(DEFAULT_SMALL_FILE_THREADS, DEFAULT_LARGE_FILE_THREADS, DEFAULT_LARGE_FILE_THRESHOLD);
+    }
+
+    /**
+     * @param smallFileThreads the maximum amount of small files copied at the same time
+     * @param largeFileThreads the maximum amount of large files copied at the same time
+     * @param largeFileThreshold the size in bytes from which a file is large
+     */
+    public TreeCopier(int smallFileThreads, int largeFileThreads, long largeFileThreshold) {
+        if (smallFileThreads < 1 || largeFileThreads < 1)
+            throw new IllegalArgumentException("Both pools need at least 1 thread, were " + smallFileThreads + " and " + largeFileThreads);
+        this.largeFileThreshold = largeFileThreshold;
+        this.smallFileExecutor = createExecutor(smallFileThreads);
+        this.largeFileExecutor = createExecutor(largeFileThreads);
+    }
+
+    private ThreadPoolExecutor createExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_IN_S, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), workerFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Lets every copy report its progress to a {@link ProgressNode progress tree}. A copy adds a
+     * child to {@code progressTree} weighted by the size of the tree.
+     * @param progressTree the parent of the copies' nodes (e.g. a node of
+     *                     {@link be.jonaseveraert.jonasutils_android.progressBar.ProgressBarHandler#getProgressTree() ProgressBarHandler.getProgressTree()}),
+     *                     or null to not report progress
+     */
+    public void setProgressTree(ProgressNode progressTree) {
+        this.progressTree = progressTree;
+    }
+
+    /**
+     * @param durable if true, every file is synced and renamed into place, see
+     *                {@link FileUtils#copyTo(File, File, FileUtils.CopyListener, boolean) FileUtils.copyTo}
+     */
+    public void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+
+    /**
+     * Copies a directory and everything in it, replacing files that already exist in {@code target}.
+     * Blocks until all files are copied.
+     * @param source the directory to copy
+     * @param target the copy, created if it doesn't exist
+     * @throws CopyCancelledException when the copy was {@link #cancel() cancelled}. The files copied
+     * so far are kept.
+     * @throws IOException if an I/O error occurs. The other copies are stopped.
+     */
+    public void copyTree(@NonNull File source, @NonNull File target) throws IOException {
+        copy(source, target);
+    }
+
+    /**
+     * Moves a directory and everything in it. On the same volume the directory is just renamed,
+     * otherwise it is copied and the source is deleted once every file was copied.
+     * @param source the directory to move
+     * @param target the new location, may not exist yet
+     * @throws CopyCancelledException when the move was {@link #cancel() cancelled}. The source is
+     * left untouched, what was copied to {@code target} is deleted.
+     * @throws IOException if an I/O error occurs or {@code target} exists. The source is left
+     * untouched, what was copied to {@code target} is deleted.
+     */
+    public void moveTree(@NonNull File source, @NonNull File target) throws IOException {
+        if (target.exists())
+            throw new IOException(target + " already exists");
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Could not create " + parent);
+
+        if (cancelled) {
+            cancelled = false;
+            throw new CopyCancelledException();
+        }
+        if (rename(source, target)) {
+            cancelled = false; // Too late, the move is done
+            ProgressNode tree = progressTree;
+            if (tree != null)
+                tree.addChild(source.getName(), 1).complete();
+            return;
+        }
+
+        // Another volume
+        boolean copied = false;
+        try {
+            copy(source, target);
+            copied = true;
+        } finally {
+            // The target didn't exist, don't leave a partial copy or the empty directories behind
+            if (!copied) {
+                try {
+                    deleteTree(target);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not delete the partial move to " + target, e);
+                }
+            }
+        }
+        deleteTree(source);
+    }
+
+    /**
+     * Renames {@code source} to {@code target}, which only works on the same volume. Package-private
+     * so the tests can move across volumes.
+     * @return whether the rename succeeded
+     */
+    boolean rename(File source, File target) {
+        return source.renameTo(target);
+    }
+
+    private void copy(File source, File target) throws IOException {
+        try {
+            copyFiles(source, target);
+        } finally {
+            // A cancel that comes in from now on is meant for the next copy
+            cancelled = false;
+        }
+    }
+
+    private void copyFiles(File source, File target) throws IOException {
+        if (!source.isDirectory())
+            throw new IOException(source + " is not a directory");
+        if (cancelled)
+            throw new CopyCancelledException();
+        bytesCopied.set(0);
+        filesCopied.set(0);
+        startNanos = System.nanoTime();
+        endNanos = 0;
+
+        List<File> sources = new ArrayList<>();
+        List<File> targets = new ArrayList<>();
+        long bytes = walk(source, target, sources, targets, new HashSet<String>());
+        totalBytes = bytes;
+        totalFiles = sources.size();
+
+        ProgressNode tree = progressTree;
+        ProgressNode progress = tree != null ? tree.addChild(source.getName(), Math.max(1, bytes)) : null;
+        try {
+            List<Future<Void>> copies = new ArrayList<>(sources.size());
+            synchronized (futures) {
+                for (int i = 0; i < sources.size(); i++) {
+                    File file = sources.get(i);
+                    boolean large = file.length() >= largeFileThreshold;
+                    copies.add((large ? largeFileExecutor : smallFileExecutor).submit(copyTask(file, targets.get(i), large, progress)));
+                }
+                futures.addAll(copies);
+            }
+            awaitAll(copies);
+        } finally {
+            synchronized (futures) {
+                futures.clear();
+            }
+            if (progress != null)
+                progress.complete();
+            endNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Creates the directories of the target tree and lists the files to copy
+     * @param ancestors the canonical paths of the directories that contain {@code source}
+     * @return the total size of the files
+     */
+    private static long walk(File source, File target, List<File> sources, List<File> targets, Set<String> ancestors) throws IOException {
+        String path = source.getCanonicalPath();
+        if (!ancestors.add(path)) {
+            Log.w(TAG, "Skipping " + source + ", a link to a directory that contains it");
+            return 0;
+        }
+        if (!target.isDirectory() && !target.mkdirs())
+            throw new IOException("Could not create " + target);
+        File[] children = source.listFiles();
+        if (children == null)
+            throw new IOException("Could not list " + source);
+        long bytes = 0;
+        for (File child : children) {
+            File childTarget = new File(target, child.getName());
+            if (child.isDirectory()) {
+                bytes += walk(child, childTarget, sources, targets, ancestors);
+            } else {
+                sources.add(child);
+                targets.add(childTarget);
+                bytes += child.length();
+            }
+        }
+        ancestors.remove(path);
+        return bytes;
+    }
+
+    private Callable<Void> copyTask(final File source, final File target, final boolean large, final ProgressNode progress) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if (cancelled)
+                    throw new CopyCancelledException();
+                if (!large) {
+                    FileUtils.copyTo(source, target, null, durable);
+                    copied(source.length(), progress);
+                } else {
+                    try {
+                        FileUtils.copyTo(source, target, new FileUtils.CopyListener() {
+                            private long reported = 0;
+
+                            @Override
+                            public void onProgress(long bytesCopied, long totalBytes) {
+                                if (cancelled)
+                                    throw new CancellationException();
+                                copied(bytesCopied - reported, progress);
+                                reported = bytesCopied;
+                            }
+                        }, durable);
+                    } catch (CancellationException e) {
+                        throw new CopyCancelledException("Cancelled while copying " + source);
+                    }
+                }
+                filesCopied.incrementAndGet();
+                return null;
+            }
+        };
+    }
+
+    private void copied(long bytes, ProgressNode progress) {
+        bytesCopied.addAndGet(bytes);
+        if (progress != null)
+            progress.advance(bytes);
+    }
+
+    private void awaitAll(List<Future<Void>> copies) throws IOException {
+        IOException failure = null;
+        for (Future<Void> copy : copies) {
+            try {
+                copy.get();
+            } catch (ExecutionException e) {
+                if (failure == null && !(e.getCause() instanceof CopyCancelledException)) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                    cancel(); // No use copying the rest
+                }
+            } catch (CancellationException e) {
+                // Cancelled before it started
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while copying");
+            }
+        }
+        if (failure != null)
+            throw failure;
+        if (cancelled)
+            throw new CopyCancelledException();
+    }
+
+    /**
+     * Deletes a tree. A link is deleted itself, what it points to is kept.
+     */
+    private static void deleteTree(File file) throws IOException {
+        File[] children = isSymlink(file) ? null : file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteTree(child);
+        }
+        if (!file.delete() && file.exists())
+            throw new IOException("Could not delete " + file);
+    }
+
+    /**
+     * @return whether {@code file} is a symbolic link. Its parent directories may be links too.
+     */
+    private static boolean isSymlink(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent == null)
+            return false;
+        File inCanonicalParent = new File(parent.getCanonicalFile(), file.getName());
+        return !inCanonicalParent.getCanonicalFile().equals(inCanonicalParent.getAbsoluteFile());
+    }
+
+    /**
+     * Cancels the current copy or move. Files that are being copied are stopped after their current
+     * chunk, files that were not started are skipped. When no copy or move is running, the next one
+     * is cancelled.
+     */
+    public void cancel() {
+        cancelled = true;
+        synchronized (futures) {
+            for (Future<Void> future : futures)
+                future.cancel(false);
+        }
+    }
+
+    /**
+     * Cancels the current copy and stops the worker threads. The copier can't be used afterwards.
+     */
+    public void shutdown() {
+        cancel();
+        smallFileExecutor.shutdownNow();
+        largeFileExecutor.shutdownNow();
+    }
+
+    /**
+     * @return the amount of bytes copied by the current or last copy
+     */
+    public long getBytesCopied() {
+        return bytesCopied.get();
+    }
+
+    /**
+     * @return the size in bytes of all files of the current or last copy
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the amount of files copied by the current or last copy
+     */
+    public int getFilesCopied() {
+        return filesCopied.get();
+    }
+
+    /**
+     * @return the amount of files of the current or last copy
+     */
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    /**
+     * @return the throughput of the current or last copy in bytes per second
+     */
+    public double getThroughput() {
+        long start = startNanos;
+        if (start == 0)
+            return 0;
+        long end = endNanos;
+        long nanos = (end != 0 ? end : System.nanoTime()) - start;
+        return nanos <= 0 ? 0 : bytesCopied.get() * 1_000_000_000.0 / nanos;
+    }
+
+    private final ThreadFactory workerFactory = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "TreeCopier-" + count.incrementAndGet());
+        }
+    };
+}
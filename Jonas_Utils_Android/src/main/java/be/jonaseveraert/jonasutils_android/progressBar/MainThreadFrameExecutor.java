@@ -0,0 +1,37 @@
+package be.jonaseveraert.jonasutils_android.progressBar;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks on the main thread at the start of the next frame, which is when a view update
+ * becomes visible anyway. Used by {@link ProgressBarHandler ProgressBarHandler} to draw its
+ * coalesced progress.
+ */
+public class MainThreadFrameExecutor implements Executor {
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void execute(final Runnable command) {
+        final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                command.run();
+            }
+        };
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        } else {
+            // The Choreographer belongs to the main thread, so it has to be used there
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Choreographer.getInstance().postFrameCallback(frameCallback);
+                }
+            });
+        }
+    }
+}
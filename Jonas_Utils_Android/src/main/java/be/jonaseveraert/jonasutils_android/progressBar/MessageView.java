@@ -0,0 +1,10 @@
+package be.jonaseveraert.jonasutils_android.progressBar;
+
+/**
+ * Shows the text of a {@link ProgressBarHandler ProgressBarHandler}: the current sub-process or
+ * message, the percentage and the estimated time remaining. Implemented by {@link TextViewMessageView TextViewMessageView}
+ * for an Android {@link android.widget.TextView TextView}.
+ */
+public interface MessageView {
+    void setMessage(CharSequence message);
+}
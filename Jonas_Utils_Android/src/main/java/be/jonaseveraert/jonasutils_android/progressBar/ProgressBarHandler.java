@@ -1,12 +1,45 @@
 package be.jonaseveraert.jonasutils_android.progressBar;
 
 import android.widget.ProgressBar;
+import android.widget.TextView;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link be.jonaseveraert.util.progressBar.ProgressBarHandler ProgressBarHandler} for Android.
+ * <p>
+ * The progress can be reported from any number of threads at once (e.g. parallel conversions).
+ * It is kept in an atomic fixed point counter, so reporting never locks and never touches the view.
+ * The view is updated on the main thread, at most once per frame, with the latest progress.
+ * Every draw also samples the progress for an estimate of the rate and the time remaining, which
+ * are shown on the optional {@link MessageView MessageView} with the current sub-process or message.
+ * The sub-processes and activities have to be configured before {@link #startProgressBar() startProgressBar}
+ * is called.
+ */
 public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.ProgressBarHandler {
+    /**
+     * The amount of units in one percent of {@link #progress progress}
+     */
+    private static final long PROGRESS_SCALE = 1000000L;
+    /**
+     * The time constant of the rate estimate
+     */
+    private static final long RATE_TIME_CONSTANT_MS = 5000;
+
     /**
      * The visible element of the progress bar.
      */
-    private final ProgressBar pb;
+    private final ProgressView pb;
+    /**
+     * Runs {@link #drawProgress drawProgress} on the thread that owns the view
+     */
+    private final Executor uiExecutor;
+    /**
+     * Shows the sub-process or message and the estimated time remaining, can be null
+     */
+    private volatile MessageView messageView;
 
     /**
      * The progressbar will be divided into {@link #numSubProcesses numSubProcesses} equal parts
@@ -20,14 +53,82 @@ public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.Pro
     /**
      * The description of the sub process (e.g. Writing file) and the state (e.g. busy or done)
      */
-    private Object[] subProcessInfo = new Object[numSubProcesses];
+    private SubProcessInfo[] subProcessInfo = new SubProcessInfo[numSubProcesses];
+
+    private static final class SubProcessInfo {
+        final String name;
+        final int state;
+
+        SubProcessInfo(String name, int state) {
+            this.name = name;
+            this.state = state;
+        }
+    }
+    /**
+     * Indicates the percentage the progress bar was already completed, in units of 1 / {@link #PROGRESS_SCALE PROGRESS_SCALE} percent
+     */
+    private final AtomicLong progress = new AtomicLong();
+
+    /**
+     * The current sub-process in the high 32 bits and the amount of activities completed in it in
+     * the low 32 bits, so both change in one compare-and-set
+     */
+    private final AtomicLong subProcessState = new AtomicLong();
+
+    /**
+     * Whether {@link #drawProgress drawProgress} is waiting to run, all changes made until then are drawn at once
+     */
+    private final AtomicBoolean drawScheduled = new AtomicBoolean(false);
+    /**
+     * The percentage the view shows
+     */
+    private volatile int shownProgress = 0;
+    /**
+     * Only sampled on the thread of the view
+     */
+    private final RateEstimator rateEstimator = new RateEstimator(RATE_TIME_CONSTANT_MS);
     /**
-     * Indicates the percentage the progress bar was already completed
+     * The text of the current sub-process, e.g. "Writing file..."
      */
-    private double progress = 0;
+    private volatile String subProcessText;
+    /**
+     * Set by {@link #setMessage setMessage}, shown instead of the sub-process text
+     */
+    private volatile String message;
+    private volatile boolean resetRate = false;
+    /**
+     * Only used on the thread of the view
+     */
+    private final StringBuilder messageBuilder = new StringBuilder();
+    /**
+     * The weighted progress tree, shown on the bar once it is used
+     */
+    private final ProgressNode progressTree = new ProgressNode("", new ProgressNode.Listener() {
+        @Override
+        public void onProgressChanged(ProgressNode root) {
+            scheduleDraw(false);
+        }
+    });
+    private volatile boolean progressTreeUsed = false;
+    private final Runnable drawProgress = new Runnable() {
+        @Override
+        public void run() {
+            // Changes made from here on schedule a new draw
+            drawScheduled.set(false);
+            double percentage = getProgress();
+            shownProgress = (int) percentage;
+            pb.setProgress(shownProgress);
 
-    private int currentSubProcess = 0;
-    private int numActivitiesCompleted = 0;
+            if (resetRate) {
+                resetRate = false;
+                rateEstimator.reset();
+            }
+            rateEstimator.sample(percentage, System.nanoTime());
+            MessageView messageView = ProgressBarHandler.this.messageView;
+            if (messageView != null)
+                messageView.setMessage(buildMessage(percentage));
+        }
+    };
 
     /**
      * Creates a new instance of a {@link be.jonaseveraert.util.progressBar.ProgressBarHandler ProgressssBarHandler}
@@ -35,10 +136,51 @@ public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.Pro
      * @param pb The progressbar
      */
     public ProgressBarHandler(ProgressBar pb) {
+        this(new ProgressBarView(pb));
+    }
+
+    /**
+     * Creates a new instance of a {@link be.jonaseveraert.util.progressBar.ProgressBarHandler ProgressssBarHandler}
+     * that can handle any {@link ProgressView ProgressView}.
+     * @param pb The view showing the progress
+     */
+    public ProgressBarHandler(ProgressView pb) {
+        this(pb, new MainThreadFrameExecutor());
+    }
+
+    /**
+     * Creates a new instance of a {@link be.jonaseveraert.util.progressBar.ProgressBarHandler ProgressssBarHandler}
+     * that updates the {@link ProgressView ProgressView} through {@code uiExecutor}.
+     * @param pb The view showing the progress
+     * @param uiExecutor runs the updates of the view on the thread the view belongs to
+     */
+    public ProgressBarHandler(ProgressView pb, Executor uiExecutor) {
         this.pb = pb;
+        this.uiExecutor = uiExecutor;
         this.pb.setMax(100);
     }
 
+    /**
+     * Creates a new instance of a {@link be.jonaseveraert.util.progressBar.ProgressBarHandler ProgressssBarHandler}
+     * that can handle an {@link ProgressBar Android ProgressBar} and shows the sub-process, the
+     * percentage and the time remaining on a {@link TextView TextView}.
+     * @param pb The progressbar
+     * @param textView The text view below the progress bar
+     */
+    public ProgressBarHandler(ProgressBar pb, TextView textView) {
+        this(new ProgressBarView(pb));
+        this.messageView = new TextViewMessageView(textView);
+    }
+
+    /**
+     * @param messageView shows the sub-process or message, the percentage and the estimated time
+     *                    remaining. Can be null to show no text.
+     */
+    public void setMessageView(MessageView messageView) {
+        this.messageView = messageView;
+        scheduleDraw(true);
+    }
+
     /**
      * Sets the amount of sub-processes the process has. e.g. if there are 2 sub-processes, then each of them
      * will take up 50% of the progressbar.
@@ -49,7 +191,7 @@ public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.Pro
     public void setNumSubProcesses(int numSubProcesses) {
         this.numSubProcesses = numSubProcesses;
         this.numActivitiesInSubprocess = new int[this.numSubProcesses];
-        this.subProcessInfo = new Object[this.numSubProcesses];
+        this.subProcessInfo = new SubProcessInfo[this.numSubProcesses];
     }
 
     /**
@@ -82,10 +224,7 @@ public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.Pro
      */
     @Override
     public void setSubProcessInfo(int subProcessID, String subProcessName, int state) {
-        this.subProcessInfo[subProcessID] = new Object[2];
-        Object[] subProcessInfoObject = (Object[]) this.subProcessInfo[subProcessID];
-        subProcessInfoObject[0] = subProcessName;
-        subProcessInfoObject[1] = state;
+        this.subProcessInfo[subProcessID] = new SubProcessInfo(subProcessName, state);
     }
 
     /**
@@ -96,10 +235,7 @@ public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.Pro
      */
     @Override
     public void setSubProcessInfo(int subProcessID, String subProcessName) {
-        this.subProcessInfo[subProcessID] = new Object[2];
-        Object[] subProcessInfoObject = (Object[]) this.subProcessInfo[subProcessID];
-        subProcessInfoObject[0] = subProcessName;
-        subProcessInfoObject[1] = SUBPROCESSINFO_BUSY;
+        this.subProcessInfo[subProcessID] = new SubProcessInfo(subProcessName, SUBPROCESSINFO_BUSY);
     }
 
     private double percentagePerSubProcess;
@@ -110,18 +246,18 @@ public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.Pro
      */
     @Override
     public void startProgressBar() {
-        progress = 0;
-        pb.setProgress((int) progress);
-
         // Initial
-        Object[] processInfo = (Object[]) subProcessInfo[0];
-        // TODO: set text (String) processInfo[0] + (( (int) processInfo[1]) == 0 ? "..." : ".")
-        currentSubProcess = 0;
-        // Number of activities completed in the current subprocess
-        numActivitiesCompleted = 0;
+        subProcessText = subProcessText(subProcessInfo[0]);
+        message = null;
+        resetRate = true;
+        // The first subprocess, no activities completed
+        subProcessState.set(0);
 
         // Calculate what percentage each sub process takes of the progress bar
         percentagePerSubProcess = 100.0/numSubProcesses;
+
+        progress.set(0);
+        scheduleDraw(true);
     }
 
     /**
@@ -132,15 +268,23 @@ public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.Pro
      */
     @Override
     public void completeActivity(boolean autoCompleteSubProcess) {
-        numActivitiesCompleted ++;
+        long state;
+        int subProcess;
+        int completed;
+        do {
+            state = subProcessState.get();
+            subProcess = subProcess(state);
+            if (subProcess >= numSubProcesses)
+                return; // The process has already completed
+            completed = activitiesCompleted(state) + 1;
+        } while (!subProcessState.compareAndSet(state, state(subProcess, completed)));
 
         // Update progress bar
-        // The percentage of the enitre process the activity takes up
-        double percentageOfActivity = percentagePerSubProcess / (numActivitiesInSubprocess[currentSubProcess]);
-        updateProgressBar(percentageOfActivity);
+        showSubProcessProgress();
 
-        if (numActivitiesCompleted >= numActivitiesInSubprocess[currentSubProcess] && autoCompleteSubProcess) {
-            completeSubProcess();
+        // Only the thread whose compare-and-set moves on to the next sub-process completes it
+        if (completed >= numActivitiesInSubprocess[subProcess] && autoCompleteSubProcess) {
+            completeSubProcess(subProcess);
         }
     }
 
@@ -153,11 +297,17 @@ public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.Pro
      */
     @Override
     public void completeActivities(int numActivitiesCompleted) {
-        this.numActivitiesCompleted += numActivitiesCompleted;
+        long state;
+        int subProcess;
+        do {
+            state = subProcessState.get();
+            subProcess = subProcess(state);
+            if (subProcess >= numSubProcesses)
+                return; // The process has already completed
+        } while (!subProcessState.compareAndSet(state, state(subProcess, activitiesCompleted(state) + numActivitiesCompleted)));
 
         // Update progress bar
-        double percentageOfActivity = (percentagePerSubProcess / (numActivitiesInSubprocess[currentSubProcess])) * numActivitiesCompleted;
-        updateProgressBar(percentageOfActivity);
+        showSubProcessProgress();
     }
 
     /**
@@ -165,21 +315,69 @@ public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.Pro
      */
     @Override
     public void completeSubProcess() {
-        currentSubProcess++;
+        int subProcess;
+        do {
+            subProcess = subProcess(subProcessState.get());
+            if (subProcess >= numSubProcesses)
+                return; // The process has already completed
+        } while (!completeSubProcess(subProcess));
+    }
 
-        if (currentSubProcess != numSubProcesses) {
-            numActivitiesCompleted = 0;
+    /**
+     * Moves on to the next sub-process if {@code subProcess} is still the current one
+     * @return false when another thread already completed {@code subProcess}
+     */
+    private boolean completeSubProcess(int subProcess) {
+        long state;
+        do {
+            state = subProcessState.get();
+            if (subProcess(state) != subProcess)
+                return false;
+        } while (!subProcessState.compareAndSet(state, state(subProcess + 1, 0)));
 
-            Object[] processInfo = (Object[]) subProcessInfo[currentSubProcess];
+        int next = subProcess + 1;
+        if (next < numSubProcesses)
+            subProcessText = subProcessText(subProcessInfo[next]);
 
-            // TODO: set text
-            // this.jTextArea.setText((String) processInfo[0] + (((int) processInfo[1]) == 0 ? "..." : "."));
+        // Update progress bar
+        showSubProcessProgress();
+        return true;
+    }
 
-            // Update progress bar
-            setProgressBarpercentage(percentagePerSubProcess * (currentSubProcess));
-        } else {
-            setProgressBarpercentage(100.0);
+    /**
+     * Shows the progress of the current sub-process and its completed activities. It is computed
+     * from {@link #subProcessState subProcessState} and the bar only moves forward, so threads that
+     * report out of order can't push it past the end of the sub-process or past 100%.
+     */
+    private void showSubProcessProgress() {
+        long state = subProcessState.get();
+        int subProcess = subProcess(state);
+        double percentage = 100.0;
+        if (subProcess < numSubProcesses) {
+            int numActivities = numActivitiesInSubprocess[subProcess];
+            double fraction = numActivities > 0 ? Math.min(activitiesCompleted(state), numActivities) / (double) numActivities : 0;
+            percentage = percentagePerSubProcess * (subProcess + fraction);
         }
+        long units = Math.round(percentage * PROGRESS_SCALE);
+        long current;
+        do {
+            current = progress.get();
+            if (current >= units)
+                break;
+        } while (!progress.compareAndSet(current, units));
+        scheduleDraw(false);
+    }
+
+    private static long state(int subProcess, int activitiesCompleted) {
+        return (long) subProcess << 32 | (activitiesCompleted & 0xFFFFFFFFL);
+    }
+
+    private static int subProcess(long state) {
+        return (int) (state >>> 32);
+    }
+
+    private static int activitiesCompleted(long state) {
+        return (int) state;
     }
 
     /**
@@ -190,8 +388,8 @@ public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.Pro
      */
     @Override
     public void updateProgressBar(double addPercentage) {
-        progress += addPercentage;
-        pb.setProgress((int) progress);
+        progress.addAndGet(Math.round(addPercentage * PROGRESS_SCALE));
+        scheduleDraw(false);
     }
 
     /**
@@ -201,16 +399,46 @@ public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.Pro
      */
     @Override
     public void setProgressBarpercentage(double percentage) {
-        progress = percentage;
-        pb.setProgress((int) progress);
+        progress.set(Math.round(percentage * PROGRESS_SCALE));
+        scheduleDraw(false);
     }
 
     /**
-     * @return the progress of the progressBar
+     * Lets the view show the current progress. When a draw is already scheduled, it will show this
+     * change as well, so no new one is scheduled.
+     * @param force schedule a draw even if the shown percentage would not change
+     */
+    private void scheduleDraw(boolean force) {
+        if (!force && (int) getProgress() == shownProgress)
+            return;
+        if (drawScheduled.compareAndSet(false, true))
+            uiExecutor.execute(drawProgress);
+    }
+
+    /**
+     * @return the progress of the progressBar. This is the reported progress, the view can lag behind
+     * by one frame.
      */
     @Override
     public double getProgress() {
-        return pb.getProgress();
+        if (progressTreeUsed)
+            return progressTree.getProgress() * 100.0;
+        return progress.get() / (double) PROGRESS_SCALE;
+    }
+
+    /**
+     * Returns the root of a weighted progress tree. Once it is used, the bar shows the progress of
+     * the tree instead of the sub-processes and activities: add a {@link ProgressNode#addChild child}
+     * for every sub-process with a weight matching its cost (e.g. its size in bytes or its estimated
+     * duration) and let the leaves report their progress, at the same time if needed.
+     * @return the root of the tree
+     */
+    public ProgressNode getProgressTree() {
+        if (!progressTreeUsed) {
+            progressTreeUsed = true;
+            scheduleDraw(true);
+        }
+        return progressTree;
     }
 
     /**
@@ -228,10 +456,85 @@ public class ProgressBarHandler implements be.jonaseveraert.util.progressBar.Pro
      */
     @Override
     public void setMessage(String message) {
-        // TODO
+        this.message = message;
+        scheduleDraw(true);
     }
 
+    /**
+     * @return the text of a sub-process, e.g. "Writing file..." when it is busy
+     */
+    private static String subProcessText(SubProcessInfo processInfo) {
+        if (processInfo == null)
+            return null;
+        return processInfo.name + (processInfo.state == SUBPROCESSINFO_BUSY ? "..." : ".");
+    }
+
+    /**
+     * @return the message or sub-process text, followed by the percentage and the estimated time
+     * remaining while the process is running
+     */
+    private String buildMessage(double percentage) {
+        StringBuilder sb = messageBuilder;
+        sb.setLength(0);
+        String text = message != null ? message : subProcessText;
+        if (text != null)
+            sb.append(text);
+        if (percentage < 100) {
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append((int) percentage).append('%');
+            long remainingMs = rateEstimator.getRemainingMs(100 - percentage);
+            if (remainingMs >= 0) {
+                sb.append(", ");
+                appendDuration(sb, remainingMs);
+                sb.append(" remaining");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends a duration as h:mm:ss or m:ss
+     */
+    private static void appendDuration(StringBuilder sb, long ms) {
+        long seconds = (ms + 999) / 1000;
+        long hours = seconds / 3600;
+        long minutes = seconds / 60 % 60;
+        seconds %= 60;
+        if (hours > 0) {
+            sb.append(hours).append(':');
+            if (minutes < 10)
+                sb.append('0');
+        }
+        sb.append(minutes).append(':');
+        if (seconds < 10)
+            sb.append('0');
+        sb.append(seconds);
+    }
+
+    /**
+     * @return the estimated progress of the bar in percent per second, or -1 when it is not known yet.
+     * Updated when the bar is drawn.
+     */
+    public double getThroughput() {
+        return rateEstimator.getRate();
+    }
+
+    /**
+     * @return the estimated time until the bar is full in milliseconds, or -1 when it is not known yet
+     */
+    public long getEstimatedTimeRemainingMs() {
+        return rateEstimator.getRemainingMs(100 - getProgress());
+    }
+
+    /**
+     * @return the progress bar, or null when the handler was created with another {@link ProgressView ProgressView}
+     */
     public ProgressBar getProgressBar() {
+        return pb instanceof ProgressBarView ? ((ProgressBarView) pb).getProgressBar() : null;
+    }
+
+    public ProgressView getProgressView() {
         return pb;
     }
 }
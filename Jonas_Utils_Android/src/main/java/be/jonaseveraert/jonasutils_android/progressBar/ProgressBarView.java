@@ -0,0 +1,33 @@
+package be.jonaseveraert.jonasutils_android.progressBar;
+
+import android.widget.ProgressBar;
+
+/**
+ * A {@link ProgressView ProgressView} showing the progress on an {@link ProgressBar Android ProgressBar}.
+ */
+public class ProgressBarView implements ProgressView {
+    private final ProgressBar pb;
+
+    public ProgressBarView(ProgressBar pb) {
+        this.pb = pb;
+    }
+
+    @Override
+    public void setMax(int max) {
+        pb.setMax(max);
+    }
+
+    @Override
+    public void setProgress(int progress) {
+        pb.setProgress(progress);
+    }
+
+    @Override
+    public int getProgress() {
+        return pb.getProgress();
+    }
+
+    public ProgressBar getProgressBar() {
+        return pb;
+    }
+}
@@ -0,0 +1,201 @@
+package be.jonaseveraert.jonasutils_android.progressBar;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A node in a weighted progress tree. Every node has a weight relative to its siblings, e.g. the
+ * estimated bytes or duration of the work it stands for, so a stage that is 100 times as expensive
+ * takes up 100 times as much of its parent. The progress of a node with children follows from
+ * its children. Only leaves report progress, any number of them at the same time and from any
+ * thread.
+ * <p>
+ * Every node keeps the sum of its children's weights and of their completed weight. An update
+ * adjusts these sums on the path to the root, so it costs O(depth) no matter how many nodes there
+ * are. Children can be added while other nodes are reporting (e.g. when new jobs are queued), the
+ * progress of their parent drops accordingly.
+ */
+public final class ProgressNode {
+    /**
+     * The weight of a root node, so its completed weight has a resolution of 1 / ROOT_WEIGHT
+     */
+    private static final long ROOT_WEIGHT = 1000000000L;
+    /**
+     * Weights are stored multiplied by this, so a leaf with a small weight (e.g. 1) can still report
+     * fractions of its work
+     */
+    private static final long WEIGHT_SCALE = 4096;
+
+    /**
+     * Gets notified when the progress of a tree changes
+     */
+    public interface Listener {
+        /**
+         * Called on the thread that reported the progress
+         * @param root the root of the tree
+         */
+        void onProgressChanged(ProgressNode root);
+    }
+
+    private final ProgressNode parent;
+    private final String name;
+    /**
+     * The weight multiplied by {@link #WEIGHT_SCALE WEIGHT_SCALE}
+     */
+    private final long weight;
+    /**
+     * Only set on the root
+     */
+    private final Listener listener;
+
+    // Guarded by this
+    private long childWeight = 0;
+    private long childDone = 0;
+    private int childCount = 0;
+    /**
+     * The completed part of {@link #weight weight}. For a leaf it is set directly, otherwise it
+     * follows from the children. Written while holding the lock of this node.
+     */
+    private volatile long done = 0;
+
+    /**
+     * Creates the root of a progress tree
+     * @param name the name of the process
+     * @param listener gets notified when the progress of the tree changes, can be null
+     */
+    public ProgressNode(@NonNull String name, Listener listener) {
+        this(null, name, ROOT_WEIGHT * WEIGHT_SCALE, listener);
+    }
+
+    private ProgressNode(ProgressNode parent, String name, long weight, Listener listener) {
+        this.parent = parent;
+        this.name = name;
+        this.weight = weight;
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a sub-process to this node. The progress this node reported itself is dropped, from now
+     * on it follows from its children.
+     * @param name the name of the sub-process (e.g. Writing file)
+     * @param weight the cost of the sub-process relative to its siblings, e.g. its size in bytes.
+     *               The weights of all children of a node may add up to at most 2^51.
+     * @return the node of the sub-process
+     */
+    public ProgressNode addChild(@NonNull String name, long weight) {
+        if (weight <= 0)
+            throw new IllegalArgumentException("The weight has to be positive, was " + weight);
+        ProgressNode child = new ProgressNode(this, name, weight * WEIGHT_SCALE, null);
+        synchronized (this) {
+            childCount++;
+        }
+        propagate(this, child.weight, 0);
+        return child;
+    }
+
+    /**
+     * Sets the progress of this leaf
+     * @param fraction the completed part, between 0 and 1
+     */
+    public void setProgress(double fraction) {
+        fraction = Math.max(0, Math.min(1, fraction));
+        setDone(Math.round(fraction * weight));
+    }
+
+    /**
+     * Completes this leaf
+     */
+    public void complete() {
+        setDone(weight);
+    }
+
+    /**
+     * Adds to the progress of this leaf
+     * @param weightDone the amount of work that was done, in the units of this node's {@link #getWeight() weight}
+     */
+    public void advance(long weightDone) {
+        long delta;
+        synchronized (this) {
+            checkLeaf();
+            long newDone = Math.max(0, Math.min(weight, done + weightDone * WEIGHT_SCALE));
+            delta = newDone - done;
+            done = newDone;
+        }
+        leafChanged(delta);
+    }
+
+    private void setDone(long newDone) {
+        long delta;
+        synchronized (this) {
+            checkLeaf();
+            delta = newDone - done;
+            done = newDone;
+        }
+        leafChanged(delta);
+    }
+
+    private void leafChanged(long delta) {
+        if (delta == 0)
+            return;
+        if (parent != null)
+            propagate(parent, 0, delta);
+        else if (listener != null)
+            listener.onProgressChanged(this);
+    }
+
+    private void checkLeaf() {
+        if (childCount > 0)
+            throw new IllegalStateException("The progress of " + name + " follows from its sub-processes");
+    }
+
+    /**
+     * Adds the change of a child to {@code node} and its ancestors. The nodes are locked one at a
+     * time, so concurrent updates of different leaves never wait on each other for long.
+     */
+    private static void propagate(ProgressNode node, long weightDelta, long doneDelta) {
+        ProgressNode root = null;
+        while (node != null) {
+            synchronized (node) {
+                node.childWeight += weightDelta;
+                node.childDone += doneDelta;
+                long newDone;
+                if (node.childWeight == 0)
+                    newDone = 0;
+                else if (node.childDone >= node.childWeight)
+                    newDone = node.weight;
+                else
+                    newDone = (long) ((double) node.weight * node.childDone / node.childWeight);
+                doneDelta = newDone - node.done;
+                node.done = newDone;
+            }
+            if (doneDelta == 0)
+                return; // Nothing changes further up
+            weightDelta = 0;
+            root = node;
+            node = node.parent;
+        }
+        if (root.listener != null)
+            root.listener.onProgressChanged(root);
+    }
+
+    /**
+     * @return the completed part of this node, between 0 and 1
+     */
+    public double getProgress() {
+        return (double) done / weight;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getWeight() {
+        return weight / WEIGHT_SCALE;
+    }
+
+    /**
+     * @return the parent, or null for the root
+     */
+    public ProgressNode getParent() {
+        return parent;
+    }
+}
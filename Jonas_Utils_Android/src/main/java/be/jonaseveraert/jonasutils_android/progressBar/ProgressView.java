@@ -0,0 +1,13 @@
+package be.jonaseveraert.jonasutils_android.progressBar;
+
+/**
+ * The visible element a {@link ProgressBarHandler ProgressBarHandler} updates. Implemented by
+ * {@link ProgressBarView ProgressBarView} for an Android {@link android.widget.ProgressBar ProgressBar}.
+ */
+public interface ProgressView {
+    void setMax(int max);
+
+    void setProgress(int progress);
+
+    int getProgress();
+}
@@ -0,0 +1,90 @@
+package be.jonaseveraert.jonasutils_android.progressBar;
+
+/**
+ * Estimates the rate of a progress with an exponentially weighted moving average, so the estimate
+ * follows changes in speed without jumping on every sample. Samples closer together than
+ * {@link #MIN_SAMPLE_INTERVAL_NANOS MIN_SAMPLE_INTERVAL_NANOS} are merged into the next one.
+ * <p>
+ * Samples have to come from one thread, the estimate can be read from any thread. Sampling does
+ * not allocate.
+ */
+public final class RateEstimator {
+    private static final long MIN_SAMPLE_INTERVAL_NANOS = 200000000L;
+
+    /**
+     * The time constant of the average: a sample this old has about 37% of the weight of a new one
+     */
+    private final double timeConstantNanos;
+
+    private boolean started = false;
+    private double lastProgress;
+    private long lastNanos;
+    /**
+     * Progress per second, negative until the first rate was measured
+     */
+    private volatile double rate = -1;
+
+    /**
+     * @param timeConstantMs how long it takes until the estimate has mostly adapted to a new rate
+     */
+    public RateEstimator(long timeConstantMs) {
+        this.timeConstantNanos = timeConstantMs * 1e6;
+    }
+
+    /**
+     * Forgets all samples
+     */
+    public void reset() {
+        started = false;
+        rate = -1;
+    }
+
+    /**
+     * Adds a sample
+     * @param progress the total progress so far
+     * @param nowNanos the time of the sample, from {@link System#nanoTime() System.nanoTime}
+     */
+    public void sample(double progress, long nowNanos) {
+        if (!started) {
+            started = true;
+            lastProgress = progress;
+            lastNanos = nowNanos;
+            return;
+        }
+
+        long elapsed = nowNanos - lastNanos;
+        if (elapsed < MIN_SAMPLE_INTERVAL_NANOS)
+            return;
+
+        double sampleRate = Math.max(0, progress - lastProgress) * 1e9 / elapsed;
+        double currentRate = rate;
+        if (currentRate < 0) {
+            rate = sampleRate;
+        } else {
+            // The weight of the sample grows with the time it covers, so irregular samples are fine
+            double alpha = 1 - Math.exp(-elapsed / timeConstantNanos);
+            rate = currentRate + alpha * (sampleRate - currentRate);
+        }
+        lastProgress = progress;
+        lastNanos = nowNanos;
+    }
+
+    /**
+     * @return the estimated progress per second, or -1 if there are not enough samples yet
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @param remaining the progress that is left
+     * @return the estimated time until {@code remaining} is done in milliseconds, or -1 when it
+     * can't be estimated yet
+     */
+    public long getRemainingMs(double remaining) {
+        double currentRate = rate;
+        if (currentRate <= 0)
+            return -1;
+        return (long) (Math.max(0, remaining) / currentRate * 1000);
+    }
+}
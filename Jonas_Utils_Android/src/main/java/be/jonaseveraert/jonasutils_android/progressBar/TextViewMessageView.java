@@ -0,0 +1,23 @@
+package be.jonaseveraert.jonasutils_android.progressBar;
+
+import android.widget.TextView;
+
+/**
+ * A {@link MessageView MessageView} showing the text on an {@link TextView Android TextView}.
+ */
+public class TextViewMessageView implements MessageView {
+    private final TextView textView;
+
+    public TextViewMessageView(TextView textView) {
+        this.textView = textView;
+    }
+
+    @Override
+    public void setMessage(CharSequence message) {
+        textView.setText(message);
+    }
+
+    public TextView getTextView() {
+        return textView;
+    }
+}
@@ -1,13 +1,49 @@
 package be.jonaseveraert.jonasutils_android.string;
 
+import androidx.annotation.NonNull;
+
+import be.jonaseveraert.jonasutils_android.string.emoji.EmojiTrie;
+
 public abstract class StringUtils {
 
     /**
      * Converts an emoji to its name
+     * @param emojiTrie the trie to match against, see {@link be.jonaseveraert.jonasutils_android.string.emoji.EmojiUtils#getTrie EmojiUtils.getTrie}
      * @param emoji a string containing only 1 (!) emoji
-     * @return An emoji in string form
+     * @return The name of the emoji, or null if the string is not exactly 1 emoji
+     */
+    public static String convertEmojiToName(@NonNull EmojiTrie emojiTrie, @NonNull String emoji) {
+        long match = emojiTrie.match(emoji, 0, emoji.length());
+        if (match == EmojiTrie.NO_MATCH || EmojiTrie.matchLength(match) != emoji.length())
+            return null;
+        return emojiTrie.getIndex().getNameAt(EmojiTrie.matchEntry(match));
+    }
+
+    /**
+     * Replaces every emoji in a text by its name, in one pass over the text
+     * @param emojiTrie the trie to match against, see {@link be.jonaseveraert.jonasutils_android.string.emoji.EmojiUtils#getTrie EmojiUtils.getTrie}
+     * @param text the text
+     * @param before put before every name, e.g. ":"
+     * @param after put after every name, e.g. ":"
+     * @return the text with names instead of emoji
+     */
+    public static String replaceEmojiWithNames(@NonNull EmojiTrie emojiTrie, @NonNull CharSequence text, @NonNull String before, @NonNull String after) {
+        StringBuilder result = new StringBuilder(text.length() + 16);
+        emojiTrie.replaceWithNames(text, result, before, after);
+        return result.toString();
+    }
+
+    /**
+     * Adds the name of every emoji in a text after the emoji, in one pass over the text
+     * @param emojiTrie the trie to match against, see {@link be.jonaseveraert.jonasutils_android.string.emoji.EmojiUtils#getTrie EmojiUtils.getTrie}
+     * @param text the text
+     * @param before put before every name, e.g. " ("
+     * @param after put after every name, e.g. ")"
+     * @return the text with the names of its emoji
      */
-    public String convertEmojiToName(String emoji) {
-        return null;
+    public static String annotateEmojiWithNames(@NonNull EmojiTrie emojiTrie, @NonNull CharSequence text, @NonNull String before, @NonNull String after) {
+        StringBuilder result = new StringBuilder(text.length() + 16);
+        emojiTrie.annotateWithNames(text, result, before, after);
+        return result.toString();
     }
 }
@@ -0,0 +1,499 @@
+package be.jonaseveraert.jonasutils_android.string.emoji;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * All emoji and their names in a compact, read-only form. The code point sequences and the names
+ * are stored in flat primitive arrays, two open-addressing hash tables map a sequence to its entry
+ * and a name to its entry. Both lookups are O(1) and don't allocate.
+ * <p>
+ * An index is immutable and can be shared between threads. Use {@link EmojiUtils#getIndex EmojiUtils.getIndex}
+ * for the process-wide instance.
+ */
+public final class EmojiIndex {
+    /**
+     * Returned by the lookups when there is no such emoji
+     */
+    public static final int NOT_FOUND = -1;
+
+    /**
+     * "EMJ1", the start of the binary table written by the {@code compileEmojiTable} Gradle task
+     */
+    static final int TABLE_MAGIC = 0x454D4A31;
+    static final int TABLE_VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The code points of all emoji, entry {@code i} is {@code codePoints[sequenceOffsets[i] .. sequenceOffsets[i + 1]]}
+     */
+    private final int[] codePoints;
+    private final int[] sequenceOffsets;
+    /**
+     * The characters of all names, name {@code i} is {@code nameChars[nameOffsets[i] .. nameOffsets[i + 1]]}
+     */
+    private final char[] nameChars;
+    private final int[] nameOffsets;
+    private final int size;
+    /**
+     * Hash tables holding entry + 1, 0 is an empty slot. The length is a power of two.
+     */
+    private final int[] sequenceTable;
+    private final int[] nameTable;
+
+    EmojiIndex(int[] codePoints, int[] sequenceOffsets, char[] nameChars, int[] nameOffsets, int size) {
+        this.codePoints = codePoints;
+        this.sequenceOffsets = sequenceOffsets;
+        this.nameChars = nameChars;
+        this.nameOffsets = nameOffsets;
+        this.size = size;
+
+        int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1) << 1;
+        this.sequenceTable = new int[capacity];
+        this.nameTable = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            int start = sequenceOffsets[i];
+            insert(sequenceTable, hashCodePoints(codePoints, start, sequenceOffsets[i + 1] - start), i, true);
+            insert(nameTable, hashChars(nameChars, nameOffsets[i], nameOffsets[i + 1]), i, false);
+        }
+    }
+
+    /**
+     * Builds an index from the emoji JSON files, reading them straight from the streams.
+     * Each file is an object with a "unicode" array. The values are code point sequences written
+     * as hexadecimal numbers (e.g. "1f468 200d 1f469", "U+1F600") or as the emoji itself, the
+     * names are at the same positions in the names array. A sequence that occurs twice keeps its
+     * first name.
+     * @param values the JSON with the code point sequences
+     * @param names the JSON with the names
+     * @return the index
+     * @throws IOException When an I/O Exception occurs, the JSON is invalid or the arrays differ in length
+     */
+    public static EmojiIndex fromJson(@NonNull InputStream values, @NonNull InputStream names) throws IOException {
+        final IntArray codePoints = new IntArray(8192);
+        final IntArray sequenceOffsets = new IntArray(4096);
+        sequenceOffsets.add(0);
+        EmojiJsonParser.readUnicodeStrings(new BufferedReader(new InputStreamReader(values, UTF_8)), new EmojiJsonParser.StringHandler() {
+            @Override
+            public void onString(CharSequence value) throws IOException {
+                parseSequence(value, codePoints);
+                sequenceOffsets.add(codePoints.size);
+            }
+        });
+
+        final CharArray nameChars = new CharArray(65536);
+        final IntArray nameOffsets = new IntArray(sequenceOffsets.size);
+        nameOffsets.add(0);
+        EmojiJsonParser.readUnicodeStrings(new BufferedReader(new InputStreamReader(names, UTF_8)), new EmojiJsonParser.StringHandler() {
+            @Override
+            public void onString(CharSequence value) {
+                nameChars.add(value);
+                nameOffsets.add(nameChars.size);
+            }
+        });
+
+        int size = sequenceOffsets.size - 1;
+        if (nameOffsets.size - 1 != size)
+            throw new IOException("The emoji values (" + size + ") and names (" + (nameOffsets.size - 1) + ") don't match");
+        return new EmojiIndex(codePoints.trimmed(), sequenceOffsets.trimmed(), nameChars.trimmed(), nameOffsets.trimmed(), size);
+    }
+
+    /**
+     * Loads an index from the binary table the {@code compileEmojiTable} Gradle task generates from
+     * the JSON files. The table is big endian:
+     * <pre>
+     * int magic ("EMJ1"), int version, int entries, int codePoints, int nameChars
+     * int[entries + 1] sequence offsets
+     * int[codePoints]  code points, the sequences in the order of the entries
+     * int[entries + 1] name offsets
+     * char[nameChars]  the names (UTF-16)
+     * </pre>
+     * The entries can be in any order: the task sorts them by code point, {@link #toBinary toBinary}
+     * keeps the order of the index. The arrays are bulk-copied, no object is created per entry.
+     * The buffer can be a {@link java.nio.MappedByteBuffer memory-mapped} file.
+     * @param table the table, read from its position
+     * @return the index
+     * @throws IOException when the table is invalid or truncated
+     */
+    public static EmojiIndex fromBinary(@NonNull ByteBuffer table) throws IOException {
+        ByteBuffer buffer = table.duplicate().order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (buffer.getInt() != TABLE_MAGIC)
+                throw new IOException("Not an emoji table");
+            int version = buffer.getInt();
+            if (version != TABLE_VERSION)
+                throw new IOException("Unsupported emoji table version " + version);
+            int size = buffer.getInt();
+            int codePointCount = buffer.getInt();
+            int nameCharCount = buffer.getInt();
+            if (size < 0 || codePointCount < 0 || nameCharCount < 0
+                    || (long) (size + 1) * 8 + codePointCount * 4L + nameCharCount * 2L > buffer.remaining())
+                throw new IOException("Truncated emoji table");
+
+            int[] sequenceOffsets = new int[size + 1];
+            int[] codePoints = new int[codePointCount];
+            int[] nameOffsets = new int[size + 1];
+            char[] nameChars = new char[nameCharCount];
+            buffer.asIntBuffer().get(sequenceOffsets);
+            buffer.position(buffer.position() + sequenceOffsets.length * 4);
+            buffer.asIntBuffer().get(codePoints);
+            buffer.position(buffer.position() + codePoints.length * 4);
+            buffer.asIntBuffer().get(nameOffsets);
+            buffer.position(buffer.position() + nameOffsets.length * 4);
+            buffer.asCharBuffer().get(nameChars);
+
+            if (sequenceOffsets[size] != codePointCount || nameOffsets[size] != nameCharCount)
+                throw new IOException("Corrupt emoji table");
+            return new EmojiIndex(codePoints, sequenceOffsets, nameChars, nameOffsets, size);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated emoji table", e);
+        }
+    }
+
+    /**
+     * Encodes the index in the format read by {@link #fromBinary fromBinary}, with the entries in the
+     * order of this index
+     * @return a buffer with the table, ready to be read
+     */
+    public ByteBuffer toBinary() {
+        ByteBuffer buffer = ByteBuffer.allocate(5 * 4 + (size + 1) * 8 + codePoints.length * 4 + nameChars.length * 2)
+                .order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(TABLE_MAGIC);
+        buffer.putInt(TABLE_VERSION);
+        buffer.putInt(size);
+        buffer.putInt(codePoints.length);
+        buffer.putInt(nameChars.length);
+        buffer.asIntBuffer().put(sequenceOffsets);
+        buffer.position(buffer.position() + sequenceOffsets.length * 4);
+        buffer.asIntBuffer().put(codePoints);
+        buffer.position(buffer.position() + codePoints.length * 4);
+        buffer.asIntBuffer().put(nameOffsets);
+        buffer.position(buffer.position() + nameOffsets.length * 4);
+        buffer.asCharBuffer().put(nameChars);
+        buffer.position(buffer.position() + nameChars.length * 2);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Appends the code points of a value of the JSON to {@code out}
+     */
+    private static void parseSequence(CharSequence value, IntArray out) throws IOException {
+        int start = out.size;
+        int i = 0;
+        int length = value.length();
+        while (i < length) {
+            while (i < length && isSeparator(value.charAt(i)))
+                i++;
+            if (i == length)
+                break;
+            if (i + 1 < length && (value.charAt(i) == 'U' || value.charAt(i) == 'u') && value.charAt(i + 1) == '+')
+                i += 2;
+            int codePoint = 0;
+            int digits = 0;
+            while (i < length && !isSeparator(value.charAt(i))) {
+                int digit = Character.digit(value.charAt(i), 16);
+                if (digit == -1 || ++digits > 6) {
+                    // Not hexadecimal, the value is the emoji itself
+                    out.size = start;
+                    for (int j = 0; j < length; ) {
+                        int cp = Character.codePointAt(value, j);
+                        out.add(cp);
+                        j += Character.charCount(cp);
+                    }
+                    return;
+                }
+                codePoint = codePoint << 4 | digit;
+                i++;
+            }
+            out.add(codePoint);
+        }
+        if (out.size == start)
+            throw new IOException("Empty emoji value");
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '-' || c == '_' || c == ',';
+    }
+
+    /**
+     * @return the amount of emoji
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param emoji text containing exactly one emoji
+     * @return the entry of the emoji, or {@link #NOT_FOUND NOT_FOUND}
+     */
+    public int indexOf(@NonNull CharSequence emoji) {
+        return indexOf(emoji, 0, emoji.length());
+    }
+
+    /**
+     * @param text text containing an emoji at {@code start}
+     * @param start the index of the first char of the emoji
+     * @param end the index after the last char of the emoji
+     * @return the entry of the emoji, or {@link #NOT_FOUND NOT_FOUND}
+     */
+    public int indexOf(@NonNull CharSequence text, int start, int end) {
+        int hash = 0;
+        int count = 0;
+        for (int i = start; i < end; ) {
+            int cp = Character.codePointAt(text, i);
+            hash = 31 * hash + cp;
+            count++;
+            i += Character.charCount(cp);
+        }
+        hash = mix(hash);
+
+        int mask = sequenceTable.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = sequenceTable[slot] - 1;
+            if (entry == NOT_FOUND)
+                return NOT_FOUND;
+            if (sequenceOffsets[entry + 1] - sequenceOffsets[entry] == count && sequenceEquals(entry, text, start, end))
+                return entry;
+        }
+    }
+
+    /**
+     * @param codePoints the code points of the emoji
+     * @param offset the index of the first code point
+     * @param length the amount of code points
+     * @return the entry of the emoji, or {@link #NOT_FOUND NOT_FOUND}
+     */
+    public int indexOfCodePoints(@NonNull int[] codePoints, int offset, int length) {
+        int mask = sequenceTable.length - 1;
+        for (int slot = hashCodePoints(codePoints, offset, length) & mask; ; slot = (slot + 1) & mask) {
+            int entry = sequenceTable[slot] - 1;
+            if (entry == NOT_FOUND)
+                return NOT_FOUND;
+            int start = sequenceOffsets[entry];
+            if (sequenceOffsets[entry + 1] - start == length && regionEquals(this.codePoints, start, codePoints, offset, length))
+                return entry;
+        }
+    }
+
+    /**
+     * @param name the name of an emoji
+     * @return the entry of the emoji, or {@link #NOT_FOUND NOT_FOUND}
+     */
+    public int indexOfName(@NonNull CharSequence name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++)
+            hash = 31 * hash + name.charAt(i);
+        hash = mix(hash);
+
+        int mask = nameTable.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = nameTable[slot] - 1;
+            if (entry == NOT_FOUND)
+                return NOT_FOUND;
+            if (nameEquals(entry, name))
+                return entry;
+        }
+    }
+
+    /**
+     * @param emoji text containing exactly one emoji
+     * @return the name of the emoji, or null if it is not known
+     */
+    @Nullable
+    public String getName(@NonNull CharSequence emoji) {
+        int entry = indexOf(emoji);
+        return entry == NOT_FOUND ? null : getNameAt(entry);
+    }
+
+    /**
+     * @param name the name of an emoji
+     * @return the emoji, or null if there is no emoji with this name
+     */
+    @Nullable
+    public String getEmoji(@NonNull CharSequence name) {
+        int entry = indexOfName(name);
+        return entry == NOT_FOUND ? null : getEmojiAt(entry);
+    }
+
+    /**
+     * @param entry an entry of this index
+     * @return the name of the entry
+     */
+    public String getNameAt(int entry) {
+        return new String(nameChars, nameOffsets[entry], nameOffsets[entry + 1] - nameOffsets[entry]);
+    }
+
+    /**
+     * @param entry an entry of this index
+     * @return the emoji of the entry
+     */
+    public String getEmojiAt(int entry) {
+        return new String(codePoints, sequenceOffsets[entry], sequenceOffsets[entry + 1] - sequenceOffsets[entry]);
+    }
+
+    /**
+     * Appends the name of an entry without creating a String
+     * @param entry an entry of this index
+     * @param out the builder the name is appended to
+     */
+    public void appendName(int entry, @NonNull StringBuilder out) {
+        out.append(nameChars, nameOffsets[entry], nameOffsets[entry + 1] - nameOffsets[entry]);
+    }
+
+    /**
+     * @param entry an entry of this index
+     * @return the amount of code points of the emoji
+     */
+    public int getCodePointCount(int entry) {
+        return sequenceOffsets[entry + 1] - sequenceOffsets[entry];
+    }
+
+    /**
+     * @param entry an entry of this index
+     * @param i the position in the emoji's code point sequence
+     * @return the code point
+     */
+    public int getCodePoint(int entry, int i) {
+        return codePoints[sequenceOffsets[entry] + i];
+    }
+
+    private boolean sequenceEquals(int entry, CharSequence text, int start, int end) {
+        int j = sequenceOffsets[entry];
+        for (int i = start; i < end; ) {
+            int cp = Character.codePointAt(text, i);
+            if (codePoints[j++] != cp)
+                return false;
+            i += Character.charCount(cp);
+        }
+        return true;
+    }
+
+    private boolean nameEquals(int entry, CharSequence name) {
+        int start = nameOffsets[entry];
+        int length = nameOffsets[entry + 1] - start;
+        if (length != name.length())
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (nameChars[start + i] != name.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private void insert(int[] table, int hash, int entry, boolean sequence) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int existing = table[slot] - 1;
+            if (existing == NOT_FOUND) {
+                table[slot] = entry + 1;
+                return;
+            }
+            boolean duplicate = sequence
+                    ? getCodePointCount(existing) == getCodePointCount(entry)
+                        && regionEquals(codePoints, sequenceOffsets[existing], codePoints, sequenceOffsets[entry], getCodePointCount(entry))
+                    : nameOffsets[existing + 1] - nameOffsets[existing] == nameOffsets[entry + 1] - nameOffsets[entry]
+                        && regionEquals(nameChars, nameOffsets[existing], nameChars, nameOffsets[entry], nameOffsets[entry + 1] - nameOffsets[entry]);
+            if (duplicate)
+                return; // The first entry wins
+        }
+    }
+
+    private static int hashCodePoints(int[] codePoints, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++)
+            hash = 31 * hash + codePoints[i];
+        return mix(hash);
+    }
+
+    private static int hashChars(char[] chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + chars[i];
+        return mix(hash);
+    }
+
+    /**
+     * Spreads the bits of a polynomial hash, so neighbouring code points don't cluster in the table
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean regionEquals(int[] a, int aOffset, int[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean regionEquals(char[] a, int aOffset, char[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A growable int array, used while building
+     */
+    private static final class IntArray {
+        int[] values;
+        int size = 0;
+
+        IntArray(int capacity) {
+            values = new int[capacity];
+        }
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] trimmed() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * A growable char array, used while building
+     */
+    private static final class CharArray {
+        char[] values;
+        int size = 0;
+
+        CharArray(int capacity) {
+            values = new char[capacity];
+        }
+
+        void add(CharSequence chars) {
+            int length = chars.length();
+            if (size + length > values.length)
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + length));
+            for (int i = 0; i < length; i++)
+                values[size++] = chars.charAt(i);
+        }
+
+        char[] trimmed() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package be.jonaseveraert.jonasutils_android.string.emoji;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the emoji JSON files used by {@link EmojiUtils EmojiUtils}.
+ */
+abstract class EmojiJsonParser {
+    /**
+     * Receives the strings of the "unicode" array one by one
+     */
+    interface StringHandler {
+        /**
+         * @param value the string. Only valid during the call, the buffer is reused for the next string.
+         */
+        void onString(CharSequence value) throws IOException;
+    }
+
+    /**
+     * Reads the "unicode" array of a JSON file.
+     * @param jsonFile a JSON file containing an object with a "unicode" array
+     * @return the "unicode" array
+     * @throws IOException When an I/O Exception occurs
+     * @throws JSONException if the parse fails or doesn't yield a JSONObject.
+     */
+    static JSONArray readUnicodeArray(File jsonFile) throws IOException, JSONException {
+        return readUnicodeArray(new FileReader(jsonFile));
+    }
+
+    /**
+     * Reads the "unicode" array of a JSON object.
+     * @param reader the JSON, closed when it has been read
+     * @return the "unicode" array
+     * @throws IOException When an I/O Exception occurs
+     * @throws JSONException if the parse fails or doesn't yield a JSONObject.
+     */
+    static JSONArray readUnicodeArray(Reader reader) throws IOException, JSONException {
+        // https://stackoverflow.com/a/19945493/14874405
+        // https://stackoverflow.com/a/16480703/14874405
+
+        // Read json file into text
+        StringBuilder jsonText = new StringBuilder();
+
+        try (BufferedReader br = new BufferedReader(reader)) {
+            // Reading the lines
+            String line;
+            while ((line = br.readLine()) != null) {
+                jsonText.append(line).append(" "); // read lines, all in one line
+            }
+        } catch (IOException e) {
+            throw new IOException("Could not read JSON file", e);
+        }
+
+        JSONObject jsonObject = new JSONObject(jsonText.toString());
+        return jsonObject.getJSONArray("unicode");
+    }
+
+    /**
+     * Streams the strings of the "unicode" array of a JSON object to {@code handler}, without
+     * building the JSON tree or keeping the text in memory.
+     * @param reader the JSON, preferably buffered
+     * @param handler receives every string of the array, in order
+     * @throws IOException when an I/O Exception occurs, or when the JSON has no "unicode" array
+     */
+    static void readUnicodeStrings(Reader reader, StringHandler handler) throws IOException {
+        StringBuilder value = new StringBuilder();
+        boolean expectArray = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '"') {
+                readString(reader, value);
+                expectArray = "unicode".contentEquals(value);
+            } else if (c == '[' && expectArray) {
+                readStringArray(reader, value, handler);
+                return;
+            } else if (c != ':' && !Character.isWhitespace(c)) {
+                expectArray = false;
+            }
+        }
+        throw new IOException("The JSON has no \"unicode\" array");
+    }
+
+    private static void readStringArray(Reader reader, StringBuilder value, StringHandler handler) throws IOException {
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '"') {
+                readString(reader, value);
+                handler.onString(value);
+            } else if (c == ']') {
+                return;
+            } else if (c != ',' && !Character.isWhitespace(c)) {
+                throw new IOException("Unexpected character '" + (char) c + "' in the \"unicode\" array");
+            }
+        }
+        throw new IOException("Unterminated \"unicode\" array");
+    }
+
+    /**
+     * Reads a JSON string of which the opening quote was read
+     * @param value cleared and filled with the unescaped string
+     */
+    private static void readString(Reader reader, StringBuilder value) throws IOException {
+        value.setLength(0);
+        int c;
+        while ((c = reader.read()) != '"') {
+            if (c == -1)
+                throw new IOException("Unterminated string");
+            if (c != '\\') {
+                value.append((char) c);
+                continue;
+            }
+            c = reader.read();
+            switch (c) {
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'u':
+                    int unit = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(reader.read(), 16);
+                        if (digit == -1)
+                            throw new IOException("Invalid \\u escape");
+                        unit = unit << 4 | digit;
+                    }
+                    value.append((char) unit);
+                    break;
+                case -1:
+                    throw new IOException("Unterminated string");
+                default: // " \ /
+                    value.append((char) c);
+                    break;
+            }
+        }
+    }
+}
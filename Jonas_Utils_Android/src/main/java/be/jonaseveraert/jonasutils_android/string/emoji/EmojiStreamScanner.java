@@ -0,0 +1,188 @@
+package be.jonaseveraert.jonasutils_android.string.emoji;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * Finds the emoji in a text that arrives in chunks, e.g. a chat export read from a {@link Reader Reader},
+ * without ever holding more than one chunk. Every emoji is reported with its offset in the whole
+ * text. Surrogate pairs and emoji sequences that are split over two chunks are found as if the
+ * text were in one piece.
+ * <p>
+ * Only the last few chars of a chunk, at most the {@link EmojiTrie#getMaxMatchLength() longest match},
+ * are kept until the next chunk arrives. Everything before them is final and reported right away.
+ * Call {@link #finish() finish} after the last chunk. Scanning doesn't allocate.
+ * <p>
+ * A scanner is not thread safe, it scans one text.
+ */
+public final class EmojiStreamScanner {
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /**
+     * Gets notified of the emoji in the text, in order
+     */
+    public interface SpanHandler {
+        /**
+         * @param offset the index of the first char of the emoji in the whole text
+         * @param length the length of the emoji in chars
+         * @param entry the entry of the emoji in the index of the trie, its name is
+         *              {@link EmojiIndex#getNameAt EmojiIndex.getNameAt(entry)}
+         */
+        void onEmoji(long offset, int length, int entry);
+    }
+
+    private final EmojiTrie trie;
+    private final SpanHandler handler;
+    private final int lookahead;
+    private final Window window = new Window();
+
+    /**
+     * The chars at the end of the previous chunk that could still be the start of an emoji
+     */
+    private char[] carry;
+    private char[] spareCarry;
+    private int carryLength = 0;
+    /**
+     * The offset of {@code carry[0]} in the text
+     */
+    private long carryOffset = 0;
+    private long emojiCount = 0;
+    private boolean finished = false;
+
+    /**
+     * @param trie the emoji to look for, see {@link EmojiUtils#getTrie EmojiUtils.getTrie}
+     * @param handler gets notified of every emoji
+     */
+    public EmojiStreamScanner(@NonNull EmojiTrie trie, @NonNull SpanHandler handler) {
+        this.trie = trie;
+        this.handler = handler;
+        this.lookahead = trie.getMaxMatchLength();
+        this.carry = new char[lookahead];
+        this.spareCarry = new char[lookahead];
+    }
+
+    /**
+     * Scans the next chunk of the text. The chunk is not used anymore when this returns, so a
+     * {@link CharBuffer CharBuffer} can be refilled for the next chunk.
+     * @param chunk the next chars of the text
+     */
+    public void feed(@NonNull CharSequence chunk) {
+        if (finished)
+            throw new IllegalStateException("The scanner is finished");
+        scan(chunk, false);
+    }
+
+    /**
+     * Scans what is left of the text, must be called after the last chunk
+     */
+    public void finish() {
+        if (finished)
+            return;
+        scan("", true);
+        finished = true;
+    }
+
+    /**
+     * Scans everything {@code reader} has left and {@link #finish() finishes} the scan. The reader
+     * is not closed.
+     * @param reader the text
+     * @throws IOException When an I/O Exception occurs
+     */
+    public void scan(@NonNull Reader reader) throws IOException {
+        char[] buffer = new char[READ_BUFFER_SIZE];
+        CharBuffer chunk = CharBuffer.wrap(buffer);
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            chunk.clear();
+            chunk.limit(read);
+            feed(chunk);
+        }
+        finish();
+    }
+
+    private void scan(CharSequence chunk, boolean last) {
+        window.set(carry, carryLength, chunk);
+        int end = window.length();
+        // A match that starts before this has all the chars it could need
+        int limit = last ? end : end - lookahead + 1;
+        int i = 0;
+        while (i < limit) {
+            long match = trie.match(window, i, end);
+            if (match == EmojiTrie.NO_MATCH) {
+                i += Character.isHighSurrogate(window.charAt(i)) && i + 1 < end && Character.isLowSurrogate(window.charAt(i + 1)) ? 2 : 1;
+            } else {
+                int length = EmojiTrie.matchLength(match);
+                handler.onEmoji(carryOffset + i, length, EmojiTrie.matchEntry(match));
+                emojiCount++;
+                i += length;
+            }
+        }
+
+        // Keep the tail for the next chunk, it is shorter than the lookahead
+        int tail = Math.max(0, end - i);
+        for (int k = 0; k < tail; k++)
+            spareCarry[k] = window.charAt(i + k);
+        char[] swap = carry;
+        carry = spareCarry;
+        spareCarry = swap;
+        carryLength = tail;
+        carryOffset += end - tail;
+        window.set(null, 0, null);
+    }
+
+    /**
+     * @return the amount of chars scanned so far
+     */
+    public long getOffset() {
+        return carryOffset + carryLength;
+    }
+
+    /**
+     * @return the amount of emoji found so far
+     */
+    public long getEmojiCount() {
+        return emojiCount;
+    }
+
+    /**
+     * The carry of the previous chunk followed by the current chunk, without copying the chunk
+     */
+    private static final class Window implements CharSequence {
+        private char[] carry;
+        private int carryLength;
+        private CharSequence chunk;
+
+        void set(char[] carry, int carryLength, CharSequence chunk) {
+            this.carry = carry;
+            this.carryLength = carryLength;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int length() {
+            return carryLength + chunk.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return index < carryLength ? carry[index] : chunk.charAt(index - carryLength);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder result = new StringBuilder(end - start);
+            for (int i = start; i < end; i++)
+                result.append(charAt(i));
+            return result;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+}
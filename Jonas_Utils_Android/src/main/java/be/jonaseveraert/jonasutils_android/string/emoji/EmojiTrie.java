@@ -0,0 +1,324 @@
+package be.jonaseveraert.jonasutils_android.string.emoji;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A trie over the code points of all emoji in an {@link EmojiIndex EmojiIndex}, used to find emoji
+ * in text. Matching is longest-match, so a ZWJ family, an emoji with a skin tone modifier, a flag
+ * or a keycap is found as one emoji instead of as its parts. A variation selector (U+FE0F) that
+ * directly follows a match is included in it, so text with fully-qualified emoji also matches an
+ * unqualified sequence in the index.
+ * <p>
+ * The trie is stored in flat arrays, every node has its outgoing code points sorted so a step is a
+ * binary search. Whether a BMP character can start an emoji is kept in a bit set, so ordinary text
+ * costs one bit test per character. No emoji is longer than a few code points, which makes a scan
+ * linear in the length of the text. Scanning doesn't allocate.
+ * <p>
+ * A trie is immutable and can be shared between threads. Use {@link EmojiUtils#getTrie EmojiUtils.getTrie}
+ * for the process-wide instance.
+ */
+public final class EmojiTrie {
+    /**
+     * Returned by {@link #match match} when there is no emoji at the position
+     */
+    public static final long NO_MATCH = -1L;
+
+    private static final char VARIATION_SELECTOR = '\uFE0F';
+
+    /**
+     * Gets notified of the emoji found by {@link #scan scan}
+     */
+    public interface MatchHandler {
+        /**
+         * @param text the scanned text
+         * @param start the index of the first char of the emoji
+         * @param end the index after the last char of the emoji
+         * @param entry the entry of the emoji in the {@link #getIndex() index}
+         */
+        void onEmoji(CharSequence text, int start, int end, int entry);
+    }
+
+    private final EmojiIndex index;
+    /**
+     * The edges of node {@code n} are {@code edgeStart[n] .. edgeStart[n + 1]}, sorted by code point.
+     * Node 0 is the root.
+     */
+    private final int[] edgeStart;
+    private final int[] edgeCodePoints;
+    private final int[] edgeTargets;
+    /**
+     * The entry a node completes, or {@link EmojiIndex#NOT_FOUND NOT_FOUND}
+     */
+    private final int[] nodeEntries;
+    /**
+     * Bit {@code c} is set when an emoji starts with the BMP character {@code c}
+     */
+    private final long[] bmpStarts = new long[1024];
+    /**
+     * The length in chars of the longest possible match
+     */
+    private final int maxMatchLength;
+
+    /**
+     * Builds the trie of all emoji in {@code index}. A sequence that occurs twice keeps its first entry.
+     * @param index the emoji
+     */
+    public EmojiTrie(@NonNull final EmojiIndex index) {
+        this.index = index;
+
+        // Sorted sequences are inserted in order: a node only ever gets children after its last
+        // child, so the child to follow is always the newest one
+        Integer[] order = new Integer[index.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int lengthA = index.getCodePointCount(a);
+                int lengthB = index.getCodePointCount(b);
+                for (int i = 0; i < Math.min(lengthA, lengthB); i++) {
+                    int cpA = index.getCodePoint(a, i);
+                    int cpB = index.getCodePoint(b, i);
+                    if (cpA != cpB)
+                        return cpA < cpB ? -1 : 1;
+                }
+                return lengthA - lengthB;
+            }
+        });
+
+        int maxNodes = 1;
+        int maxChars = 0;
+        for (int i = 0; i < index.size(); i++) {
+            int length = index.getCodePointCount(i);
+            maxNodes += length;
+            int chars = 0;
+            for (int j = 0; j < length; j++)
+                chars += Character.charCount(index.getCodePoint(i, j));
+            maxChars = Math.max(maxChars, chars);
+        }
+        maxMatchLength = maxChars + 1; // A variation selector can follow
+        int[] parents = new int[maxNodes];
+        int[] codePoints = new int[maxNodes];
+        int[] lastChild = new int[maxNodes];
+        int[] entries = new int[maxNodes];
+        int[] childCount = new int[maxNodes];
+        Arrays.fill(lastChild, -1);
+        Arrays.fill(entries, EmojiIndex.NOT_FOUND);
+        int nodeCount = 1;
+
+        for (int entry : order) {
+            int node = 0;
+            int length = index.getCodePointCount(entry);
+            for (int i = 0; i < length; i++) {
+                int cp = index.getCodePoint(entry, i);
+                int child = lastChild[node];
+                if (child == -1 || codePoints[child] != cp) {
+                    child = nodeCount++;
+                    parents[child] = node;
+                    codePoints[child] = cp;
+                    lastChild[node] = child;
+                    childCount[node]++;
+                }
+                node = child;
+            }
+            if (entries[node] == EmojiIndex.NOT_FOUND)
+                entries[node] = entry; // The sort is stable, so this is the first occurrence
+        }
+
+        // Every node but the root is the target of one edge. The children of a node were created
+        // in code point order, so filling the edges in creation order keeps them sorted.
+        edgeStart = new int[nodeCount + 1];
+        for (int node = 0; node < nodeCount; node++)
+            edgeStart[node + 1] = edgeStart[node] + childCount[node];
+        edgeCodePoints = new int[nodeCount - 1];
+        edgeTargets = new int[nodeCount - 1];
+        int[] filled = Arrays.copyOf(edgeStart, nodeCount);
+        for (int node = 1; node < nodeCount; node++) {
+            int edge = filled[parents[node]]++;
+            edgeCodePoints[edge] = codePoints[node];
+            edgeTargets[edge] = node;
+        }
+        nodeEntries = Arrays.copyOf(entries, nodeCount);
+
+        for (int edge = edgeStart[0]; edge < edgeStart[1]; edge++) {
+            int cp = edgeCodePoints[edge];
+            if (cp < 0x10000)
+                bmpStarts[cp >>> 6] |= 1L << cp;
+        }
+    }
+
+    /**
+     * @return the index the entries of the matches refer to
+     */
+    public EmojiIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the length in chars of the longest text {@link #match match} can match, including a
+     * trailing variation selector
+     */
+    public int getMaxMatchLength() {
+        return maxMatchLength;
+    }
+
+    /**
+     * Finds the longest emoji that starts at {@code start}
+     * @param text the text
+     * @param start the index of the first char of the emoji
+     * @param end the index after the last char that may be part of the emoji
+     * @return {@link #NO_MATCH NO_MATCH}, or the entry and length of the emoji, read with
+     * {@link #matchEntry matchEntry} and {@link #matchLength matchLength}
+     */
+    public long match(@NonNull CharSequence text, int start, int end) {
+        int node = 0;
+        int i = start;
+        int bestEntry = EmojiIndex.NOT_FOUND;
+        int bestEnd = start;
+
+        if (i < end) {
+            char c = text.charAt(i);
+            if (!Character.isHighSurrogate(c) && (bmpStarts[c >>> 6] & 1L << c) == 0)
+                return NO_MATCH; // Ordinary text
+        }
+        while (i < end) {
+            char c = text.charAt(i);
+            int cp = c;
+            int charCount = 1;
+            if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                cp = Character.toCodePoint(c, text.charAt(i + 1));
+                charCount = 2;
+            }
+            node = child(node, cp);
+            if (node == -1)
+                break;
+            i += charCount;
+            if (nodeEntries[node] != EmojiIndex.NOT_FOUND) {
+                bestEntry = nodeEntries[node];
+                bestEnd = i;
+            }
+        }
+
+        if (bestEntry == EmojiIndex.NOT_FOUND)
+            return NO_MATCH;
+        if (bestEnd < end && text.charAt(bestEnd) == VARIATION_SELECTOR)
+            bestEnd++;
+        return (long) bestEntry << 32 | (bestEnd - start);
+    }
+
+    /**
+     * @param match a result of {@link #match match}, not {@link #NO_MATCH NO_MATCH}
+     * @return the entry of the matched emoji
+     */
+    public static int matchEntry(long match) {
+        return (int) (match >>> 32);
+    }
+
+    /**
+     * @param match a result of {@link #match match}, not {@link #NO_MATCH NO_MATCH}
+     * @return the length of the matched emoji in chars
+     */
+    public static int matchLength(long match) {
+        return (int) match;
+    }
+
+    /**
+     * @return the node reached from {@code node} with {@code codePoint}, or -1
+     */
+    private int child(int node, int codePoint) {
+        int low = edgeStart[node];
+        int high = edgeStart[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cp = edgeCodePoints[mid];
+            if (cp < codePoint)
+                low = mid + 1;
+            else if (cp > codePoint)
+                high = mid - 1;
+            else
+                return edgeTargets[mid];
+        }
+        return -1;
+    }
+
+    /**
+     * Finds all emoji in a part of a text, from left to right. Emoji don't overlap: the scan
+     * continues after the end of every match.
+     * @param text the text
+     * @param start the index of the first char to scan
+     * @param end the index after the last char to scan
+     * @param handler gets notified of every emoji
+     * @return the amount of emoji found
+     */
+    public int scan(@NonNull CharSequence text, int start, int end, @NonNull MatchHandler handler) {
+        int count = 0;
+        int i = start;
+        while (i < end) {
+            long match = match(text, i, end);
+            if (match == NO_MATCH) {
+                i += charCount(text, i, end);
+            } else {
+                int length = matchLength(match);
+                handler.onEmoji(text, i, i + length, matchEntry(match));
+                count++;
+                i += length;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Appends {@code text} to {@code out} with every emoji replaced by its name
+     * @param text the text
+     * @param out receives the result
+     * @param before appended before every name, e.g. ":"
+     * @param after appended after every name
+     * @return the amount of emoji replaced
+     */
+    public int replaceWithNames(@NonNull CharSequence text, @NonNull StringBuilder out, @NonNull String before, @NonNull String after) {
+        return appendWithNames(text, out, before, after, false);
+    }
+
+    /**
+     * Appends {@code text} to {@code out} with the name of every emoji after the emoji
+     * @param text the text
+     * @param out receives the result
+     * @param before appended before every name, e.g. " ("
+     * @param after appended after every name, e.g. ")"
+     * @return the amount of emoji annotated
+     */
+    public int annotateWithNames(@NonNull CharSequence text, @NonNull StringBuilder out, @NonNull String before, @NonNull String after) {
+        return appendWithNames(text, out, before, after, true);
+    }
+
+    private int appendWithNames(CharSequence text, StringBuilder out, String before, String after, boolean keepEmoji) {
+        int count = 0;
+        int end = text.length();
+        int copied = 0;
+        int i = 0;
+        while (i < end) {
+            long match = match(text, i, end);
+            if (match == NO_MATCH) {
+                i += charCount(text, i, end);
+                continue;
+            }
+            int matchEnd = i + matchLength(match);
+            out.append(text, copied, keepEmoji ? matchEnd : i);
+            out.append(before);
+            index.appendName(matchEntry(match), out);
+            out.append(after);
+            copied = matchEnd;
+            i = matchEnd;
+            count++;
+        }
+        out.append(text, copied, end);
+        return count;
+    }
+
+    private static int charCount(CharSequence text, int i, int end) {
+        return Character.isHighSurrogate(text.charAt(i)) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1)) ? 2 : 1;
+    }
+}
@@ -1,20 +1,26 @@
 package be.jonaseveraert.jonasutils_android.string.emoji;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.os.Build;
 
 import androidx.annotation.RequiresApi;
 
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.File;
+import org.apache.commons.io.IOUtils;
+
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
+import be.jonaseveraert.jonasutils_android.io.RawResourceCache;
 import be.ksa.voetje.R;
 import be.ksa.voetje.util.exception.UnexpectedException;
 
@@ -22,56 +28,118 @@ public abstract class EmojiUtils {
     // NOTE: for creating files -> Environment.getExternalStorageDirectory()
 
     /**
-     * Returns an array of unicode values that can be compared to emoji names using {@link #getUnicodeNames getUnicodeNames}.
+     * The binary emoji table, generated by the {@code compileEmojiTable} Gradle task
+     */
+    private static final String EMOJI_TABLE_ASSET = "emoji/emoji_table.bin";
+
+    /**
+     * The process-wide index, built on first use
+     */
+    private static volatile EmojiIndex index;
+    /**
+     * The process-wide trie, built on first use
+     */
+    private static volatile EmojiTrie trie;
+
+    /**
+     * Returns the index of all emoji and their names. It is built once per process, on the first
+     * call, from the precompiled table in the assets, or from the raw JSON resources if the app
+     * was built without it. Later calls return the same index without any I/O.
+     * <p>
+     * The table is memory-mapped when the app stores it uncompressed, with {@code noCompress 'bin'}
+     * in the {@code aaptOptions} of its build.gradle. Otherwise it is read into memory.
      * @param context The context it is executed from.
-     * @return An array of unicode values.
-     * @throws FileNotFoundException When the JSONFile is missing.
-     * @throws IOException When an I/O Exception occurs
-     * @throws JSONException if the parse fails or doesn't yield a JSONObject.
-     * @throws UnexpectedException if an unexpected error occurs
+     * @return the emoji index
+     * @throws IOException When an I/O Exception occurs or the resources are invalid
      */
-    @RequiresApi(api = Build.VERSION_CODES.O)
-    public static JSONArray getUnicodeValues(Context context) throws FileNotFoundException, IOException, JSONException, UnexpectedException {
-        File tempFile = be.ksa.voetje.util.io.FileUtils.rawResourceToTempFile(context, R.raw.unicode_values, "unicode_values.json");
-        tempFile.deleteOnExit();
+    public static EmojiIndex getIndex(Context context) throws IOException {
+        EmojiIndex result = index;
+        if (result == null) {
+            synchronized (EmojiUtils.class) {
+                result = index;
+                if (result == null) {
+                    result = loadIndex(context);
+                    index = result;
+                }
+            }
+        }
+        return result;
+    }
 
-        // https://stackoverflow.com/a/19945493/14874405
-        // https://stackoverflow.com/a/16480703/14874405
+    /**
+     * Returns the trie of all emoji, used to find emoji in text. It is built once per process, from
+     * the {@link #getIndex index}.
+     * @param context The context it is executed from.
+     * @return the emoji trie
+     * @throws IOException When an I/O Exception occurs or the resources are invalid
+     */
+    public static EmojiTrie getTrie(Context context) throws IOException {
+        EmojiTrie result = trie;
+        if (result == null) {
+            EmojiIndex emojiIndex = getIndex(context);
+            synchronized (EmojiUtils.class) {
+                result = trie;
+                if (result == null) {
+                    result = new EmojiTrie(emojiIndex);
+                    trie = result;
+                }
+            }
+        }
+        return result;
+    }
 
-        // Read json file into text
-        StringBuilder jsonText = new StringBuilder();
+    private static EmojiIndex loadIndex(Context context) throws IOException {
+        ByteBuffer table = readEmojiTable(context);
+        if (table != null)
+            return EmojiIndex.fromBinary(table);
 
-        // Bufferedreader
-        BufferedReader br = null;
-        try {
-            br = new BufferedReader(new FileReader(tempFile));
+        try (InputStream values = context.getResources().openRawResource(R.raw.unicode_values);
+             InputStream names = context.getResources().openRawResource(R.raw.unicode_names)) {
+            return EmojiIndex.fromJson(values, names);
+        }
+    }
 
-            // Reading the lines
-            String line;
-            while ((line = br.readLine()) != null) {
-                jsonText.append(line).append(" "); // read lines, all in one line
-            }
-        } catch (IOException e) {
-            throw new IOException("Could not read JSON file", e);
-        } finally {
-            try {
-                if (br != null)
-                    br.close();
-                else
-                    throw new UnexpectedException("Unkown error, the buffered reader is null.");
-            } catch (Exception e) {
-                throw new UnexpectedException("Unkown error", e);
+    /**
+     * @return the emoji table, memory-mapped if it is stored uncompressed, or null if the app has no table
+     */
+    private static ByteBuffer readEmojiTable(Context context) throws IOException {
+        AssetFileDescriptor fd;
+        try {
+            fd = context.getAssets().openFd(EMOJI_TABLE_ASSET);
+        } catch (FileNotFoundException e) {
+            // Missing, or compressed so it can't be mapped
+            try (InputStream in = context.getAssets().open(EMOJI_TABLE_ASSET)) {
+                return ByteBuffer.wrap(IOUtils.toByteArray(in));
+            } catch (FileNotFoundException missing) {
+                return null;
             }
         }
 
-        JSONObject jsonObject = new JSONObject(jsonText.toString());
-        JSONArray jsonArray = (JSONArray) jsonObject.getJSONArray("unicode");
-        tempFile.delete();
-
-        return jsonArray;
+        try (FileInputStream in = fd.createInputStream()) {
+            // The mapping stays valid after the channel is closed
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+        } finally {
+            fd.close();
+        }
     }
 
-    // TODO: compare length of the two arrays to make sure nothing went wrong
+    /**
+     * Returns an array of unicode values that can be compared to emoji names using {@link #getUnicodeNames getUnicodeNames}.
+     * @param context The context it is executed from.
+     * @return An array of unicode values.
+     * @throws FileNotFoundException When the JSONFile is missing.
+     * @throws IOException When an I/O Exception occurs
+     * @throws JSONException if the parse fails or doesn't yield a JSONObject.
+     * @throws UnexpectedException if an unexpected error occurs
+     * @deprecated parses the whole file on every call, use {@link #getIndex getIndex}
+     */
+    @Deprecated
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public static JSONArray getUnicodeValues(Context context) throws FileNotFoundException, IOException, JSONException, UnexpectedException {
+        // Opened by the cache, so it can't be evicted before it is read
+        InputStream in = RawResourceCache.getDefault(context).openStream(R.raw.unicode_values);
+        return EmojiJsonParser.readUnicodeArray(new InputStreamReader(in, Charset.forName("UTF-8")));
+    }
 
     /**
      * Returns an array of unicode names that can be compared to unicode values using {@link #getUnicodeValues(Context)}  getUnicodeNames}.
@@ -81,44 +149,11 @@ public abstract class EmojiUtils {
      * @throws IOException When an I/O Exception occurs
      * @throws JSONException if the parse fails or doesn't yield a JSONObject.
      * @throws UnexpectedException if an unexpected error occurs
+     * @deprecated parses the whole file on every call, use {@link #getIndex getIndex}
      */
+    @Deprecated
     public JSONArray getUnicodeNames(Context context) throws FileNotFoundException, IOException, UnexpectedException, JSONException {
-        File tempFile = be.ksa.voetje.util.io.FileUtils.rawResourceToTempFile(context, R.raw.unicode_names, "unicode_values.json");
-        tempFile.deleteOnExit();
-
-        // https://stackoverflow.com/a/19945493/14874405
-        // https://stackoverflow.com/a/16480703/14874405
-
-        // Read json file into text
-        StringBuilder jsonText = new StringBuilder();
-
-        // Bufferedreader
-        BufferedReader br = null;
-        try {
-            br = new BufferedReader(new FileReader(tempFile));
-
-            // Reading the lines
-            String line;
-            while ((line = br.readLine()) != null) {
-                jsonText.append(line).append(" "); // read lines, all in one line
-            }
-        } catch (IOException e) {
-            throw new IOException("Could not read JSON file", e);
-        } finally {
-            try {
-                if (br != null)
-                    br.close();
-                else
-                    throw new UnexpectedException("Unkown error, the buffered reader is null.");
-            } catch (Exception e) {
-                throw new UnexpectedException("Unkown error", e);
-            }
-        }
-
-        JSONObject jsonObject = new JSONObject(jsonText.toString());
-        JSONArray jsonArray = (JSONArray) jsonObject.getJSONArray("unicode");
-        tempFile.delete();
-
-        return jsonArray;
+        InputStream in = RawResourceCache.getDefault(context).openStream(R.raw.unicode_names);
+        return EmojiJsonParser.readUnicodeArray(new InputStreamReader(in, Charset.forName("UTF-8")));
     }
 }
@@ -0,0 +1,84 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link PcmSource PcmSource} over a byte array that hands out at most {@code maxRead} bytes per
+ * read, so the tests can check how a source copes with data that arrives in odd pieces
+ */
+class ByteArrayPcmSource implements PcmSource {
+    private final byte[] data;
+    private final int maxRead;
+    private int position = 0;
+    private boolean closed = false;
+
+    ByteArrayPcmSource(byte[] data) {
+        this(data, Integer.MAX_VALUE);
+    }
+
+    ByteArrayPcmSource(byte[] data, int maxRead) {
+        this.data = data;
+        this.maxRead = maxRead;
+    }
+
+    /**
+     * @return 16 bit little endian PCM with the samples
+     */
+    static byte[] pcm16(short... samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asShortBuffer().put(samples);
+        return buffer.array();
+    }
+
+    /**
+     * @return the samples of 16 bit little endian PCM
+     */
+    static short[] samples16(byte[] pcm) {
+        short[] samples = new short[pcm.length / 2];
+        ByteBuffer.wrap(pcm).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+        return samples;
+    }
+
+    /**
+     * Reads {@code source} until it ends
+     * @param bufferSize the size of the buffer every read gets
+     * @return everything that was read
+     */
+    static byte[] readAll(PcmSource source, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        int read;
+        while ((read = source.read(buffer)) != -1) {
+            out.write(buffer.array(), 0, read);
+            buffer.clear();
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        if (position == data.length)
+            return -1;
+        int count = Math.min(Math.min(maxRead, dst.remaining()), data.length - position);
+        dst.put(data, position, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return data.length;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+}
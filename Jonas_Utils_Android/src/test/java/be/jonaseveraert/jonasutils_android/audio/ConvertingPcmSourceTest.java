@@ -0,0 +1,139 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static be.jonaseveraert.jonasutils_android.audio.ByteArrayPcmSource.pcm16;
+import static be.jonaseveraert.jonasutils_android.audio.ByteArrayPcmSource.readAll;
+import static be.jonaseveraert.jonasutils_android.audio.ByteArrayPcmSource.samples16;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConvertingPcmSourceTest {
+    private static short[] convert(byte[] input, int inRate, int inChannels, int inEncoding, int outRate, int outChannels) throws IOException {
+        ConvertingPcmSource source = new ConvertingPcmSource(new ByteArrayPcmSource(input), inRate, inChannels, inEncoding, outRate, outChannels);
+        return samples16(readAll(source, 4096));
+    }
+
+    @Test
+    public void sameFormatIsCopied() throws IOException {
+        short[] samples = {0, 1, -1, Short.MAX_VALUE, Short.MIN_VALUE, 1234};
+        assertArrayEquals(samples, convert(pcm16(samples), 16000, 2, ConvertingPcmSource.ENCODING_PCM_16BIT, 16000, 2));
+    }
+
+    @Test
+    public void stereoIsMixedToMono() throws IOException {
+        short[] stereo = {100, 300, -200, 200, Short.MAX_VALUE, Short.MAX_VALUE};
+        short[] mono = {200, 0, Short.MAX_VALUE};
+        assertArrayEquals(mono, convert(pcm16(stereo), 16000, 2, ConvertingPcmSource.ENCODING_PCM_16BIT, 16000, 1));
+    }
+
+    @Test
+    public void monoIsRepeatedToStereo() throws IOException {
+        short[] mono = {5, -7};
+        short[] stereo = {5, 5, -7, -7};
+        assertArrayEquals(stereo, convert(pcm16(mono), 16000, 1, ConvertingPcmSource.ENCODING_PCM_16BIT, 16000, 2));
+    }
+
+    @Test
+    public void eightBitIsWidened() throws IOException {
+        byte[] unsigned = {(byte) 0x80, (byte) 0xFF, 0x00};
+        short[] expected = {0, 127 << 8, Short.MIN_VALUE};
+        assertArrayEquals(expected, convert(unsigned, 8000, 1, ConvertingPcmSource.ENCODING_PCM_8BIT, 8000, 1));
+    }
+
+    @Test
+    public void floatIsScaledAndClipped() throws IOException {
+        ByteBuffer floats = ByteBuffer.allocate(5 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        floats.putFloat(0f).putFloat(0.5f).putFloat(-1f).putFloat(1.5f).putFloat(-2f);
+        short[] expected = {0, Short.MAX_VALUE / 2, Short.MIN_VALUE, Short.MAX_VALUE, Short.MIN_VALUE};
+        assertArrayEquals(expected, convert(floats.array(), 16000, 1, ConvertingPcmSource.ENCODING_PCM_FLOAT, 16000, 1));
+    }
+
+    @Test
+    public void downsamplingAveragesEachPeriod() throws IOException {
+        short[] input = {0, 3, 6, 9, 12, 15};
+        short[] expected = {3, 12};
+        assertArrayEquals(expected, convert(pcm16(input), 48000, 1, ConvertingPcmSource.ENCODING_PCM_16BIT, 16000, 1));
+    }
+
+    @Test
+    public void upsamplingInterpolates() throws IOException {
+        short[] input = {0, 100, 200};
+        short[] expected = {0, 50, 100, 150, 200, 200};
+        assertArrayEquals(expected, convert(pcm16(input), 8000, 1, ConvertingPcmSource.ENCODING_PCM_16BIT, 16000, 1));
+    }
+
+    @Test
+    public void upsamplingHoldsTheLastFrame() throws IOException {
+        short[] input = {0, 300, 600, 900};
+        short[] expected = {0, 200, 400, 600, 800, 900};
+        assertArrayEquals(expected, convert(pcm16(input), 8000, 1, ConvertingPcmSource.ENCODING_PCM_16BIT, 12000, 1));
+
+        short[] stereo = {10, -10};
+        short[] held = {10, -10, 10, -10, 10, -10};
+        assertArrayEquals(held, convert(pcm16(stereo), 16000, 2, ConvertingPcmSource.ENCODING_PCM_16BIT, 48000, 2));
+    }
+
+    @Test
+    public void upsamplingDoesNotDependOnHowTheInputArrives() throws IOException {
+        short[] input = new short[1001];
+        for (int i = 0; i < input.length; i++)
+            input[i] = (short) (Math.sin(i * 0.05) * 20000);
+        byte[] pcm = pcm16(input);
+        ConvertingPcmSource source = new ConvertingPcmSource(new ByteArrayPcmSource(pcm), 22050, 1, ConvertingPcmSource.ENCODING_PCM_16BIT, 48000, 1);
+        byte[] whole = readAll(source, 8192);
+        byte[] trickled = readAll(new ConvertingPcmSource(new ByteArrayPcmSource(pcm, 3), 22050, 1, ConvertingPcmSource.ENCODING_PCM_16BIT, 48000, 1), 64);
+        assertArrayEquals(whole, trickled);
+        assertEquals(source.length(), whole.length, 2);
+        assertEquals(input[input.length - 1], samples16(whole)[whole.length / 2 - 1]);
+    }
+
+    @Test
+    public void outputDoesNotDependOnHowTheInputArrives() throws IOException {
+        short[] input = new short[3000];
+        for (int i = 0; i < input.length; i++)
+            input[i] = (short) (Math.sin(i * 0.05) * 20000);
+        byte[] pcm = pcm16(input);
+        byte[] whole = readAll(new ConvertingPcmSource(new ByteArrayPcmSource(pcm), 44100, 2, ConvertingPcmSource.ENCODING_PCM_16BIT, 16000, 1), 8192);
+        byte[] trickled = readAll(new ConvertingPcmSource(new ByteArrayPcmSource(pcm, 3), 44100, 2, ConvertingPcmSource.ENCODING_PCM_16BIT, 16000, 1), 64);
+        assertArrayEquals(whole, trickled);
+    }
+
+    @Test
+    public void trailingPartialFrameIsDropped() throws IOException {
+        byte[] pcm = {1, 0, 2, 0, 3}; // Two samples and half of a third
+        short[] expected = {1, 2};
+        assertArrayEquals(expected, convert(pcm, 16000, 1, ConvertingPcmSource.ENCODING_PCM_16BIT, 16000, 1));
+    }
+
+    @Test
+    public void lengthIsScaledToTheOutputFormat() {
+        ConvertingPcmSource source = new ConvertingPcmSource(new ByteArrayPcmSource(new byte[48000 * 4]), 48000, 2,
+                ConvertingPcmSource.ENCODING_PCM_16BIT, 16000, 1);
+        assertEquals(16000 * 2, source.length());
+    }
+
+    @Test
+    public void closeClosesUpstream() throws IOException {
+        ByteArrayPcmSource upstream = new ByteArrayPcmSource(new byte[0]);
+        new ConvertingPcmSource(upstream, 16000, 1, ConvertingPcmSource.ENCODING_PCM_16BIT, 8000, 1).close();
+        assertTrue(upstream.isClosed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooSmallBufferIsRejected() throws IOException {
+        ConvertingPcmSource source = new ConvertingPcmSource(new ByteArrayPcmSource(new byte[100]), 8000, 1,
+                ConvertingPcmSource.ENCODING_PCM_16BIT, 48000, 2);
+        source.read(ByteBuffer.allocate(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownEncodingIsRejected() {
+        new ConvertingPcmSource(new ByteArrayPcmSource(new byte[0]), 16000, 1, 99, 16000, 1);
+    }
+}
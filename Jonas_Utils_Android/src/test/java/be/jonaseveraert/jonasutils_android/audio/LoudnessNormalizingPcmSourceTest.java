@@ -0,0 +1,162 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static be.jonaseveraert.jonasutils_android.audio.ByteArrayPcmSource.pcm16;
+import static be.jonaseveraert.jonasutils_android.audio.ByteArrayPcmSource.readAll;
+import static be.jonaseveraert.jonasutils_android.audio.ByteArrayPcmSource.samples16;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Mono PCM at 1 kHz, so a window is 10 samples, with a look-ahead of 100 ms
+ */
+public class LoudnessNormalizingPcmSourceTest {
+    private static final int RATE = 1000;
+    private static final int LOOK_AHEAD_MS = 100;
+    private static final double TARGET_RMS = Short.MAX_VALUE * Math.pow(10, -20 / 20.0);
+    private static final double CEILING = Short.MAX_VALUE * Math.pow(10, -1 / 20.0);
+
+    /**
+     * @return a square wave, its RMS is {@code amplitude}
+     */
+    private static short[] square(int amplitude, int samples) {
+        short[] result = new short[samples];
+        for (int i = 0; i < samples; i++)
+            result[i] = (short) (i % 2 == 0 ? amplitude : -amplitude);
+        return result;
+    }
+
+    private static short[] concat(short[]... parts) {
+        int length = 0;
+        for (short[] part : parts)
+            length += part.length;
+        short[] result = new short[length];
+        int offset = 0;
+        for (short[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    private static LoudnessNormalizingPcmSource normalize(short[] samples, double maxGainDb) {
+        return normalize(samples, maxGainDb, new LoudnessNormalizingPcmSource.Loudness());
+    }
+
+    private static LoudnessNormalizingPcmSource normalize(short[] samples, double maxGainDb, LoudnessNormalizingPcmSource.Loudness loudness) {
+        return new LoudnessNormalizingPcmSource(new ByteArrayPcmSource(pcm16(samples)), RATE, 1, -20, LOOK_AHEAD_MS, maxGainDb, loudness);
+    }
+
+    @Test
+    public void quietPcmIsBroughtToTheTarget() throws IOException {
+        LoudnessNormalizingPcmSource source = normalize(square(1000, 2000), 20);
+        short[] output = samples16(readAll(source, 4096));
+        assertEquals(2000, output.length);
+        double gain = TARGET_RMS / 1000;
+        assertEquals(gain, source.getGain(), 1e-9);
+        // The gain ramps up within the first window
+        assertEquals(Math.round(1000 * (1 + (gain - 1) / 10)), output[0]);
+        for (int i = 10; i < output.length; i++)
+            assertEquals(Math.round((i % 2 == 0 ? 1000 : -1000) * gain), output[i]);
+    }
+
+    @Test
+    public void loudPcmIsAttenuated() throws IOException {
+        LoudnessNormalizingPcmSource source = normalize(square(20000, 500), 20);
+        short[] output = samples16(readAll(source, 4096));
+        assertEquals(Math.round(20000 * TARGET_RMS / 20000), output[100]);
+    }
+
+    @Test
+    public void gainIsCapped() throws IOException {
+        LoudnessNormalizingPcmSource source = normalize(square(200, 500), 6);
+        short[] output = samples16(readAll(source, 4096));
+        double maxGain = Math.pow(10, 6 / 20.0);
+        assertEquals(maxGain, source.getGain(), 1e-9);
+        assertEquals(Math.round(200 * maxGain), output[200]);
+    }
+
+    @Test
+    public void silenceDoesNotCount() throws IOException {
+        LoudnessNormalizingPcmSource source = normalize(concat(square(1000, 500), new short[3000], square(1000, 500)), 20);
+        short[] output = samples16(readAll(source, 4096));
+        assertEquals(4000, output.length);
+        assertEquals(TARGET_RMS / 1000, source.getGain(), 1e-9);
+        assertEquals(100, source.getLoudness().getGatedWindows());
+        assertEquals(0, output[2000]);
+    }
+
+    @Test
+    public void onlySilenceKeepsTheGain() throws IOException {
+        LoudnessNormalizingPcmSource source = normalize(new short[500], 20);
+        assertArrayEquals(new short[500], samples16(readAll(source, 4096)));
+        assertEquals(1, source.getGain(), 0);
+        assertEquals(0, source.getLoudness().getGatedWindows());
+    }
+
+    @Test
+    public void peaksInTheLookAheadLowerTheGainBeforeThey() throws IOException {
+        short[] peak = new short[10];
+        peak[5] = 20000;
+        short[] input = concat(square(1000, 1000), peak, square(1000, 100));
+        short[] output = samples16(readAll(normalize(input, 20), 4096));
+        for (short sample : output)
+            assertTrue("Sample " + sample + " is above the ceiling", Math.abs(sample) <= CEILING + 1);
+        assertEquals(CEILING, output[1005], 1);
+        // The gain came down linearly, there is no jump right before the peak
+        assertTrue(Math.abs(output[1004 - 1]) <= Math.abs(output[1004 - 9]));
+    }
+
+    @Test
+    public void smallReadsWrapTheRingTheSameWay() throws IOException {
+        short[] input = new short[5003];
+        for (int i = 0; i < input.length; i++)
+            input[i] = (short) (Math.sin(i / 7.0) * (i < 2500 ? 1500 : 9000));
+        byte[] whole = readAll(new LoudnessNormalizingPcmSource(new ByteArrayPcmSource(pcm16(input)), RATE, 2, -20, 70, 20), 65536);
+        // An odd amount of samples: the half frame at the end is dropped
+        assertEquals(5002 * 2, whole.length);
+        byte[] pieces = readAll(new LoudnessNormalizingPcmSource(new ByteArrayPcmSource(pcm16(input), 7), RATE, 2, -20, 70, 20), 3);
+        assertArrayEquals(whole, pieces);
+    }
+
+    @Test
+    public void nextPartContinuesFromTheLoudness() throws IOException {
+        LoudnessNormalizingPcmSource first = normalize(square(1000, 1000), 20);
+        readAll(first, 4096);
+        LoudnessNormalizingPcmSource.Loudness loudness = first.getLoudness();
+        assertEquals(100, loudness.getGatedWindows());
+        double gain = first.getGain();
+
+        // Quieter, but the loudness of the first part still counts
+        LoudnessNormalizingPcmSource second = normalize(square(500, 1000), 20, loudness);
+        short[] output = samples16(readAll(second, 4096));
+        // No ramp from 1 at the start of the part, only the small step to the new gain
+        assertEquals(500 * gain, output[0], 10);
+        assertEquals(200, second.getLoudness().getGatedWindows());
+        double rms = Math.sqrt((1000.0 * 1000 * 100 + 500.0 * 500 * 100) / 200);
+        assertEquals(TARGET_RMS / rms, second.getGain(), 1e-9);
+    }
+
+    @Test
+    public void closesUpstream() throws IOException {
+        ByteArrayPcmSource upstream = new ByteArrayPcmSource(pcm16(square(1000, 100)));
+        LoudnessNormalizingPcmSource source = new LoudnessNormalizingPcmSource(upstream, RATE, 1);
+        assertEquals(200, source.length());
+        source.close();
+        assertTrue(upstream.isClosed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLoudness() {
+        new LoudnessNormalizingPcmSource.Loudness(1, 1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLookAhead() {
+        new LoudnessNormalizingPcmSource(new ByteArrayPcmSource(new byte[0]), RATE, 1, -20, -10, 20);
+    }
+}
@@ -0,0 +1,254 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PcmPipeTest {
+    /**
+     * Runs {@code task} on a new thread and keeps what it throws
+     */
+    private static class Worker extends Thread {
+        private final Task task;
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        volatile boolean interruptedAfterwards;
+
+        Worker(Task task) {
+            this.task = task;
+            start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                thrown.set(t);
+            }
+            interruptedAfterwards = isInterrupted();
+        }
+
+        /**
+         * Waits until the worker is parked on one of the pipe's conditions
+         */
+        void awaitBlocked() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (getState() != State.WAITING) {
+                assertTrue("The worker never blocked", System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        }
+
+        void finish() throws InterruptedException {
+            join(5000);
+            assertFalse("The worker is still blocked", isAlive());
+        }
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static byte[] bytes(int count) {
+        byte[] data = new byte[count];
+        for (int i = 0; i < count; i++)
+            data[i] = (byte) (i * 7);
+        return data;
+    }
+
+    private static byte[] readAll(PcmPipe pipe, int chunk) throws IOException {
+        ByteBuffer all = ByteBuffer.allocate(1 << 16);
+        ByteBuffer buf = ByteBuffer.allocate(chunk);
+        int n;
+        while ((n = pipe.read(buf)) != -1) {
+            buf.flip();
+            all.put(buf);
+            buf.clear();
+            assertTrue(n > 0);
+        }
+        byte[] result = new byte[all.position()];
+        all.flip();
+        all.get(result);
+        return result;
+    }
+
+    @Test
+    public void dataPassesThroughASmallPipeInOrder() throws Exception {
+        final PcmPipe pipe = new PcmPipe(7);
+        final byte[] data = bytes(5000);
+        Worker writer = new Worker(new Task() {
+            @Override
+            public void run() throws Exception {
+                for (int offset = 0; offset < data.length; offset += 13)
+                    pipe.write(data, offset, Math.min(13, data.length - offset));
+                pipe.finish();
+            }
+        });
+        assertArrayEquals(data, readAll(pipe, 5));
+        writer.finish();
+        assertNull(writer.thrown.get());
+    }
+
+    @Test
+    public void byteBufferWritesAdvanceThePosition() throws Exception {
+        final PcmPipe pipe = new PcmPipe(3);
+        final byte[] data = bytes(100);
+        final ByteBuffer src = ByteBuffer.wrap(data);
+        Worker writer = new Worker(new Task() {
+            @Override
+            public void run() throws Exception {
+                pipe.write(src);
+                pipe.finish();
+            }
+        });
+        assertArrayEquals(data, readAll(pipe, 64));
+        writer.finish();
+        assertNull(writer.thrown.get());
+        assertFalse(src.hasRemaining());
+    }
+
+    @Test
+    public void readBlocksUntilDataArrives() throws Exception {
+        final PcmPipe pipe = new PcmPipe(16);
+        final ByteBuffer dst = ByteBuffer.allocate(16);
+        Worker reader = new Worker(new Task() {
+            @Override
+            public void run() throws Exception {
+                assertEquals(4, pipe.read(dst));
+            }
+        });
+        reader.awaitBlocked();
+        pipe.write(bytes(4), 0, 4);
+        reader.finish();
+        assertNull(reader.thrown.get());
+    }
+
+    @Test
+    public void writeBlocksWhileThePipeIsFull() throws Exception {
+        final PcmPipe pipe = new PcmPipe(4);
+        pipe.write(bytes(4), 0, 4);
+        Worker writer = new Worker(new Task() {
+            @Override
+            public void run() throws Exception {
+                pipe.write(bytes(2), 0, 2);
+            }
+        });
+        writer.awaitBlocked();
+        assertEquals(3, pipe.read(ByteBuffer.allocate(3)));
+        writer.finish();
+        assertNull(writer.thrown.get());
+        pipe.finish();
+        assertEquals(3, readAll(pipe, 8).length);
+    }
+
+    @Test
+    public void finishReturnsTheBufferedDataBeforeTheEnd() throws Exception {
+        PcmPipe pipe = new PcmPipe(8);
+        pipe.write(bytes(6), 0, 6);
+        pipe.finish();
+        assertArrayEquals(bytes(6), readAll(pipe, 4));
+        assertEquals(-1, pipe.read(ByteBuffer.allocate(4)));
+    }
+
+    @Test
+    public void finishWakesABlockedReader() throws Exception {
+        final PcmPipe pipe = new PcmPipe(8);
+        Worker reader = new Worker(new Task() {
+            @Override
+            public void run() throws Exception {
+                assertEquals(-1, pipe.read(ByteBuffer.allocate(8)));
+            }
+        });
+        reader.awaitBlocked();
+        pipe.finish();
+        reader.finish();
+        assertNull(reader.thrown.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void writeAfterFinishFails() throws IOException {
+        PcmPipe pipe = new PcmPipe(8);
+        pipe.finish();
+        pipe.write(bytes(1), 0, 1);
+    }
+
+    @Test
+    public void closeWakesABlockedWriter() throws Exception {
+        final PcmPipe pipe = new PcmPipe(2);
+        pipe.write(bytes(2), 0, 2);
+        Worker writer = new Worker(new Task() {
+            @Override
+            public void run() throws Exception {
+                pipe.write(bytes(1), 0, 1);
+            }
+        });
+        writer.awaitBlocked();
+        pipe.close();
+        writer.finish();
+        Throwable thrown = writer.thrown.get();
+        assertTrue(thrown instanceof IOException);
+        assertFalse(thrown instanceof InterruptedIOException);
+    }
+
+    @Test
+    public void closeWakesABlockedReader() throws Exception {
+        final PcmPipe pipe = new PcmPipe(2);
+        Worker reader = new Worker(new Task() {
+            @Override
+            public void run() throws Exception {
+                assertEquals(-1, pipe.read(ByteBuffer.allocate(2)));
+            }
+        });
+        reader.awaitBlocked();
+        pipe.close();
+        reader.finish();
+        assertNull(reader.thrown.get());
+    }
+
+    @Test
+    public void interruptingABlockedWriterThrowsInterruptedIOException() throws Exception {
+        final PcmPipe pipe = new PcmPipe(2);
+        pipe.write(bytes(2), 0, 2);
+        Worker writer = new Worker(new Task() {
+            @Override
+            public void run() throws Exception {
+                pipe.write(bytes(1), 0, 1);
+            }
+        });
+        writer.awaitBlocked();
+        writer.interrupt();
+        writer.finish();
+        assertTrue(writer.thrown.get() instanceof InterruptedIOException);
+        assertTrue(writer.interruptedAfterwards);
+    }
+
+    @Test
+    public void interruptingABlockedReaderThrowsInterruptedIOException() throws Exception {
+        final PcmPipe pipe = new PcmPipe(2);
+        Worker reader = new Worker(new Task() {
+            @Override
+            public void run() throws Exception {
+                pipe.read(ByteBuffer.allocate(2));
+            }
+        });
+        reader.awaitBlocked();
+        reader.interrupt();
+        reader.finish();
+        assertTrue(reader.thrown.get() instanceof InterruptedIOException);
+        assertTrue(reader.interruptedAfterwards);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityHasToBePositive() {
+        new PcmPipe(0);
+    }
+}
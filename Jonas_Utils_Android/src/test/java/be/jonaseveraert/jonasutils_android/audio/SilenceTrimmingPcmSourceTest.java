@@ -0,0 +1,199 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static be.jonaseveraert.jonasutils_android.audio.ByteArrayPcmSource.pcm16;
+import static be.jonaseveraert.jonasutils_android.audio.ByteArrayPcmSource.readAll;
+import static be.jonaseveraert.jonasutils_android.audio.ByteArrayPcmSource.samples16;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Mono PCM at 1 kHz, so a window is 10 samples. Every window has one value: below 100 it is
+ * silent, from 1000 on it is speech. The tests compare the values of the windows that come out.
+ */
+public class SilenceTrimmingPcmSourceTest {
+    private static final int RATE = 1000;
+    private static final int WINDOW = 10;
+    private static final int MIN_SILENCE_MS = 50;
+    private static final int MIN_SILENCE_WINDOWS = 5;
+
+    private static boolean isSpeech(int value) {
+        return value >= 1000;
+    }
+
+    private static byte[] windows(int... values) {
+        short[] samples = new short[values.length * WINDOW];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = (short) values[i / WINDOW];
+        return pcm16(samples);
+    }
+
+    private static int[] trimInPieces(int keepSilenceMs, int maxRead, int bufferSize, int... values) throws IOException {
+        SilenceTrimmingPcmSource source = new SilenceTrimmingPcmSource(new ByteArrayPcmSource(windows(values), maxRead),
+                RATE, 1, SilenceTrimmingPcmSource.DEFAULT_THRESHOLD_DBFS, MIN_SILENCE_MS, keepSilenceMs);
+        short[] samples = samples16(readAll(source, bufferSize));
+        assertEquals(0, samples.length % WINDOW);
+        int[] result = new int[samples.length / WINDOW];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = samples[i * WINDOW];
+            for (int k = 1; k < WINDOW; k++)
+                assertEquals("Window " + i + " is mixed up", result[i], samples[i * WINDOW + k]);
+        }
+        assertEquals(values.length - result.length, source.getDroppedFrames() / WINDOW);
+        return result;
+    }
+
+    private static int[] trim(int keepSilenceMs, int... values) throws IOException {
+        return trimInPieces(keepSilenceMs, Integer.MAX_VALUE, 4096, values);
+    }
+
+    /**
+     * What the trimming should keep: a long run its head and tail, leading silence its tail,
+     * trailing silence its head
+     */
+    private static int[] expected(int keepSilenceMs, int... values) {
+        int keepWindows = Math.min(MIN_SILENCE_WINDOWS, keepSilenceMs / 10);
+        int keepHead = keepWindows / 2;
+        int keepTail = keepWindows - keepHead;
+        List<Integer> kept = new ArrayList<>();
+        boolean speechSeen = false;
+        int i = 0;
+        while (i < values.length) {
+            if (isSpeech(values[i])) {
+                kept.add(values[i++]);
+                speechSeen = true;
+                continue;
+            }
+            int end = i;
+            while (end < values.length && !isSpeech(values[end]))
+                end++;
+            int length = end - i;
+            int head = 0;
+            int tail = 0;
+            if (!speechSeen)
+                tail = Math.min(keepTail, length);
+            else if (end == values.length)
+                head = Math.min(keepHead, length);
+            else if (length < MIN_SILENCE_WINDOWS)
+                head = length;
+            else {
+                head = keepHead;
+                tail = keepTail;
+            }
+            for (int k = 0; k < head; k++)
+                kept.add(values[i + k]);
+            for (int k = end - tail; k < end; k++)
+                kept.add(values[k]);
+            i = end;
+        }
+        int[] result = new int[kept.size()];
+        for (int k = 0; k < result.length; k++)
+            result[k] = kept.get(k);
+        return result;
+    }
+
+    private static void assertWindows(int[] expected, int[] actual) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    @Test
+    public void shortPauseIsKept() throws IOException {
+        assertWindows(new int[]{1000, 1, 2, 3, 1001}, trim(20, 1000, 1, 2, 3, 1001));
+    }
+
+    @Test
+    public void longRunKeepsItsHeadAndTail() throws IOException {
+        assertWindows(new int[]{1000, 1, 5, 1001}, trim(20, 1000, 1, 2, 3, 4, 5, 1001));
+        assertWindows(new int[]{1000, 1, 12, 1001}, trim(20, 1000, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 1001));
+        assertWindows(new int[]{1000, 1, 2, 11, 12, 1001}, trim(40, 1000, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 1001));
+        assertWindows(new int[]{1000, 1001}, trim(0, 1000, 1, 2, 3, 4, 5, 6, 1001));
+    }
+
+    @Test
+    public void leadingSilenceKeepsItsTail() throws IOException {
+        assertWindows(new int[]{8, 1000}, trim(20, 1, 2, 3, 4, 5, 6, 7, 8, 1000));
+        assertWindows(new int[]{2, 1000}, trim(20, 1, 2, 1000));
+        assertWindows(new int[]{2, 3, 1000}, trim(40, 1, 2, 3, 1000));
+    }
+
+    @Test
+    public void trailingSilenceKeepsItsHead() throws IOException {
+        assertWindows(new int[]{1000, 1}, trim(20, 1000, 1, 2, 3));
+        assertWindows(new int[]{1000, 1}, trim(20, 1000, 1, 2, 3, 4, 5, 6, 7, 8));
+        assertWindows(new int[]{1000, 1, 2}, trim(40, 1000, 1, 2, 3, 4, 5, 6, 7, 8));
+    }
+
+    @Test
+    public void onlySilenceKeepsWhatLeadingSilenceKeeps() throws IOException {
+        assertWindows(new int[]{9}, trim(20, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+        assertWindows(new int[0], trim(0, 1, 2, 3));
+        assertWindows(new int[0], trim(20));
+    }
+
+    @Test
+    public void heldWindowsWrapAroundTheRing() throws IOException {
+        // Runs of every length, so the start of the held windows ends up everywhere in the ring
+        List<Integer> values = new ArrayList<>();
+        int silent = 1;
+        int speech = 1000;
+        for (int run = 0; run < 40; run++) {
+            int length = (run * 7) % 13;
+            for (int k = 0; k < length; k++) {
+                values.add(silent);
+                silent = silent % 99 + 1;
+            }
+            values.add(speech++);
+        }
+        for (int k = 0; k < 6; k++)
+            values.add(silent++);
+        int[] input = new int[values.size()];
+        for (int i = 0; i < input.length; i++)
+            input[i] = values.get(i);
+
+        for (int keep : new int[]{0, 10, 20, 30, 40, 50}) {
+            int[] expected = expected(keep, input);
+            assertWindows(expected, trim(keep, input));
+            // Odd upstream reads and read buffers, which split windows and frames
+            assertWindows(expected, trimInPieces(keep, 7, 13, input));
+        }
+    }
+
+    @Test
+    public void shortLastWindowOfSpeechIsKept() throws IOException {
+        byte[] pcm = windows(1000, 1, 2, 3, 4, 5, 6);
+        byte[] withTail = Arrays.copyOf(pcm, pcm.length + 9);
+        // Four samples of speech and half a sample
+        for (int i = 0; i < 4; i++) {
+            withTail[pcm.length + 2 * i] = (byte) 0xD0;
+            withTail[pcm.length + 2 * i + 1] = 0x07; // 2000
+        }
+        SilenceTrimmingPcmSource source = new SilenceTrimmingPcmSource(new ByteArrayPcmSource(withTail),
+                RATE, 1, SilenceTrimmingPcmSource.DEFAULT_THRESHOLD_DBFS, MIN_SILENCE_MS, 20);
+        short[] samples = samples16(readAll(source, 4096));
+        assertEquals(3 * WINDOW + 4, samples.length);
+        assertEquals(1, samples[WINDOW]);
+        assertEquals(6, samples[2 * WINDOW]);
+        assertEquals(2000, samples[3 * WINDOW + 3]);
+        assertEquals(4 * WINDOW, source.getDroppedFrames());
+    }
+
+    @Test
+    public void closesUpstream() throws IOException {
+        ByteArrayPcmSource upstream = new ByteArrayPcmSource(windows(1000));
+        SilenceTrimmingPcmSource source = new SilenceTrimmingPcmSource(upstream, RATE, 1);
+        assertEquals(upstream.length(), source.length());
+        source.close();
+        assertTrue(upstream.isClosed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keptSilenceCantBeLongerThanTheMinimum() {
+        new SilenceTrimmingPcmSource(new ByteArrayPcmSource(new byte[0]), RATE, 1, -50, 100, 200);
+    }
+}
@@ -0,0 +1,245 @@
+package be.jonaseveraert.jonasutils_android.audio.codec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.jonaseveraert.jonasutils_android.audio.PcmSource;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the loop on the pure Java backend: {@link PassthroughAudioEncoder PassthroughAudioEncoder}
+ * copies the PCM into its output, which {@link FileAudioMuxer FileAudioMuxer} writes to a file
+ */
+public class EncodeLoopTest {
+    private static final int RATE = 8000;
+    private static final int CHANNELS = 2;
+    private static final PcmFormat FORMAT = new PcmFormat("audio/raw", RATE, CHANNELS);
+
+    private File output;
+    private RecordingMuxer muxer;
+
+    /**
+     * Remembers the samples it was given and whether it was stopped and released
+     */
+    static final class RecordingMuxer extends FileAudioMuxer {
+        final List<Long> presentationTimesUs = new ArrayList<>();
+        final List<Integer> flags = new ArrayList<>();
+        int stopped = 0;
+        int released = 0;
+        boolean failWrites = false;
+
+        RecordingMuxer(File outputFile) throws IOException {
+            super(outputFile);
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer data, SampleInfo info) throws IOException {
+            if (failWrites)
+                throw new IOException("Disk full");
+            presentationTimesUs.add(info.presentationTimeUs);
+            flags.add(info.flags);
+            super.writeSampleData(trackIndex, data, info);
+        }
+
+        @Override
+        public void stop() throws IOException {
+            stopped++;
+            super.stop();
+        }
+
+        @Override
+        public void release() {
+            released++;
+            super.release();
+        }
+    }
+
+    /**
+     * Hands out its data in reads of at most {@code maxRead} bytes. Read number {@code failAt}
+     * (counting from 1) throws, or interrupts the reading thread when {@code interruptAt} is set.
+     */
+    static final class ScriptedSource implements PcmSource {
+        private final byte[] data;
+        private final int maxRead;
+        private int position = 0;
+        int reads = 0;
+        int failAt = -1;
+        int interruptAt = -1;
+
+        ScriptedSource(byte[] data, int maxRead) {
+            this.data = data;
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            reads++;
+            if (reads == failAt)
+                throw new IOException("Read error");
+            if (reads == interruptAt)
+                Thread.currentThread().interrupt();
+            if (position == data.length)
+                return -1;
+            int count = Math.min(Math.min(maxRead, dst.remaining()), data.length - position);
+            dst.put(data, position, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long length() {
+            return data.length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        output = File.createTempFile("encode-loop", ".pcm");
+        muxer = new RecordingMuxer(output);
+    }
+
+    @After
+    public void tearDown() {
+        // Don't leak an interrupt into the next test
+        Thread.interrupted();
+        muxer.release();
+        output.delete();
+    }
+
+    private static byte[] pcm(int bytes) {
+        byte[] data = new byte[bytes];
+        for (int i = 0; i < bytes; i++)
+            data[i] = (byte) (i * 31);
+        return data;
+    }
+
+    private EncodeLoop<PcmFormat> loop(int bufferCount, int bufferSize) {
+        return new EncodeLoop<>(new PassthroughAudioEncoder(FORMAT, bufferCount, bufferSize), muxer, RATE, CHANNELS, 0);
+    }
+
+    private byte[] readOutput() throws IOException {
+        byte[] result = new byte[(int) output.length()];
+        try (FileInputStream in = new FileInputStream(output)) {
+            int offset = 0;
+            int read;
+            while (offset < result.length && (read = in.read(result, offset, result.length - offset)) != -1)
+                offset += read;
+        }
+        return result;
+    }
+
+    @Test
+    public void encodesUntilTheEndOfTheSource() throws IOException {
+        byte[] data = pcm(10000);
+        final List<Long> progress = new ArrayList<>();
+        EncodeLoop<PcmFormat> loop = loop(3, 1024);
+        loop.setListener(new EncodeLoop.Listener() {
+            @Override
+            public void onProgress(long totalBytesRead) {
+                progress.add(totalBytesRead);
+            }
+        });
+        assertTrue(loop.run(new ScriptedSource(data, 700)));
+
+        assertArrayEquals(data, readOutput());
+        assertEquals(10000L, (long) progress.get(progress.size() - 1));
+        assertEquals(1, muxer.stopped);
+        assertEquals(1, muxer.released);
+    }
+
+    @Test
+    public void endOfStreamIsTheLastSampleWithTheFinalTime() throws IOException {
+        // 1000 frames of 4 bytes, in reads of 400 bytes (100 frames, 12.5 ms)
+        assertTrue(loop(2, 4096).run(new ScriptedSource(pcm(4000), 400)));
+        int samples = muxer.flags.size();
+        assertEquals(11, samples);
+        for (int i = 0; i < samples - 1; i++) {
+            assertEquals(0, (int) muxer.flags.get(i));
+            assertEquals(i * 12500L, (long) muxer.presentationTimesUs.get(i));
+        }
+        assertEquals(AudioEncoder.BUFFER_FLAG_END_OF_STREAM, (int) muxer.flags.get(samples - 1));
+        assertEquals(125000L, (long) muxer.presentationTimesUs.get(samples - 1));
+    }
+
+    @Test
+    public void emptySourceOnlyWritesTheEndOfStream() throws IOException {
+        assertTrue(loop(1, 64).run(new ScriptedSource(new byte[0], 64)));
+        assertEquals(0, output.length());
+        assertEquals(1, muxer.flags.size());
+        assertEquals(AudioEncoder.BUFFER_FLAG_END_OF_STREAM, (int) muxer.flags.get(0));
+        assertEquals(1, muxer.stopped);
+    }
+
+    @Test
+    public void interruptBeforeTheRunCancelsIt() throws IOException {
+        ScriptedSource source = new ScriptedSource(pcm(4000), 400);
+        Thread.currentThread().interrupt();
+        try {
+            loop(2, 1024).run(source);
+            fail("The loop ran while interrupted");
+        } catch (InterruptedIOException expected) {
+            // Cancelled
+        }
+        assertEquals(0, source.reads);
+        assertEquals(0, muxer.stopped);
+        assertEquals(1, muxer.released);
+    }
+
+    @Test
+    public void interruptWhileRunningCancelsIt() throws IOException {
+        ScriptedSource source = new ScriptedSource(pcm(40000), 400);
+        source.interruptAt = 3;
+        try {
+            loop(1, 1024).run(source);
+            fail("The loop didn't stop when interrupted");
+        } catch (InterruptedIOException expected) {
+            // Cancelled by the loop or by the file channel of the muxer
+        }
+        assertTrue(source.reads < 100);
+        assertEquals(0, muxer.stopped);
+        assertEquals(1, muxer.released);
+    }
+
+    @Test
+    public void failedReadReleasesTheMuxer() {
+        ScriptedSource source = new ScriptedSource(pcm(4000), 400);
+        source.failAt = 4;
+        try {
+            loop(2, 1024).run(source);
+            fail("The read error was swallowed");
+        } catch (IOException expected) {
+            assertEquals("Read error", expected.getMessage());
+        }
+        assertEquals(0, muxer.stopped);
+        assertEquals(1, muxer.released);
+    }
+
+    @Test
+    public void failedWriteReleasesTheMuxer() {
+        muxer.failWrites = true;
+        try {
+            loop(2, 1024).run(new ScriptedSource(pcm(4000), 400));
+            fail("The write error was swallowed");
+        } catch (IOException expected) {
+            assertEquals("Disk full", expected.getMessage());
+        }
+        assertEquals(1, muxer.released);
+    }
+}
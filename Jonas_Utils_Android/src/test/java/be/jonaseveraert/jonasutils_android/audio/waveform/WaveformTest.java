@@ -0,0 +1,234 @@
+package be.jonaseveraert.jonasutils_android.audio.waveform;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class WaveformTest {
+    private static ByteBuffer pcm(short... samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (short sample : samples)
+            buffer.putShort(sample);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Waveform build(int channels, int blockFrames, short... samples) {
+        WaveformBuilder builder = new WaveformBuilder(8000, channels, blockFrames);
+        ByteBuffer buffer = pcm(samples);
+        builder.accumulate(buffer, 0, buffer.remaining());
+        return builder.build();
+    }
+
+    private static void assertBlock(Waveform waveform, int level, int block, int min, int max, int rms) {
+        assertEquals("min", min, waveform.getMin(level, block));
+        assertEquals("max", max, waveform.getMax(level, block));
+        assertEquals("rms", rms, waveform.getRms(level, block));
+    }
+
+    private static void assertSameWaveform(Waveform expected, Waveform actual) {
+        assertEquals(expected.getSamplingRate(), actual.getSamplingRate());
+        assertEquals(expected.getChannels(), actual.getChannels());
+        assertEquals(expected.getFrameCount(), actual.getFrameCount());
+        assertEquals(expected.getLevelCount(), actual.getLevelCount());
+        for (int level = 0; level < expected.getLevelCount(); level++) {
+            assertEquals(expected.getBlockFrames(level), actual.getBlockFrames(level));
+            assertEquals(expected.getBlockCount(level), actual.getBlockCount(level));
+            for (int block = 0; block < expected.getBlockCount(level); block++)
+                assertBlock(actual, level, block, expected.getMin(level, block), expected.getMax(level, block), expected.getRms(level, block));
+        }
+    }
+
+    @Test
+    public void blocksHoldMinMaxAndRms() {
+        Waveform waveform = build(1, 4, (short) 1, (short) -2, (short) 3, (short) -4, (short) 10, (short) 10, (short) 10, (short) 10, (short) -5);
+        assertEquals(9, waveform.getFrameCount());
+        assertEquals(3, waveform.getBlockCount(0));
+        assertBlock(waveform, 0, 0, -4, 3, 3); // sqrt(7.5)
+        assertBlock(waveform, 0, 1, 10, 10, 10);
+        // The last block is shorter
+        assertBlock(waveform, 0, 2, -5, -5, 5);
+    }
+
+    @Test
+    public void blocksSpanAllChannels() {
+        Waveform waveform = build(2, 2, (short) 1, (short) -8, (short) 2, (short) 7, (short) 0, (short) 0);
+        assertEquals(3, waveform.getFrameCount());
+        assertEquals(2, waveform.getBlockCount(0));
+        assertBlock(waveform, 0, 0, -8, 7, 5); // sqrt(118 / 4)
+        assertBlock(waveform, 0, 1, 0, 0, 0);
+    }
+
+    @Test
+    public void samplesSplitOverBuffersAreJoined() {
+        short[] samples = new short[100];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = (short) ((i * 7919) % 65536 - 32768);
+        Waveform whole = build(2, 3, samples);
+
+        // Every byte in a separate call, so every other sample is split
+        byte[] bytes = pcm(samples).array();
+        WaveformBuilder builder = new WaveformBuilder(8000, 2, 3);
+        for (int i = 0; i < bytes.length; i++)
+            builder.accumulate(ByteBuffer.wrap(bytes), i, 1);
+        assertSameWaveform(whole, builder.build());
+
+        // Odd sizes at an offset in a big endian buffer that is left as it was
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 5).order(ByteOrder.BIG_ENDIAN);
+        buffer.position(5);
+        buffer.put(bytes);
+        buffer.position(1);
+        builder = new WaveformBuilder(8000, 2, 3);
+        for (int offset = 5; offset < buffer.capacity(); offset += 7)
+            builder.accumulate(buffer, offset, Math.min(7, buffer.capacity() - offset));
+        assertSameWaveform(whole, builder.build());
+        assertEquals(1, buffer.position());
+        assertEquals(buffer.capacity(), buffer.limit());
+        assertSame(ByteOrder.BIG_ENDIAN, buffer.order());
+    }
+
+    @Test
+    public void levelsMergeFourBlocks() {
+        Waveform waveform = build(1, 1, (short) 3, (short) -4, (short) 0, (short) 0, (short) 12);
+        assertEquals(3, waveform.getLevelCount());
+        assertEquals(1, waveform.getBlockFrames(0));
+        assertEquals(4, waveform.getBlockFrames(1));
+        assertEquals(16, waveform.getBlockFrames(2));
+        assertEquals(5, waveform.getBlockCount(0));
+        assertEquals(2, waveform.getBlockCount(1));
+        assertEquals(1, waveform.getBlockCount(2));
+
+        assertBlock(waveform, 1, 0, -4, 3, 3); // sqrt(25 / 4) rounded
+        assertBlock(waveform, 1, 1, 12, 12, 12);
+        // Weighted by the frames of each block: (3 * 3 * 4 + 12 * 12 * 1) / 5
+        assertBlock(waveform, 2, 0, -4, 12, 6);
+    }
+
+    @Test
+    public void emptyWaveformHasOneEmptyLevel() {
+        Waveform waveform = new WaveformBuilder(8000, 1).build();
+        assertEquals(0, waveform.getFrameCount());
+        assertEquals(1, waveform.getLevelCount());
+        assertEquals(0, waveform.getBlockCount(0));
+        assertEquals(0, waveform.getPeaks(0, 100, 10, new short[10], new short[10], null));
+    }
+
+    @Test
+    public void peaksUseTheCoarsestLevelThatFits() {
+        short[] samples = new short[16];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = (short) (i % 2 == 0 ? i : -i);
+        Waveform waveform = build(1, 1, samples);
+        short[] min = new short[4];
+        short[] max = new short[4];
+        short[] rms = new short[4];
+        assertEquals(4, waveform.getPeaks(0, 16, 4, min, max, rms));
+        for (int bucket = 0; bucket < 4; bucket++) {
+            assertEquals(-(4 * bucket + 3), min[bucket]);
+            assertEquals(4 * bucket + 2, max[bucket]);
+            assertEquals(waveform.getRms(1, bucket), rms[bucket]);
+        }
+
+        // A part of the recording, past its end
+        assertEquals(2, waveform.getPeaks(12, 100, 2, min, max, null));
+        assertEquals(-13, min[0]);
+        assertEquals(14, max[1]);
+    }
+
+    @Test
+    public void binaryRoundTrip() throws IOException {
+        short[] samples = new short[1000];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = (short) (Math.sin(i / 10.0) * 20000);
+        Waveform waveform = build(2, 16, samples);
+        assertEquals(4, waveform.getLevelCount());
+
+        ByteBuffer binary = waveform.toBinary();
+        Waveform copy = Waveform.fromBinary(binary);
+        assertEquals(0, binary.position());
+        assertSameWaveform(waveform, copy);
+        assertEquals(binary, copy.toBinary());
+    }
+
+    @Test
+    public void sidecarRoundTrip() throws IOException {
+        File audio = File.createTempFile("waveform", ".m4a");
+        File sidecar = Waveform.sidecarFor(audio);
+        try {
+            assertEquals(audio.getPath() + ".wfm", sidecar.getPath());
+            WaveformBuilder builder = new WaveformBuilder(16000, 1, 2);
+            ByteBuffer buffer = pcm((short) 100, (short) -100, (short) 50);
+            builder.accumulate(buffer, 0, buffer.remaining());
+            Waveform written = builder.writeTo(sidecar);
+            assertSameWaveform(written, Waveform.read(sidecar));
+        } finally {
+            audio.delete();
+            sidecar.delete();
+        }
+    }
+
+    @Test
+    public void invalidBinaryIsRejected() {
+        ByteBuffer binary = build(1, 1, (short) 1, (short) 2, (short) 3).toBinary();
+        ByteBuffer wrongMagic = ByteBuffer.allocate(binary.remaining());
+        wrongMagic.put(binary.duplicate()).flip();
+        wrongMagic.putInt(0, 0);
+        ByteBuffer truncated = (ByteBuffer) binary.duplicate().limit(binary.limit() - 1);
+        ByteBuffer header = (ByteBuffer) binary.duplicate().limit(12);
+
+        for (ByteBuffer invalid : new ByteBuffer[]{wrongMagic, truncated, header}) {
+            try {
+                Waveform.fromBinary(invalid);
+                fail("Read an invalid waveform");
+            } catch (IOException expected) {
+                // Rejected
+            }
+        }
+    }
+
+    @Test
+    public void appendedWaveformContinuesTheBlocks() {
+        short[] first = {5, -5, 5, -5, 2, 2, -2, 2};
+        short[] second = {7, -7, 7, 7, 1, -1};
+        short[] all = new short[first.length + second.length];
+        System.arraycopy(first, 0, all, 0, first.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+
+        WaveformBuilder builder = new WaveformBuilder(8000, 1, 4);
+        builder.append(build(1, 4, first));
+        assertEquals(first.length, builder.getFrameCount());
+        ByteBuffer buffer = pcm(second);
+        builder.accumulate(buffer, 0, buffer.remaining());
+        assertSameWaveform(build(1, 4, all), builder.build());
+    }
+
+    @Test
+    public void appendedWaveformThatEndsInAPartialBlock() {
+        WaveformBuilder builder = new WaveformBuilder(8000, 1, 4);
+        builder.append(build(1, 4, (short) 3, (short) 3, (short) 3, (short) 3, (short) -3, (short) -3));
+        builder.append(build(1, 4, (short) 3, (short) 3));
+        Waveform waveform = builder.build();
+        assertEquals(8, waveform.getFrameCount());
+        assertEquals(2, waveform.getBlockCount(0));
+        assertBlock(waveform, 0, 1, -3, 3, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void appendedWaveformNeedsTheSameFormat() {
+        new WaveformBuilder(8000, 2).append(build(1, 4, (short) 1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void appendAfterAnIncompleteSample() {
+        WaveformBuilder builder = new WaveformBuilder(8000, 1, 4);
+        builder.accumulate(pcm((short) 1), 0, 1);
+        builder.append(build(1, 4, (short) 1));
+    }
+}
@@ -0,0 +1,290 @@
+package be.jonaseveraert.jonasutils_android.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileUtilsTest {
+    private static final int MB = 1024 * 1024;
+
+    private File dir;
+
+    /**
+     * Records every progress report
+     */
+    private static class RecordingListener implements FileUtils.CopyListener {
+        final List<long[]> reports = new ArrayList<>();
+
+        @Override
+        public void onProgress(long bytesCopied, long totalBytes) {
+            reports.add(new long[]{bytesCopied, totalBytes});
+        }
+
+        void assertReports(long total, long... copied) {
+            assertEquals(copied.length, reports.size());
+            for (int i = 0; i < copied.length; i++) {
+                assertEquals(copied[i], reports.get(i)[0]);
+                assertEquals(total, reports.get(i)[1]);
+            }
+        }
+    }
+
+    /**
+     * A file channel that transfers at most {@code transferLimit} bytes with {@code transferTo}
+     * and returns 0 from there, like a channel that doesn't support transferring
+     */
+    private static class LimitedTransferChannel extends FileChannel {
+        private final FileChannel channel;
+        private final long transferLimit;
+
+        LimitedTransferChannel(FileChannel channel, long transferLimit) {
+            this.channel = channel;
+            this.transferLimit = transferLimit;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            if (position >= transferLimit)
+                return 0;
+            return channel.transferTo(position, Math.min(count, transferLimit - position), target);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("file-utils").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        deleteTree(dir);
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteTree(child);
+        }
+        file.delete();
+    }
+
+    private File write(String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (byte) (i * 31 + i / 4096);
+        File file = new File(dir, name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private void assertOnlyFiles(String... names) {
+        String[] files = dir.list();
+        Arrays.sort(files);
+        Arrays.sort(names);
+        assertArrayEquals(names, files);
+    }
+
+    @Test
+    public void copyReplacesTheTarget() throws IOException {
+        File src = write("src", 5000);
+        File dst = write("dst", 100000);
+        FileUtils.copyTo(src, dst);
+        assertArrayEquals(read(src), read(dst));
+    }
+
+    @Test
+    public void durableCopyRenamesTheCompleteFileIntoPlace() throws IOException {
+        File src = write("src", 3 * MB);
+        File dst = write("dst", 10);
+        RecordingListener listener = new RecordingListener();
+        FileUtils.copyTo(src, dst, listener, true);
+        assertArrayEquals(read(src), read(dst));
+        listener.assertReports(3 * MB, 3 * MB);
+        // The temporary file is gone
+        assertOnlyFiles("src", "dst");
+    }
+
+    @Test
+    public void failedDurableCopyKeepsTheTargetAndRemovesTheTemporaryFile() throws IOException {
+        File dst = write("dst", 10);
+        try {
+            FileUtils.copyTo(new File(dir, "missing"), dst, null, true);
+            fail("The source doesn't exist");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(10, dst.length());
+        assertOnlyFiles("dst");
+    }
+
+    @Test
+    public void failedRenameRemovesTheTemporaryFile() throws IOException {
+        File src = write("src", 1000);
+        // A directory with a file in it can't be replaced by a rename
+        File dst = new File(dir, "dst");
+        assertTrue(dst.mkdir());
+        assertTrue(new File(dst, "child").createNewFile());
+        try {
+            FileUtils.copyTo(src, dst, null, true);
+            fail("The rename can't succeed");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertOnlyFiles("src", "dst");
+        assertTrue(dst.isDirectory());
+    }
+
+    @Test
+    public void largeCopyReportsEveryChunk() throws IOException {
+        File src = write("src", 20 * MB);
+        File dst = new File(dir, "dst");
+        RecordingListener listener = new RecordingListener();
+        FileUtils.copyTo(src, dst, listener, false);
+        assertArrayEquals(read(src), read(dst));
+        listener.assertReports(20 * MB, 8 * MB, 16 * MB, 20 * MB);
+    }
+
+    @Test
+    public void emptyFileIsCopiedWithoutReports() throws IOException {
+        File src = write("src", 0);
+        File dst = new File(dir, "dst");
+        RecordingListener listener = new RecordingListener();
+        FileUtils.copyTo(src, dst, listener, true);
+        assertTrue(dst.isFile());
+        assertEquals(0, dst.length());
+        listener.assertReports(0);
+    }
+
+    @Test
+    public void copyContinuesWithABufferWhereTransferStops() throws IOException {
+        File src = write("src", 10 * MB + 123);
+        File dst = new File(dir, "dst");
+        RecordingListener listener = new RecordingListener();
+        try (FileInputStream in = new FileInputStream(src);
+             FileOutputStream out = new FileOutputStream(dst)) {
+            FileUtils.copy(new LimitedTransferChannel(in.getChannel(), 3 * MB), out.getChannel(), listener);
+        }
+        assertArrayEquals(read(src), read(dst));
+        listener.assertReports(10 * MB + 123, 3 * MB, 10 * MB + 123);
+    }
+
+    @Test
+    public void bufferCopyReportsEveryChunk() throws IOException {
+        File src = write("src", 20 * MB);
+        File dst = new File(dir, "dst");
+        RecordingListener listener = new RecordingListener();
+        try (FileInputStream in = new FileInputStream(src);
+             FileOutputStream out = new FileOutputStream(dst)) {
+            FileUtils.copy(new LimitedTransferChannel(in.getChannel(), 0), out.getChannel(), listener);
+        }
+        assertArrayEquals(read(src), read(dst));
+        listener.assertReports(20 * MB, 8 * MB, 16 * MB, 20 * MB);
+    }
+}
@@ -0,0 +1,195 @@
+package be.jonaseveraert.jonasutils_android.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TreeCopierTest {
+    private static final int LARGE_FILE_THRESHOLD = 1024;
+
+    private File dir;
+    private File source;
+    private TreeCopier copier;
+
+    /**
+     * A copier that can't rename, like a move to another volume
+     */
+    private static class CrossVolumeCopier extends TreeCopier {
+        CrossVolumeCopier() {
+            super(2, 1, LARGE_FILE_THRESHOLD);
+        }
+
+        @Override
+        boolean rename(File source, File target) {
+            return false;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tree-copier").toFile();
+        source = new File(dir, "source");
+        write(new File(source, "small"), 100);
+        write(new File(source, "large"), 3 * LARGE_FILE_THRESHOLD);
+        write(new File(source, "sub/nested"), 10);
+        copier = new TreeCopier(2, 1, LARGE_FILE_THRESHOLD);
+    }
+
+    @After
+    public void tearDown() {
+        copier.shutdown();
+        deleteTree(dir);
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = Files.isSymbolicLink(file.toPath()) ? null : file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteTree(child);
+        }
+        file.delete();
+    }
+
+    private static void write(File file, int size) throws IOException {
+        file.getParentFile().mkdirs();
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (byte) (i + size);
+        Files.write(file.toPath(), data);
+    }
+
+    private static void assertSameTree(File expected, File actual) throws IOException {
+        assertTrue(actual + " is missing", actual.exists());
+        if (expected.isDirectory()) {
+            assertTrue(actual.isDirectory());
+            String[] names = expected.list();
+            assertEquals(names.length, actual.list().length);
+            for (String name : names)
+                assertSameTree(new File(expected, name), new File(actual, name));
+        } else {
+            assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+        }
+    }
+
+    @Test
+    public void copyTreeCopiesEveryFile() throws IOException {
+        File target = new File(dir, "target");
+        copier.copyTree(source, target);
+        assertSameTree(source, target);
+        assertEquals(3, copier.getFilesCopied());
+        assertEquals(3, copier.getTotalFiles());
+        assertEquals(110 + 3 * LARGE_FILE_THRESHOLD, copier.getBytesCopied());
+        assertEquals(copier.getTotalBytes(), copier.getBytesCopied());
+    }
+
+    @Test
+    public void moveAcrossVolumesCopiesAndDeletesTheSource() throws IOException {
+        File expected = new File(dir, "expected");
+        copier.copyTree(source, expected);
+        File target = new File(dir, "moved/target");
+        copier.shutdown();
+        copier = new CrossVolumeCopier();
+        copier.moveTree(source, target);
+        assertFalse(source.exists());
+        assertSameTree(expected, target);
+    }
+
+    @Test
+    public void failedMoveAcrossVolumesRemovesThePartialCopy() throws IOException {
+        // The link is listed as a file, but opening it fails
+        Files.createSymbolicLink(new File(source, "sub/broken").toPath(), new File(dir, "missing").toPath());
+        File target = new File(dir, "target");
+        copier.shutdown();
+        copier = new CrossVolumeCopier();
+        try {
+            copier.moveTree(source, target);
+            fail("The broken link can't be copied");
+        } catch (CopyCancelledException e) {
+            fail("The move wasn't cancelled");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertFalse(target.exists());
+        assertTrue(new File(source, "large").isFile());
+        assertTrue(new File(source, "sub/nested").isFile());
+        assertTrue(Files.isSymbolicLink(new File(source, "sub/broken").toPath()));
+    }
+
+    @Test
+    public void moveToAnExistingTargetFails() throws IOException {
+        File target = new File(dir, "target");
+        assertTrue(target.mkdir());
+        try {
+            copier.moveTree(source, target);
+            fail("The target exists");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertTrue(new File(source, "small").isFile());
+        assertEquals(0, target.list().length);
+    }
+
+    @Test
+    public void cancelBeforeTheCopyStopsIt() throws IOException {
+        File target = new File(dir, "target");
+        copier.cancel();
+        try {
+            copier.copyTree(source, target);
+            fail("The copy was cancelled");
+        } catch (CopyCancelledException e) {
+            // Expected
+        }
+        assertFalse(target.exists());
+
+        // The cancel was used up by the cancelled copy
+        copier.copyTree(source, target);
+        assertSameTree(source, target);
+    }
+
+    @Test
+    public void cancelBeforeTheMoveStopsIt() throws IOException {
+        File expected = new File(dir, "expected");
+        copier.copyTree(source, expected);
+        File target = new File(dir, "target");
+        copier.cancel();
+        try {
+            copier.moveTree(source, target);
+            fail("The move was cancelled");
+        } catch (CopyCancelledException e) {
+            // Expected
+        }
+        assertFalse(target.exists());
+        assertSameTree(expected, source);
+
+        copier.moveTree(source, target);
+        assertFalse(source.exists());
+        assertSameTree(expected, target);
+    }
+
+    @Test
+    public void linkToAContainingDirectoryIsSkipped() throws IOException {
+        Files.createSymbolicLink(new File(source, "sub/loop").toPath(), source.toPath());
+        // A link to a directory that doesn't contain it is followed
+        Files.createSymbolicLink(new File(source, "link").toPath(), new File(source, "sub").toPath());
+        File target = new File(dir, "target");
+        copier.copyTree(source, target);
+
+        assertTrue(new File(target, "sub/nested").isFile());
+        assertFalse(new File(target, "sub/loop").exists());
+        assertTrue(new File(target, "link").isDirectory());
+        assertFalse(Files.isSymbolicLink(new File(target, "link").toPath()));
+        assertTrue(new File(target, "link/nested").isFile());
+        assertFalse(new File(target, "link/loop").exists());
+        assertEquals(4, copier.getTotalFiles());
+    }
+}
@@ -0,0 +1,182 @@
+package be.jonaseveraert.jonasutils_android.progressBar;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProgressBarHandlerTest {
+    /**
+     * Remembers what it shows and checks it never goes past the end
+     */
+    static final class RecordingView implements ProgressView {
+        volatile int max;
+        volatile int progress;
+        volatile int highest;
+
+        @Override
+        public void setMax(int max) {
+            this.max = max;
+        }
+
+        @Override
+        public void setProgress(int progress) {
+            this.progress = progress;
+            highest = Math.max(highest, progress);
+        }
+
+        @Override
+        public int getProgress() {
+            return progress;
+        }
+    }
+
+    /**
+     * Draws on the reporting thread
+     */
+    static final class DirectExecutor implements Executor {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+
+    private RecordingView view;
+    private ProgressBarHandler handler;
+
+    @Before
+    public void setUp() {
+        view = new RecordingView();
+        handler = new ProgressBarHandler(view, new DirectExecutor());
+    }
+
+    private void start(int... activities) {
+        handler.setNumSubProcesses(activities.length);
+        for (int i = 0; i < activities.length; i++) {
+            handler.setNumActivitiesInSubProcesses(i, activities[i]);
+            handler.setSubProcessInfo(i, "Step " + i);
+        }
+        handler.startProgressBar();
+    }
+
+    @Test
+    public void activitiesFillTheirSubProcess() {
+        start(4, 4);
+        assertEquals(100, view.max);
+        handler.completeActivity(true);
+        handler.completeActivity(true);
+        assertEquals(25, handler.getProgress(), 1e-9);
+        assertEquals(25, view.progress);
+        handler.completeActivity(true);
+        handler.completeActivity(true);
+        assertEquals(50, handler.getProgress(), 1e-9);
+        for (int i = 0; i < 4; i++)
+            handler.completeActivity(true);
+        assertEquals(100, handler.getProgress(), 1e-9);
+        assertEquals(100, view.progress);
+
+        // The process is complete, more activities change nothing
+        handler.completeActivity(true);
+        handler.completeActivities(3);
+        assertEquals(100, handler.getProgress(), 1e-9);
+    }
+
+    @Test
+    public void activitiesWithoutAutoCompleteStayInTheirSubProcess() {
+        start(2, 2);
+        handler.completeActivity(false);
+        handler.completeActivity(false);
+        handler.completeActivity(false);
+        assertEquals(50, handler.getProgress(), 1e-9);
+        handler.completeSubProcess();
+        handler.completeActivity(false);
+        assertEquals(75, handler.getProgress(), 1e-9);
+    }
+
+    @Test
+    public void tooManyActivitiesDontPassTheSubProcess() {
+        start(4, 4);
+        handler.completeActivities(10);
+        assertEquals(50, handler.getProgress(), 1e-9);
+        // The count is past the end, the next activity still completes the sub-process
+        handler.completeActivity(true);
+        assertEquals(50, handler.getProgress(), 1e-9);
+        handler.completeActivities(2);
+        assertEquals(75, handler.getProgress(), 1e-9);
+    }
+
+    @Test
+    public void completeSubProcessMovesToTheNextOne() {
+        start(10, 10, 10, 10);
+        handler.completeActivity(true);
+        handler.completeSubProcess();
+        assertEquals(25, handler.getProgress(), 1e-9);
+        handler.completeSubProcess();
+        handler.completeSubProcess();
+        handler.completeSubProcess();
+        assertEquals(100, handler.getProgress(), 1e-9);
+        handler.completeSubProcess();
+        assertEquals(100, handler.getProgress(), 1e-9);
+    }
+
+    @Test
+    public void startAgainResetsTheProgress() {
+        start(1);
+        handler.completeActivity(true);
+        assertEquals(100, handler.getProgress(), 1e-9);
+        handler.startProgressBar();
+        assertEquals(0, handler.getProgress(), 1e-9);
+        assertEquals(0, view.progress);
+        handler.completeActivity(true);
+        assertEquals(100, handler.getProgress(), 1e-9);
+    }
+
+    @Test
+    public void concurrentActivitiesNeverPassTheEnd() throws InterruptedException {
+        final int threads = 8;
+        final int activities = 3000;
+        for (int round = 0; round < 20; round++) {
+            setUp();
+            start(activities, activities, activities);
+            final CountDownLatch go = new CountDownLatch(1);
+            final AtomicReference<String> failure = new AtomicReference<>();
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            go.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        double last = 0;
+                        // More than needed, the extra ones come after the process completed
+                        for (int i = 0; i < 3 * activities / threads + 100; i++) {
+                            handler.completeActivity(true);
+                            double progress = handler.getProgress();
+                            if (progress > 100 || progress < last)
+                                failure.compareAndSet(null, "Progress went from " + last + " to " + progress);
+                            last = progress;
+                        }
+                    }
+                });
+                workers[t].start();
+            }
+            go.countDown();
+            for (Thread worker : workers)
+                worker.join();
+
+            assertNull(failure.get(), failure.get());
+            assertEquals(100, handler.getProgress(), 1e-9);
+            assertEquals(100, view.progress);
+            assertTrue(view.highest <= 100);
+        }
+    }
+}
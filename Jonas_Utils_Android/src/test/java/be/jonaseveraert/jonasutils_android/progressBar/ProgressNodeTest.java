@@ -0,0 +1,162 @@
+package be.jonaseveraert.jonasutils_android.progressBar;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ProgressNodeTest {
+    private AtomicInteger notifications;
+    private ProgressNode root;
+
+    @Before
+    public void setUp() {
+        notifications = new AtomicInteger();
+        root = new ProgressNode("process", new ProgressNode.Listener() {
+            @Override
+            public void onProgressChanged(ProgressNode changed) {
+                assertSame(root, changed);
+                notifications.incrementAndGet();
+            }
+        });
+    }
+
+    @Test
+    public void childrenCountByTheirWeight() {
+        ProgressNode small = root.addChild("small", 1);
+        ProgressNode large = root.addChild("large", 3);
+        small.complete();
+        assertEquals(0.25, root.getProgress(), 1e-9);
+        large.setProgress(0.5);
+        assertEquals(0.625, root.getProgress(), 1e-9);
+        assertEquals(0.5, large.getProgress(), 1e-9);
+        assertEquals(3, large.getWeight());
+        assertSame(root, large.getParent());
+    }
+
+    @Test
+    public void progressPropagatesThroughAllLevels() {
+        ProgressNode stage = root.addChild("stage", 1);
+        root.addChild("other", 1);
+        ProgressNode first = stage.addChild("first", 10);
+        ProgressNode second = stage.addChild("second", 30);
+        notifications.set(0);
+
+        first.advance(5);
+        assertEquals(0.125, stage.getProgress(), 1e-9);
+        assertEquals(0.0625, root.getProgress(), 1e-9);
+        assertEquals(1, notifications.get());
+        second.complete();
+        first.complete();
+        assertEquals(1, stage.getProgress(), 0);
+        assertEquals(0.5, root.getProgress(), 1e-9);
+        assertEquals(3, notifications.get());
+    }
+
+    @Test
+    public void unchangedProgressDoesNotNotify() {
+        ProgressNode leaf = root.addChild("leaf", 1);
+        leaf.setProgress(0.5);
+        int before = notifications.get();
+        leaf.setProgress(0.5);
+        leaf.advance(0);
+        assertEquals(before, notifications.get());
+    }
+
+    @Test
+    public void newChildLowersTheProgressOfItsParent() {
+        root.addChild("done", 1).complete();
+        assertEquals(1, root.getProgress(), 0);
+        root.addChild("queued", 1);
+        assertEquals(0.5, root.getProgress(), 1e-9);
+    }
+
+    @Test
+    public void advanceIsClampedToTheLeaf() {
+        ProgressNode leaf = root.addChild("leaf", 4);
+        leaf.advance(3);
+        leaf.advance(3);
+        assertEquals(1, leaf.getProgress(), 0);
+        leaf.advance(-10);
+        assertEquals(0, leaf.getProgress(), 0);
+        leaf.setProgress(7);
+        assertEquals(1, root.getProgress(), 0);
+    }
+
+    @Test
+    public void unevenWeightsAddUpToExactlyOne() {
+        ProgressNode[] leaves = {
+                root.addChild("a", 1),
+                root.addChild("b", 7),
+                root.addChild("c", 3),
+                root.addChild("d", 1L << 40)
+        };
+        for (ProgressNode leaf : leaves) {
+            leaf.setProgress(1 / 3.0);
+            leaf.setProgress(2 / 3.0);
+            leaf.complete();
+        }
+        assertEquals(1, root.getProgress(), 0);
+
+        ProgressNode thirds = new ProgressNode("thirds", null);
+        ProgressNode stage = thirds.addChild("stage", 1);
+        for (int i = 0; i < 3; i++)
+            stage.addChild("third", 1).complete();
+        assertEquals(1, stage.getProgress(), 0);
+        assertEquals(1, thirds.getProgress(), 0);
+    }
+
+    @Test
+    public void concurrentLeavesAddUpToExactlyOne() throws InterruptedException {
+        final int threads = 8;
+        final int steps = 2000;
+        ProgressNode stage = root.addChild("stage", 5);
+        root.addChild("other", 3).complete();
+        final ProgressNode[] leaves = new ProgressNode[threads / 2];
+        for (int i = 0; i < leaves.length; i++)
+            leaves[i] = stage.addChild("leaf " + i, 2 * steps);
+
+        // Two threads advance every leaf at the same time
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final ProgressNode leaf = leaves[t / 2];
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < steps; i++)
+                        leaf.advance(1);
+                }
+            });
+            workers[t].start();
+        }
+        go.countDown();
+        for (Thread worker : workers)
+            worker.join();
+
+        for (ProgressNode leaf : leaves)
+            assertEquals(1, leaf.getProgress(), 0);
+        assertEquals(1, stage.getProgress(), 0);
+        assertEquals(1, root.getProgress(), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void nodeWithChildrenCantReportItself() {
+        root.addChild("child", 1);
+        root.setProgress(0.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weightHasToBePositive() {
+        root.addChild("child", 0);
+    }
+}
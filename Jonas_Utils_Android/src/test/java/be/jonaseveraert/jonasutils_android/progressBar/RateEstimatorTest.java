@@ -0,0 +1,94 @@
+package be.jonaseveraert.jonasutils_android.progressBar;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RateEstimatorTest {
+    private static final long MS = 1000000L;
+
+    private RateEstimator estimator;
+
+    @Before
+    public void setUp() {
+        estimator = new RateEstimator(1000);
+    }
+
+    @Test
+    public void firstSampleOnlySetsTheStart() {
+        estimator.sample(50, 0);
+        assertEquals(-1, estimator.getRate(), 0);
+        assertEquals(-1, estimator.getRemainingMs(10));
+    }
+
+    @Test
+    public void firstRateIsTakenAsIs() {
+        estimator.sample(0, 0);
+        estimator.sample(10, 500 * MS);
+        assertEquals(20, estimator.getRate(), 1e-9);
+        assertEquals(2500, estimator.getRemainingMs(50));
+    }
+
+    @Test
+    public void samplesWithinTheMinimumIntervalAreMerged() {
+        estimator.sample(0, 0);
+        estimator.sample(100, 199 * MS);
+        assertEquals(-1, estimator.getRate(), 0);
+        // Measured from the first sample, the skipped one doesn't move the start
+        estimator.sample(100, 400 * MS);
+        assertEquals(250, estimator.getRate(), 1e-9);
+    }
+
+    @Test
+    public void newRatesAreWeightedByTheTimeTheyCover() {
+        estimator.sample(0, 0);
+        estimator.sample(10, 1000 * MS);
+        assertEquals(10, estimator.getRate(), 1e-9);
+
+        // One time constant: the new rate gets 1 - 1/e of the weight
+        estimator.sample(40, 2000 * MS);
+        double alpha = 1 - Math.exp(-1);
+        assertEquals(10 + alpha * 20, estimator.getRate(), 1e-9);
+
+        // A short sample barely moves the estimate
+        double before = estimator.getRate();
+        estimator.sample(140, 2200 * MS);
+        alpha = 1 - Math.exp(-0.2);
+        assertEquals(before + alpha * (500 - before), estimator.getRate(), 1e-9);
+    }
+
+    @Test
+    public void progressGoingBackCountsAsNoProgress() {
+        estimator.sample(100, 0);
+        estimator.sample(40, 1000 * MS);
+        assertEquals(0, estimator.getRate(), 0);
+    }
+
+    @Test
+    public void noRemainingTimeWhenTheRateIsZero() {
+        estimator.sample(10, 0);
+        estimator.sample(10, 1000 * MS);
+        assertEquals(0, estimator.getRate(), 0);
+        assertEquals(-1, estimator.getRemainingMs(10));
+    }
+
+    @Test
+    public void nothingRemainingTakesNoTime() {
+        estimator.sample(0, 0);
+        estimator.sample(10, 1000 * MS);
+        assertEquals(0, estimator.getRemainingMs(0));
+        assertEquals(0, estimator.getRemainingMs(-5));
+    }
+
+    @Test
+    public void resetForgetsTheRate() {
+        estimator.sample(0, 0);
+        estimator.sample(10, 1000 * MS);
+        estimator.reset();
+        assertEquals(-1, estimator.getRate(), 0);
+        estimator.sample(500, 5000 * MS);
+        estimator.sample(530, 6000 * MS);
+        assertEquals(30, estimator.getRate(), 1e-9);
+    }
+}
@@ -0,0 +1,132 @@
+package be.jonaseveraert.jonasutils_android.string.emoji;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.COUPLE;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.GRINNING;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.HEART;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.NAMES;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.SMILING;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.VALUES;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.json;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class EmojiIndexTest {
+    private EmojiIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        index = EmojiTestData.index();
+    }
+
+    @Test
+    public void allNotationsAreParsed() {
+        assertEquals(VALUES.length, index.size());
+        assertEquals("grinning face", index.getName(GRINNING));
+        assertEquals("couple", index.getName(COUPLE));
+        assertEquals("red heart", index.getName(HEART));
+        assertEquals("smiling face", index.getName(SMILING));
+        assertEquals(3, index.getCodePointCount(index.indexOf(COUPLE)));
+        assertEquals(0x200D, index.getCodePoint(index.indexOf(COUPLE), 1));
+    }
+
+    @Test
+    public void namesFindTheirEmoji() {
+        for (int i = 0; i < index.size(); i++)
+            assertEquals(i, index.indexOfName(NAMES[i]));
+        assertEquals(COUPLE, index.getEmoji("couple"));
+        assertEquals(COUPLE, index.getEmojiAt(index.indexOfName("couple")));
+    }
+
+    @Test
+    public void duplicateSequenceKeepsItsFirstName() {
+        assertEquals(0, index.indexOf(GRINNING));
+        assertEquals("grinning face", index.getName(GRINNING));
+        assertEquals(GRINNING, index.getEmoji("grinning face again"));
+    }
+
+    @Test
+    public void lookupsOfPartsOfATextAndOfCodePoints() {
+        String text = "hi " + COUPLE + "!";
+        assertEquals(index.indexOf(COUPLE), index.indexOf(text, 3, 3 + COUPLE.length()));
+        int[] codePoints = {0, 0x1F468, 0x200D, 0x1F469};
+        assertEquals(index.indexOf(COUPLE), index.indexOfCodePoints(codePoints, 1, 3));
+        assertEquals(index.indexOf(EmojiTestData.MAN), index.indexOfCodePoints(codePoints, 1, 1));
+
+        StringBuilder name = new StringBuilder("name: ");
+        index.appendName(index.indexOf(COUPLE), name);
+        assertEquals("name: couple", name.toString());
+    }
+
+    @Test
+    public void unknownEmojiAndNamesAreNotFound() {
+        assertEquals(EmojiIndex.NOT_FOUND, index.indexOf("a"));
+        assertEquals(EmojiIndex.NOT_FOUND, index.indexOf(EmojiTestData.MAN + EmojiTestData.ZWJ));
+        assertEquals(EmojiIndex.NOT_FOUND, index.indexOfName("grinning"));
+        assertNull(index.getName("?"));
+        assertNull(index.getEmoji("no such emoji"));
+    }
+
+    @Test
+    public void binaryRoundTrip() throws IOException {
+        ByteBuffer table = index.toBinary();
+        int position = table.position();
+        EmojiIndex copy = EmojiIndex.fromBinary(table);
+        assertEquals(position, table.position());
+
+        assertEquals(index.size(), copy.size());
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(index.getEmojiAt(i), copy.getEmojiAt(i));
+            assertEquals(index.getNameAt(i), copy.getNameAt(i));
+            assertEquals(index.indexOf(index.getEmojiAt(i)), copy.indexOf(copy.getEmojiAt(i)));
+            assertEquals(i, copy.indexOfName(NAMES[i]));
+        }
+        assertEquals(table, copy.toBinary());
+    }
+
+    @Test
+    public void binaryTableIsReadFromItsPosition() throws IOException {
+        ByteBuffer table = index.toBinary();
+        ByteBuffer shifted = ByteBuffer.allocate(table.remaining() + 3);
+        shifted.position(3);
+        shifted.put(table);
+        shifted.position(3);
+        assertEquals("couple", EmojiIndex.fromBinary(shifted).getName(COUPLE));
+    }
+
+    @Test
+    public void invalidBinaryTablesAreRejected() {
+        ByteBuffer table = index.toBinary();
+        ByteBuffer wrongMagic = index.toBinary();
+        wrongMagic.putInt(0, 0x12345678);
+        ByteBuffer wrongVersion = index.toBinary();
+        wrongVersion.putInt(4, EmojiIndex.TABLE_VERSION + 1);
+        ByteBuffer truncated = (ByteBuffer) table.duplicate().limit(table.limit() - 2);
+        ByteBuffer header = (ByteBuffer) table.duplicate().limit(10);
+
+        for (ByteBuffer invalid : new ByteBuffer[]{wrongMagic, wrongVersion, truncated, header}) {
+            try {
+                EmojiIndex.fromBinary(invalid);
+                fail("Read an invalid table");
+            } catch (IOException expected) {
+                // Rejected
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void valuesAndNamesMustMatch() throws IOException {
+        EmojiIndex.fromJson(json("1f600", "1f601"), json("grinning face"));
+    }
+
+    @Test(expected = IOException.class)
+    public void emptyValueIsRejected() throws IOException {
+        EmojiIndex.fromJson(json(" "), json("nothing"));
+    }
+}
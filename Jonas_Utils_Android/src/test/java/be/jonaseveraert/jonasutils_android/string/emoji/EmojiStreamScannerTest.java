@@ -0,0 +1,150 @@
+package be.jonaseveraert.jonasutils_android.string.emoji;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.COUPLE;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.FLAG_BE;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.GRINNING;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.HEART;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.MAN;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.MEDIUM_SKIN_TONE;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.THUMBS_UP;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.VARIATION_SELECTOR;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.ZWJ;
+import static org.junit.Assert.assertEquals;
+
+public class EmojiStreamScannerTest {
+    private static final String TEXT = "hi " + COUPLE + "," + HEART + VARIATION_SELECTOR + THUMBS_UP + MEDIUM_SKIN_TONE
+            + " " + MAN + ZWJ + " " + FLAG_BE + GRINNING + "!";
+
+    private EmojiTrie trie;
+    private List<String> spans;
+    private EmojiStreamScanner scanner;
+
+    @Before
+    public void setUp() throws IOException {
+        trie = new EmojiTrie(EmojiTestData.index());
+        spans = new ArrayList<>();
+        scanner = newScanner(spans);
+    }
+
+    private EmojiStreamScanner newScanner(final List<String> spans) {
+        return new EmojiStreamScanner(trie, new EmojiStreamScanner.SpanHandler() {
+            @Override
+            public void onEmoji(long offset, int length, int entry) {
+                spans.add(offset + "+" + length + " " + trie.getIndex().getNameAt(entry));
+            }
+        });
+    }
+
+    /**
+     * @return the spans {@link EmojiTrie#scan EmojiTrie.scan} finds in the whole text
+     */
+    private List<String> expectedSpans(String text) {
+        final List<String> expected = new ArrayList<>();
+        trie.scan(text, 0, text.length(), new EmojiTrie.MatchHandler() {
+            @Override
+            public void onEmoji(CharSequence scanned, int start, int end, int entry) {
+                expected.add(start + "+" + (end - start) + " " + trie.getIndex().getNameAt(entry));
+            }
+        });
+        return expected;
+    }
+
+    @Test
+    public void sameSpansAsOneScanForEverySplit() {
+        List<String> expected = expectedSpans(TEXT);
+        assertEquals(6, expected.size());
+        for (int split = 0; split <= TEXT.length(); split++) {
+            List<String> found = new ArrayList<>();
+            EmojiStreamScanner splitScanner = newScanner(found);
+            splitScanner.feed(TEXT.substring(0, split));
+            splitScanner.feed(TEXT.substring(split));
+            splitScanner.finish();
+            assertEquals("Split at " + split, expected, found);
+        }
+    }
+
+    @Test
+    public void sameSpansAsOneScanForEveryChunkSize() {
+        List<String> expected = expectedSpans(TEXT);
+        for (int size = 1; size <= TEXT.length(); size++) {
+            List<String> found = new ArrayList<>();
+            EmojiStreamScanner chunkScanner = newScanner(found);
+            // One buffer that is refilled for every chunk
+            CharBuffer chunk = CharBuffer.allocate(size);
+            for (int start = 0; start < TEXT.length(); start += size) {
+                chunk.clear();
+                chunk.put(TEXT, start, Math.min(TEXT.length(), start + size));
+                chunk.flip();
+                chunkScanner.feed(chunk);
+            }
+            chunkScanner.finish();
+            assertEquals("Chunks of " + size, expected, found);
+            assertEquals(TEXT.length(), chunkScanner.getOffset());
+        }
+    }
+
+    @Test
+    public void splitSurrogatePairIsCarried() {
+        scanner.feed("a" + GRINNING.charAt(0));
+        assertEquals(0, spans.size());
+        scanner.feed(GRINNING.substring(1));
+        scanner.finish();
+        assertEquals(1, scanner.getEmojiCount());
+        assertEquals("1+2 grinning face", spans.get(0));
+    }
+
+    @Test
+    public void sequenceIsNotReportedBeforeItCanBeComplete() {
+        scanner.feed(MAN);
+        scanner.feed(ZWJ);
+        assertEquals(0, spans.size());
+        scanner.feed(COUPLE.substring(3) + "xxxxxxxxxx");
+        assertEquals("0+5 couple", spans.get(0));
+        assertEquals(1, spans.size());
+    }
+
+    @Test
+    public void finishReportsTheCarry() {
+        scanner.feed("x" + HEART);
+        assertEquals(0, spans.size());
+        scanner.finish();
+        assertEquals("1+1 red heart", spans.get(0));
+        // Finishing twice does nothing
+        scanner.finish();
+        assertEquals(1, spans.size());
+    }
+
+    @Test
+    public void lonelySurrogateAtTheEndIsNotAnEmoji() {
+        scanner.feed("x" + GRINNING.charAt(0));
+        scanner.finish();
+        assertEquals(0, scanner.getEmojiCount());
+        assertEquals(2, scanner.getOffset());
+    }
+
+    @Test
+    public void scanReader() throws IOException {
+        StringBuilder text = new StringBuilder();
+        // Longer than the read buffer, so emoji end up split over reads
+        while (text.length() < 20000)
+            text.append(TEXT);
+        scanner.scan(new StringReader(text.toString()));
+        assertEquals(expectedSpans(text.toString()), spans);
+        assertEquals(text.length(), scanner.getOffset());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void feedAfterFinish() {
+        scanner.finish();
+        scanner.feed("a");
+    }
+}
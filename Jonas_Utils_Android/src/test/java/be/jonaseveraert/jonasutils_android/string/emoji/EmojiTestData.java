@@ -0,0 +1,74 @@
+package be.jonaseveraert.jonasutils_android.string.emoji;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * A small emoji set in the format of the emoji JSON files
+ */
+final class EmojiTestData {
+    static final String GRINNING = "😀"; // U+1F600
+    static final String MAN = "👨"; // U+1F468
+    static final String WOMAN = "👩"; // U+1F469
+    static final String ZWJ = "‍";
+    static final String COUPLE = MAN + ZWJ + WOMAN;
+    static final String HEART = "❤"; // U+2764, without variation selector
+    static final String VARIATION_SELECTOR = "️";
+    static final String SMILING = "☺"; // U+263A
+    static final String THUMBS_UP = "👍"; // U+1F44D
+    static final String MEDIUM_SKIN_TONE = "🏽"; // U+1F3FD
+    static final String FLAG_BE = "🇧🇪"; // U+1F1E7 U+1F1EA
+
+    /**
+     * The values as they appear in the JSON: hexadecimal in several notations and an emoji itself.
+     * The last one repeats the first sequence.
+     */
+    static final String[] VALUES = {
+            "1f600",
+            "U+1F468 200D U+1F469",
+            "2764",
+            SMILING,
+            "1f468",
+            "1f469",
+            "1f44d",
+            "1f44d-1f3fd",
+            "1f1e7_1f1ea",
+            "1F600"
+    };
+    static final String[] NAMES = {
+            "grinning face",
+            "couple",
+            "red heart",
+            "smiling face",
+            "man",
+            "woman",
+            "thumbs up",
+            "thumbs up: medium skin tone",
+            "flag: Belgium",
+            "grinning face again"
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private EmojiTestData() {
+    }
+
+    static EmojiIndex index() throws IOException {
+        return EmojiIndex.fromJson(json(VALUES), json(NAMES));
+    }
+
+    /**
+     * @return a JSON object with the strings in a "unicode" array
+     */
+    static ByteArrayInputStream json(String... strings) {
+        StringBuilder json = new StringBuilder("{\"unicode\": [");
+        for (int i = 0; i < strings.length; i++) {
+            if (i > 0)
+                json.append(", ");
+            json.append('"').append(strings[i]).append('"');
+        }
+        json.append("]}");
+        return new ByteArrayInputStream(json.toString().getBytes(UTF_8));
+    }
+}
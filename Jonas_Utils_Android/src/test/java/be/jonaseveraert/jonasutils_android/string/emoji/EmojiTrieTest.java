@@ -0,0 +1,118 @@
+package be.jonaseveraert.jonasutils_android.string.emoji;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.COUPLE;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.FLAG_BE;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.GRINNING;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.HEART;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.MAN;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.MEDIUM_SKIN_TONE;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.THUMBS_UP;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.VARIATION_SELECTOR;
+import static be.jonaseveraert.jonasutils_android.string.emoji.EmojiTestData.ZWJ;
+import static org.junit.Assert.assertEquals;
+
+public class EmojiTrieTest {
+    private EmojiIndex index;
+    private EmojiTrie trie;
+
+    @Before
+    public void setUp() throws IOException {
+        index = EmojiTestData.index();
+        trie = new EmojiTrie(index);
+    }
+
+    private void assertMatch(String name, int length, long match) {
+        assertEquals(name, index.getNameAt(EmojiTrie.matchEntry(match)));
+        assertEquals(length, EmojiTrie.matchLength(match));
+    }
+
+    @Test
+    public void longestSequenceMatches() {
+        assertMatch("couple", COUPLE.length(), trie.match(COUPLE, 0, COUPLE.length()));
+        String toned = THUMBS_UP + MEDIUM_SKIN_TONE;
+        assertMatch("thumbs up: medium skin tone", 4, trie.match(toned, 0, toned.length()));
+        assertMatch("flag: Belgium", 4, trie.match(FLAG_BE, 0, FLAG_BE.length()));
+    }
+
+    @Test
+    public void incompleteSequenceFallsBackToItsLongestPrefix() {
+        String text = MAN + ZWJ + GRINNING;
+        assertMatch("man", 2, trie.match(text, 0, text.length()));
+        // The end of the range cuts the sequence
+        assertMatch("man", 2, trie.match(COUPLE, 0, 3));
+        assertEquals(EmojiTrie.NO_MATCH, trie.match(COUPLE, 0, 1));
+    }
+
+    @Test
+    public void variationSelectorIsPartOfTheMatch() {
+        String text = HEART + VARIATION_SELECTOR + "!";
+        assertMatch("red heart", 2, trie.match(text, 0, text.length()));
+        assertMatch("red heart", 1, trie.match(text, 0, 1));
+    }
+
+    @Test
+    public void ordinaryTextDoesNotMatch() {
+        assertEquals(EmojiTrie.NO_MATCH, trie.match("abc", 0, 3));
+        assertEquals(EmojiTrie.NO_MATCH, trie.match(ZWJ, 0, 1));
+        assertEquals(EmojiTrie.NO_MATCH, trie.match(MEDIUM_SKIN_TONE, 0, 2));
+        assertEquals(EmojiTrie.NO_MATCH, trie.match("", 0, 0));
+    }
+
+    @Test
+    public void duplicateSequenceKeepsItsFirstEntry() {
+        assertMatch("grinning face", 2, trie.match(GRINNING, 0, 2));
+    }
+
+    @Test
+    public void maxMatchLengthIncludesTheVariationSelector() {
+        assertEquals(COUPLE.length() + 1, trie.getMaxMatchLength());
+    }
+
+    @Test
+    public void scanFindsAllEmojiInTheRange() {
+        final String text = "a" + GRINNING + "b" + COUPLE + "c" + THUMBS_UP + MEDIUM_SKIN_TONE + "\uD83D";
+        final List<String> found = new ArrayList<>();
+        int count = trie.scan(text, 0, text.length(), new EmojiTrie.MatchHandler() {
+            @Override
+            public void onEmoji(CharSequence scanned, int start, int end, int entry) {
+                found.add(start + "-" + end + " " + index.getNameAt(entry));
+            }
+        });
+        assertEquals(3, count);
+        assertEquals("1-3 grinning face", found.get(0));
+        assertEquals("4-9 couple", found.get(1));
+        assertEquals("10-14 thumbs up: medium skin tone", found.get(2));
+
+        assertEquals(1, trie.scan(text, 3, text.length() - 6, new EmojiTrie.MatchHandler() {
+            @Override
+            public void onEmoji(CharSequence scanned, int start, int end, int entry) {
+                assertEquals(4, start);
+            }
+        }));
+    }
+
+    @Test
+    public void replaceWithNames() {
+        StringBuilder out = new StringBuilder(">");
+        assertEquals(2, trie.replaceWithNames("I " + HEART + VARIATION_SELECTOR + " " + FLAG_BE + ".", out, ":", ":"));
+        assertEquals(">I :red heart: :flag: Belgium:.", out.toString());
+    }
+
+    @Test
+    public void annotateWithNames() {
+        StringBuilder out = new StringBuilder();
+        assertEquals(1, trie.annotateWithNames("hi " + GRINNING, out, " (", ")"));
+        assertEquals("hi " + GRINNING + " (grinning face)", out.toString());
+
+        out.setLength(0);
+        assertEquals(0, trie.annotateWithNames("no emoji", out, " (", ")"));
+        assertEquals("no emoji", out.toString());
+    }
+}
@@ -0,0 +1,156 @@
+package be.jonaseveraert.jonasutils_android.audio;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import be.jonaseveraert.jonasutils_android.audio.codec.EncodeLoop;
+import be.jonaseveraert.jonasutils_android.audio.codec.EncoderMetrics;
+import be.jonaseveraert.jonasutils_android.audio.codec.FileAudioMuxer;
+import be.jonaseveraert.jonasutils_android.audio.codec.PassthroughAudioEncoder;
+import be.jonaseveraert.jonasutils_android.audio.codec.PcmFormat;
+import be.jonaseveraert.jonasutils_android.audio.waveform.WaveformBuilder;
+
+/**
+ * PCM buffer handling of the converter: reading the input with each {@link AudioConverter.InputMode input mode},
+ * reading it while computing its {@link WaveformBuilder waveform}, reading it through the
+ * {@link SilenceTrimmingPcmSource silence trimming} and {@link LoudnessNormalizingPcmSource loudness}
+ * stages, and running the whole
+ * {@link EncodeLoop EncodeLoop} with the pure Java backend, with and without {@link EncoderMetrics metrics}.
+ * The {@code bytes} counter reports the throughput in bytes per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PcmBufferBenchmark {
+    private static final int SAMPLING_RATE = 44100;
+    /**
+     * The input buffer size the converter configures ({@code KEY_MAX_INPUT_SIZE})
+     */
+    private static final int CODEC_BUFFER_SIZE = 16384;
+    private static final int CODEC_BUFFER_COUNT = 4;
+
+    @Param({"8388608"})
+    public int fileSize;
+
+    @Param({"0", "1"}) // FilePcmSource.MODE_STREAM, FilePcmSource.MODE_CHANNEL
+    public int inputMode;
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private File input;
+    private File output;
+    private ByteBuffer codecBuffer;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void createInput() throws IOException {
+        input = File.createTempFile("pcm-input", ".raw");
+        output = File.createTempFile("pcm-output", ".raw");
+        byte[] pcm = new byte[fileSize];
+        new Random(42).nextBytes(pcm);
+        try (RandomAccessFile raf = new RandomAccessFile(input, "rw")) {
+            raf.write(pcm);
+        }
+        // Codec input buffers are direct
+        codecBuffer = ByteBuffer.allocateDirect(CODEC_BUFFER_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        input.delete();
+        output.delete();
+    }
+
+    @Benchmark
+    public long readInput(Counters counters) throws IOException {
+        long total = 0;
+        try (FilePcmSource source = new FilePcmSource(input, inputMode, SAMPLING_RATE)) {
+            int bytesRead;
+            do {
+                codecBuffer.clear();
+                bytesRead = source.read(codecBuffer);
+                if (bytesRead > 0)
+                    total += bytesRead;
+            } while (bytesRead != -1);
+        }
+        counters.bytes += total;
+        return total;
+    }
+
+    @Benchmark
+    public long readInputWithWaveform(Counters counters) throws IOException {
+        WaveformBuilder waveform = new WaveformBuilder(SAMPLING_RATE, 1);
+        long total = 0;
+        try (FilePcmSource source = new FilePcmSource(input, inputMode, SAMPLING_RATE)) {
+            int bytesRead;
+            do {
+                codecBuffer.clear();
+                bytesRead = source.read(codecBuffer);
+                if (bytesRead > 0) {
+                    waveform.accumulate(codecBuffer, 0, bytesRead);
+                    total += bytesRead;
+                }
+            } while (bytesRead != -1);
+        }
+        counters.bytes += total;
+        return waveform.build().getFrameCount();
+    }
+
+    @Benchmark
+    public long readInputProcessed(Counters counters) throws IOException {
+        long total = 0;
+        PcmSource source = new LoudnessNormalizingPcmSource(new SilenceTrimmingPcmSource(
+                new FilePcmSource(input, inputMode, SAMPLING_RATE), SAMPLING_RATE, 1), SAMPLING_RATE, 1);
+        try {
+            int bytesRead;
+            do {
+                codecBuffer.clear();
+                bytesRead = source.read(codecBuffer);
+                if (bytesRead > 0)
+                    total += bytesRead;
+            } while (bytesRead != -1);
+        } finally {
+            source.close();
+        }
+        // Counts the input, the trimmed output is shorter
+        counters.bytes += fileSize;
+        return total;
+    }
+
+    @Benchmark
+    public boolean encodeLoop(Counters counters) throws IOException {
+        PassthroughAudioEncoder encoder = new PassthroughAudioEncoder(
+                new PcmFormat("audio/raw", SAMPLING_RATE, 1), CODEC_BUFFER_COUNT, CODEC_BUFFER_SIZE);
+        EncodeLoop<PcmFormat> loop = new EncodeLoop<>(encoder, new FileAudioMuxer(output), SAMPLING_RATE, 1, 5000);
+        if (metrics)
+            loop.setMetrics(new EncoderMetrics());
+        boolean finished;
+        try (FilePcmSource source = new FilePcmSource(input, inputMode, SAMPLING_RATE)) {
+            finished = loop.run(source);
+        }
+        counters.bytes += fileSize;
+        return finished;
+    }
+}
@@ -0,0 +1,60 @@
+package be.jonaseveraert.jonasutils_android.io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies a file of {@link #fileSize fileSize} bytes with {@link FileUtils#copyTo FileUtils.copyTo},
+ * directly or synced and renamed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileUtilsBenchmark {
+    @Param({"4096", "1048576", "33554432"})
+    public int fileSize;
+
+    private File src;
+    private File dst;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        src = File.createTempFile("copyTo-src", ".bin");
+        dst = File.createTempFile("copyTo-dst", ".bin");
+        byte[] data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        try (RandomAccessFile raf = new RandomAccessFile(src, "rw")) {
+            raf.write(data);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        src.delete();
+        dst.delete();
+    }
+
+    @Benchmark
+    public void copyTo() throws IOException {
+        FileUtils.copyTo(src, dst);
+    }
+
+    @Benchmark
+    public void copyToDurable() throws IOException {
+        FileUtils.copyTo(src, dst, null, true);
+    }
+}
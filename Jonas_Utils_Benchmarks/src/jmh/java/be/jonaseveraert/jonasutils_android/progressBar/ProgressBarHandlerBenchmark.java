@@ -0,0 +1,89 @@
+package be.jonaseveraert.jonasutils_android.progressBar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Update throughput of {@link ProgressBarHandler ProgressBarHandler} behind a view that only stores the progress.
+ * The view is updated on the reporting thread instead of on the next frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProgressBarHandlerBenchmark {
+    private static final int ACTIVITIES = 1_000_000;
+
+    private ProgressBarHandler handler;
+
+    /**
+     * A view without any drawing
+     */
+    static final class FakeProgressView implements ProgressView {
+        private int max;
+        private int progress;
+
+        @Override
+        public void setMax(int max) {
+            this.max = max;
+        }
+
+        @Override
+        public void setProgress(int progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public int getProgress() {
+            return progress;
+        }
+    }
+
+    /**
+     * Draws right away, there is no main thread
+     */
+    static final class DirectExecutor implements Executor {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startProgressBar() {
+        handler = new ProgressBarHandler(new FakeProgressView(), new DirectExecutor());
+        handler.setNumSubProcesses(1);
+        handler.setNumActivitiesInSubProcesses(0, ACTIVITIES);
+        handler.setSubProcessInfo(0, "Benchmark");
+        handler.startProgressBar();
+    }
+
+    /**
+     * An iteration can get through more than {@link #ACTIVITIES ACTIVITIES} updates, a full bar is
+     * started again so the progress never goes past 100%
+     */
+    private void restartWhenFull() {
+        if (handler.getProgress() >= 100)
+            startProgressBar();
+    }
+
+    @Benchmark
+    public void completeActivity() {
+        restartWhenFull();
+        handler.completeActivity(false);
+    }
+
+    @Benchmark
+    public void updateProgressBar() {
+        restartWhenFull();
+        handler.updateProgressBar(0.0001);
+    }
+}
@@ -0,0 +1,112 @@
+package be.jonaseveraert.jonasutils_android.string.emoji;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the {@link EmojiIndex EmojiIndex} from the JSON streams or from the binary table, and
+ * looking up emoji in it. The JSON has the same layout as in {@link EmojiJsonParserBenchmark EmojiJsonParserBenchmark},
+ * the table is written like the {@code compileEmojiTable} Gradle task does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EmojiIndexBenchmark {
+    @Param({"1000", "4000"})
+    public int entries;
+
+    private byte[] valuesJson;
+    private byte[] namesJson;
+    private ByteBuffer table;
+    private EmojiIndex index;
+    private String[] emoji;
+    private String[] names;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void createJson() throws IOException {
+        StringBuilder values = new StringBuilder("{\n  \"unicode\": [\n");
+        StringBuilder nameValues = new StringBuilder("{\n  \"unicode\": [\n");
+        emoji = new String[entries];
+        names = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            int codePoint = 0x1F300 + i;
+            values.append("    \"").append(Integer.toHexString(codePoint)).append(" 200d ").append(Integer.toHexString(codePoint + 1)).append('"');
+            values.append(i == entries - 1 ? "\n" : ",\n");
+            nameValues.append("    \"emoji ").append(i).append('"').append(i == entries - 1 ? "\n" : ",\n");
+            emoji[i] = new String(new int[]{codePoint, 0x200D, codePoint + 1}, 0, 3);
+            names[i] = "emoji " + i;
+        }
+        values.append("  ]\n}\n");
+        nameValues.append("  ]\n}\n");
+        Charset utf8 = Charset.forName("UTF-8");
+        valuesJson = values.toString().getBytes(utf8);
+        namesJson = nameValues.toString().getBytes(utf8);
+        index = build();
+        table = createTable();
+    }
+
+    private ByteBuffer createTable() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int nameChars = 0;
+        for (String name : names)
+            nameChars += name.length();
+        out.writeInt(EmojiIndex.TABLE_MAGIC);
+        out.writeInt(EmojiIndex.TABLE_VERSION);
+        out.writeInt(entries);
+        out.writeInt(entries * 3);
+        out.writeInt(nameChars);
+        for (int i = 0; i <= entries; i++)
+            out.writeInt(i * 3);
+        for (String value : emoji) {
+            for (int i = 0; i < value.length(); i += Character.charCount(value.codePointAt(i)))
+                out.writeInt(value.codePointAt(i));
+        }
+        int offset = 0;
+        out.writeInt(offset);
+        for (String name : names)
+            out.writeInt(offset += name.length());
+        for (String name : names)
+            out.writeChars(name);
+        out.flush();
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @Benchmark
+    public EmojiIndex build() throws IOException {
+        return EmojiIndex.fromJson(new ByteArrayInputStream(valuesJson), new ByteArrayInputStream(namesJson));
+    }
+
+    @Benchmark
+    public EmojiIndex buildFromBinary() throws IOException {
+        return EmojiIndex.fromBinary(table);
+    }
+
+    @Benchmark
+    public int lookupEmoji() {
+        next = (next + 1) % entries;
+        return index.indexOf(emoji[next]);
+    }
+
+    @Benchmark
+    public int lookupName() {
+        next = (next + 1) % entries;
+        return index.indexOfName(names[next]);
+    }
+}
@@ -0,0 +1,57 @@
+package be.jonaseveraert.jonasutils_android.string.emoji;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads and parses an emoji JSON file the way {@link EmojiUtils EmojiUtils} does on every lookup.
+ * The file is generated with {@link #entries entries} code point sequences, formatted one entry per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EmojiJsonParserBenchmark {
+    @Param({"1000", "4000"})
+    public int entries;
+
+    private File jsonFile;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        jsonFile = File.createTempFile("unicode_values", ".json");
+        try (Writer writer = new FileWriter(jsonFile)) {
+            writer.write("{\n  \"unicode\": [\n");
+            for (int i = 0; i < entries; i++) {
+                int codePoint = 0x1F300 + i;
+                writer.write("    \"" + Integer.toHexString(codePoint) + " 200d " + Integer.toHexString(codePoint + 1) + "\"");
+                writer.write(i == entries - 1 ? "\n" : ",\n");
+            }
+            writer.write("  ]\n}\n");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() {
+        jsonFile.delete();
+    }
+
+    @Benchmark
+    public JSONArray readUnicodeArray() throws IOException {
+        return EmojiJsonParser.readUnicodeArray(jsonFile);
+    }
+}
@@ -0,0 +1,112 @@
+package be.jonaseveraert.jonasutils_android.string.emoji;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding and replacing emoji in a chat-like text with the {@link EmojiTrie EmojiTrie}, at once or
+ * streamed through an {@link EmojiStreamScanner EmojiStreamScanner}. The index has single emoji,
+ * ZWJ sequences and sequences with a skin tone modifier.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EmojiTrieBenchmark {
+    private static final int ENTRIES = 1000;
+
+    /**
+     * Length of the text in chars
+     */
+    @Param({"65536"})
+    public int textLength;
+
+    /**
+     * Percentage of the words that are an emoji
+     */
+    @Param({"1", "10"})
+    public int emojiPercentage;
+
+    private EmojiIndex index;
+    private EmojiTrie trie;
+    private String text;
+    private final StringBuilder out = new StringBuilder();
+
+    @Setup(Level.Trial)
+    public void createText() throws IOException {
+        StringBuilder values = new StringBuilder("{\"unicode\": [");
+        StringBuilder names = new StringBuilder("{\"unicode\": [");
+        for (int i = 0; i < ENTRIES; i++) {
+            int codePoint = 0x1F300 + i / 3;
+            String value;
+            if (i % 3 == 0)
+                value = Integer.toHexString(codePoint);
+            else if (i % 3 == 1)
+                value = Integer.toHexString(codePoint) + " 1f3fd";
+            else
+                value = Integer.toHexString(codePoint) + " 200d " + Integer.toHexString(codePoint + 1);
+            values.append(i == 0 ? "" : ",").append('"').append(value).append('"');
+            names.append(i == 0 ? "" : ",").append("\"emoji ").append(i).append('"');
+        }
+        values.append("]}");
+        names.append("]}");
+        Charset utf8 = Charset.forName("UTF-8");
+        index = EmojiIndex.fromJson(new ByteArrayInputStream(values.toString().getBytes(utf8)), new ByteArrayInputStream(names.toString().getBytes(utf8)));
+        trie = new EmojiTrie(index);
+
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder(textLength + 16);
+        while (builder.length() < textLength) {
+            if (random.nextInt(100) < emojiPercentage)
+                builder.append(index.getEmojiAt(random.nextInt(ENTRIES)));
+            else
+                builder.append("word");
+            builder.append(' ');
+        }
+        text = builder.toString();
+    }
+
+    @Benchmark
+    public EmojiTrie build() {
+        return new EmojiTrie(index);
+    }
+
+    @Benchmark
+    public int scan() {
+        return trie.scan(text, 0, text.length(), new EmojiTrie.MatchHandler() {
+            @Override
+            public void onEmoji(CharSequence text, int start, int end, int entry) {
+            }
+        });
+    }
+
+    @Benchmark
+    public long scanStream() throws IOException {
+        EmojiStreamScanner scanner = new EmojiStreamScanner(trie, new EmojiStreamScanner.SpanHandler() {
+            @Override
+            public void onEmoji(long offset, int length, int entry) {
+            }
+        });
+        scanner.scan(new StringReader(text));
+        return scanner.getEmojiCount();
+    }
+
+    @Benchmark
+    public int replaceWithNames() {
+        out.setLength(0);
+        return trie.replaceWithNames(text, out, ":", ":");
+    }
+}